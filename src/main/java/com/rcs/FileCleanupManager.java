@@ -127,36 +127,7 @@ public class FileCleanupManager implements Runnable
 			while (itor.hasNext()) {
 				PathEntry entry = itor.next();
 				
-			    try {
-					logger.debug("Deleting {}", entry.path);
-					Files.walkFileTree(
-						entry.path, 
-						new SimpleFileVisitor<Path> () {
-							@Override
-							public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-									throws IOException
-							{
-								Files.delete(file);
-								return FileVisitResult.CONTINUE;
-							}
-
-							@Override
-							public FileVisitResult postVisitDirectory(Path dir, IOException ioe)
-									throws IOException
-							{
-								if (ioe == null) {
-					                 Files.delete(dir);
-					                 return FileVisitResult.CONTINUE;
-					             } else {
-					                 // directory iteration failed
-					                 throw ioe;
-					             }
-							}
-							
-						});
-				} catch (IOException e) {
-					logger.catching(e);
-				}
+				delete(entry.path);
 			}
 			
 			synchronized (entrySet) {
@@ -164,4 +135,53 @@ public class FileCleanupManager implements Runnable
 			}
 		}
 	}
+
+	/**
+	 * Deletes a folder or file now, rather than waiting for it to expire,
+	 * e.g. when its contents have been delivered and won't be needed again.
+	 * 
+	 * @param path The Path to the folder or file to delete.
+	 */
+	public void deleteEntry(final Path path)
+	{
+		synchronized (entrySet) {
+			entrySet.removeIf(entry -> entry.path.equals(path));
+		}
+
+		delete(path);
+	}
+
+	private void delete(final Path path)
+	{
+		try {
+			logger.debug("Deleting {}", path);
+			Files.walkFileTree(
+				path, 
+				new SimpleFileVisitor<Path> () {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+							throws IOException
+					{
+						Files.delete(file);
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult postVisitDirectory(Path dir, IOException ioe)
+							throws IOException
+					{
+						if (ioe == null) {
+			                 Files.delete(dir);
+			                 return FileVisitResult.CONTINUE;
+			             } else {
+			                 // directory iteration failed
+			                 throw ioe;
+			             }
+					}
+					
+				});
+		} catch (IOException e) {
+			logger.catching(e);
+		}
+	}
 }
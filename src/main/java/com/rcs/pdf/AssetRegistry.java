@@ -0,0 +1,137 @@
+package com.rcs.pdf;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.rcs.pdf.cache.LruCache;
+
+/**
+ * Maps content addressed URIs, of the form <code>asset:&lt;digest&gt;</code>,
+ * to a file with that content.
+ * <p>
+ * Resources referenced by a job are given a URI based on the digest of
+ * their contents rather than their file name. Identical images uploaded by
+ * different jobs therefore share a URI, allowing FOP's image cache to reuse
+ * the decoded image, while different images which happen to have the same
+ * file name are kept apart.
+ * <p>
+ * A file is only handed out while the job which registered it is running,
+ * as its directory is deleted once the job is finished. A URI therefore
+ * resolves as long as any running job has registered a file with that
+ * content, and each job's files stay registered until it releases them,
+ * however many other jobs come and go. Decoded images are held by FOP's
+ * image cache through soft references so they are released under memory
+ * pressure.
+ */
+public class AssetRegistry
+{
+	public static final String SCHEME = "asset";
+
+	// The file registered for each digest by each running job, oldest first
+	private Map<String, Map<JobContext, Path>> assets = new HashMap<>();
+
+	// Only tracks how often content is reused
+	private LruCache<String, Boolean> reuse;
+
+	public AssetRegistry(int maxEntries)
+	{
+		reuse = new LruCache<>("Image cache", maxEntries);
+	}
+
+	/**
+	 * Registers a job's file whose digest is already known, returning the
+	 * content addressed URI for it. The file is used to resolve the URI
+	 * until the job releases it.
+	 *
+	 * @param job The job the file belongs to.
+	 * @param digest The digest of the file's contents.
+	 * @param file The file to register.
+	 *
+	 * @return The URI to use when referencing the file.
+	 */
+	public URI register(JobContext job, String digest, Path file)
+	{
+		if (null == reuse.get(digest)) {
+			reuse.put(digest, Boolean.TRUE);
+		}
+
+		synchronized (this) {
+			assets.computeIfAbsent(digest, key -> new LinkedHashMap<>()).put(job, file);
+		}
+
+		return URI.create(SCHEME + ":" + digest);
+	}
+
+	/**
+	 * Releases the files a job registered, once the job no longer needs
+	 * them.
+	 *
+	 * @param job The job.
+	 * @param digests The digests of the files the job registered.
+	 */
+	public synchronized void release(JobContext job, Collection<String> digests)
+	{
+		for (String digest : digests) {
+			Map<JobContext, Path> files = assets.get(digest);
+
+			if (null != files) {
+				files.remove(job);
+
+				if (files.isEmpty()) {
+					assets.remove(digest);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if a URI is a content addressed URI.
+	 *
+	 * @param uri The URI to check.
+	 *
+	 * @return true if the URI is a content addressed URI.
+	 */
+	public static boolean isAssetUri(URI uri) {
+		return SCHEME.equals(uri.getScheme());
+	}
+
+	/**
+	 * Finds a file for a content addressed URI. Any file with the content
+	 * will do, so the one registered first, by the job which has been
+	 * running longest, is used.
+	 *
+	 * @param uri The content addressed URI.
+	 *
+	 * @return The file or null if no running job has registered a file with
+	 * 			the digest.
+	 */
+	public synchronized Path resolve(URI uri)
+	{
+		Path file = null;
+
+		if (isAssetUri(uri)) {
+			Map<JobContext, Path> files = assets.get(uri.getSchemeSpecificPart());
+
+			if (null != files) {
+				file = files.values().iterator().next();
+			}
+		}
+
+		return file;
+	}
+
+	/**
+	 * @return The number of distinct digests registered by running jobs.
+	 */
+	public synchronized int size() {
+		return assets.size();
+	}
+
+	public LruCache<String, Boolean> getCache() {
+		return reuse;
+	}
+}
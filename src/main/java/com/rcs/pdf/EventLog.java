@@ -0,0 +1,67 @@
+package com.rcs.pdf;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.fop.events.Event;
+import org.apache.fop.events.EventFormatter;
+import org.apache.fop.events.EventListener;
+import org.apache.fop.events.model.EventSeverity;
+import org.apache.logging.log4j.Level;
+
+/**
+ * Collects FOP's events in memory, for jobs which don't have a job
+ * directory to write a log file to. Like the job log file, each distinct
+ * message is only logged once.
+ */
+public class EventLog
+	implements EventListener
+{
+	private Level logLevel;
+	private Set<String> msgSet = new LinkedHashSet<>();
+
+	/**
+	 * Creates an event log.
+	 *
+	 * @param logLevel The level of the events to include in the log.
+	 */
+	public EventLog(Level logLevel)
+	{
+		this.logLevel = logLevel;
+	}
+
+	@Override
+	public synchronized void processEvent(Event event)
+	{
+		Level level = toLevel(event.getSeverity());
+
+		if (level.isMoreSpecificThan(logLevel)) {
+			msgSet.add(level + ": " + EventFormatter.format(event));
+		}
+	}
+
+	/**
+	 * @return The logged messages, one per line.
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.join("\n", msgSet);
+	}
+
+	private Level toLevel(EventSeverity severity)
+	{
+		Level level;
+
+		if (severity == EventSeverity.FATAL) {
+			level = Level.FATAL;
+		} else if (severity == EventSeverity.ERROR) {
+			level = Level.ERROR;
+		} else if (severity == EventSeverity.WARN) {
+			level = Level.WARN;
+		} else {
+			level = Level.INFO;
+		}
+
+		return level;
+	}
+}
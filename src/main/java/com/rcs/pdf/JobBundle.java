@@ -0,0 +1,77 @@
+package com.rcs.pdf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+
+/**
+ * A ZIP archive uploaded with a job in place of its individual files,
+ * mounted as a file system so the job's files are read straight from the
+ * archive rather than being extracted into the job directory.
+ * <p>
+ * A mounted bundle is handed to the {@link JobContext} of the job, so
+ * references are resolved against both the job directory and the bundle.
+ */
+public final class JobBundle
+	implements Closeable
+{
+	private final Path workDir;
+	private final FileSystem fileSystem;
+
+	private JobBundle(Path workDir, FileSystem fileSystem)
+	{
+		this.workDir = workDir;
+		this.fileSystem = fileSystem;
+	}
+
+	/**
+	 * Mounts a job's bundle, until the bundle is closed.
+	 *
+	 * @param workDir The job directory.
+	 * @param archive The ZIP archive, normally in the job directory.
+	 *
+	 * @return The mounted bundle.
+	 *
+	 * @throws IOException If the archive could not be read or isn't a ZIP
+	 * 			archive.
+	 */
+	public static JobBundle mount(Path workDir, Path archive) throws IOException
+	{
+		return new JobBundle(workDir.toAbsolutePath(), FileSystems.newFileSystem(archive));
+	}
+
+	/**
+	 * @return The job directory the bundle was uploaded to.
+	 */
+	public Path getWorkDir() {
+		return workDir;
+	}
+
+	/**
+	 * @return The top level directory of the archive.
+	 */
+	public Path getRoot() {
+		return fileSystem.getPath("/");
+	}
+
+	/**
+	 * Checks if a directory is in the bundle rather than the job directory.
+	 *
+	 * @param dir The directory to check.
+	 *
+	 * @return true if the directory is in the bundle.
+	 */
+	public boolean contains(Path dir) {
+		return dir.getFileSystem() == fileSystem;
+	}
+
+	/**
+	 * Unmounts the bundle.
+	 */
+	@Override
+	public void close() throws IOException {
+		fileSystem.close();
+	}
+}
@@ -0,0 +1,229 @@
+package com.rcs.pdf;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.fop.apps.FOUserAgent;
+
+import com.rcs.pdf.cache.ContentDigest;
+
+/**
+ * The state of a single rendering job which the pipeline needs to find the
+ * job's files: the job directory and any bundle, an index of the job's
+ * files, a resolver for references from the stylesheet, the fonts uploaded
+ * with the job and the files it has registered as assets, along with the
+ * job's deadline.
+ * <p>
+ * A context is created for each job and used for all its stages, then
+ * closed once the job is finished, which releases the job's assets.
+ * <p>
+ * The context travels with the job, set on each Transformer and attached
+ * to each FOUserAgent, rather than being tied to the thread running the
+ * job, so any stage of a job can run on any thread and one thread can run
+ * stages of several jobs.
+ */
+public class JobContext
+	implements AutoCloseable
+{
+	// Key the context is stored under in the user agent's renderer options
+	private static final String USER_AGENT_KEY = JobContext.class.getName();
+	private static final String FONT_SUFFIX = ".ttf";
+
+	private Path workDir;
+	private List<Path> searchDirs;
+	private JobFileIndex fileIndex;
+	private WorkDirResolver resolver;
+	private AssetRegistry assetRegistry;
+	private RenderDeadline deadline;
+	private List<Path> fontFiles;
+	private Map<String, Path> assets = new HashMap<>();
+
+	/**
+	 * Creates the context for a job without a bundle.
+	 *
+	 * @param workDir The job directory, or null if the job doesn't have
+	 * 			one, such as a job streamed from the request body.
+	 * @param assetRegistry The registry used to resolve asset URIs, which
+	 * 			the job's files are registered with.
+	 * @param deadline The deadline the job must be rendered by.
+	 */
+	public JobContext(Path workDir, AssetRegistry assetRegistry, RenderDeadline deadline)
+	{
+		this(workDir, null, assetRegistry, deadline);
+	}
+
+	/**
+	 * Creates the context for a job.
+	 *
+	 * @param workDir The job directory, or the directory in its bundle of
+	 * 			the file being processed, or null if the job doesn't have
+	 * 			one, such as a job streamed from the request body.
+	 * @param bundle The job's mounted bundle, or null if it doesn't have
+	 * 			one.
+	 * @param assetRegistry The registry used to resolve asset URIs, which
+	 * 			the job's files are registered with.
+	 * @param deadline The deadline the job must be rendered by.
+	 */
+	public JobContext(Path workDir, JobBundle bundle, AssetRegistry assetRegistry, RenderDeadline deadline)
+	{
+		this.workDir = workDir;
+		this.assetRegistry = assetRegistry;
+		this.deadline = deadline;
+
+		searchDirs = new ArrayList<>();
+		if (null != workDir) {
+			searchDirs.add(workDir);
+
+			// Files not found beside the job file are looked for in the job directory or its bundle
+			if (null != bundle) {
+				searchDirs.add(bundle.contains(workDir) ? bundle.getWorkDir() : bundle.getRoot());
+			}
+		}
+		searchDirs = Collections.unmodifiableList(searchDirs);
+
+		if (null != workDir) {
+			fileIndex = new JobFileIndex(searchDirs);
+		}
+
+		resolver = (null == fileIndex) ? new WorkDirResolver() : new WorkDirResolver(fileIndex);
+		resolver.setAssetRegistry(assetRegistry);
+	}
+
+	/**
+	 * Fetches the context of the job a user agent was created for.
+	 *
+	 * @param userAgent The user agent.
+	 *
+	 * @return The job's context, or null if the user agent wasn't created
+	 * 			for a job.
+	 */
+	public static JobContext from(FOUserAgent userAgent) {
+		return (JobContext)userAgent.getRendererOptions().get(USER_AGENT_KEY);
+	}
+
+	/**
+	 * Attaches the context to a user agent, so it can be found by the
+	 * renderer configurators FOP creates from the user agent.
+	 *
+	 * @param userAgent The user agent created for the job.
+	 */
+	@SuppressWarnings("unchecked")
+	public void attachTo(FOUserAgent userAgent) {
+		userAgent.getRendererOptions().put(USER_AGENT_KEY, this);
+	}
+
+	/**
+	 * @return The job directory, or null if the job doesn't have one.
+	 */
+	public Path getWorkDir() {
+		return workDir;
+	}
+
+	/**
+	 * @return The directories relative references are resolved against, in
+	 * 			the order they are searched: the job directory and, if the
+	 * 			job has one, its bundle. Empty if the job doesn't have a
+	 * 			directory.
+	 */
+	public List<Path> getSearchDirs() {
+		return searchDirs;
+	}
+
+	/**
+	 * @return The deadline the job must be rendered by.
+	 */
+	public RenderDeadline getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @return The resolver for files referenced by the stylesheet, e.g. by
+	 * 			the document() function.
+	 */
+	public WorkDirResolver getResolver() {
+		return resolver;
+	}
+
+	/**
+	 * @return The index of the job's files, which relative references are
+	 * 			resolved through, or null if the job doesn't have a
+	 * 			directory.
+	 */
+	public JobFileIndex getFileIndex() {
+		return fileIndex;
+	}
+
+	/**
+	 * Finds the TrueType fonts uploaded with the job, either as files or in
+	 * its bundle, from the index of the job's files. The fonts are only
+	 * picked out the first time, as both the layout and rendering stages
+	 * need them.
+	 *
+	 * @return The font files, empty if the job doesn't have a directory.
+	 */
+	public synchronized List<Path> getFontFiles()
+	{
+		if (null == fontFiles) {
+			fontFiles = (null == fileIndex) ?
+					List.of() :
+					fileIndex.getAllFiles()
+							 .stream()
+							 .filter(file -> file.getFileName().toString().endsWith(FONT_SUFFIX))
+							 .toList();
+		}
+
+		return fontFiles;
+	}
+
+	/**
+	 * Registers one of the job's files with the asset registry, returning
+	 * the content addressed URI to reference it by. The file stays
+	 * registered until the job is closed.
+	 *
+	 * @param file The file to register.
+	 *
+	 * @return The URI to use when referencing the file.
+	 *
+	 * @throws IOException If the file could not be read.
+	 */
+	public URI registerAsset(Path file) throws IOException
+	{
+		return registerAsset(ContentDigest.of(file), file);
+	}
+
+	/**
+	 * Registers one of the job's files whose digest is already known.
+	 *
+	 * @param digest The digest of the file's contents.
+	 * @param file The file to register.
+	 *
+	 * @return The URI to use when referencing the file.
+	 */
+	public URI registerAsset(String digest, Path file)
+	{
+		synchronized (assets) {
+			assets.put(digest, file);
+
+			return assetRegistry.register(this, digest, file);
+		}
+	}
+
+	/**
+	 * Releases the files the job registered as assets, as the job is
+	 * finished with them.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (assets) {
+			assetRegistry.release(this, assets.keySet());
+			assets.clear();
+		}
+	}
+}
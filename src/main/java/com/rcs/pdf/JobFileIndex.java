@@ -0,0 +1,234 @@
+package com.rcs.pdf;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The files of a job, by their path relative to the directories the job's
+ * references are resolved against, so a reference is resolved by a lookup
+ * rather than by probing the file system.
+ * <p>
+ * The directories are listed once, the first time a file is looked for.
+ * The files are uploaded, or bundled, before the job starts so none are
+ * missed, and the files the job writes itself, such as its log, aren't
+ * referenced by the document. References which aren't to a file of the job
+ * are remembered, so a document referring to a missing file many times
+ * only pays for the first.
+ */
+public class JobFileIndex
+{
+	private final List<Path> dirs;
+	private volatile Map<String, Path> files;
+	private final Set<String> misses = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Creates the index of a job's files.
+	 *
+	 * @param dirs The directories to index, in order. A file in more than
+	 * 			one is found in the first.
+	 */
+	public JobFileIndex(List<Path> dirs) {
+		this.dirs = List.copyOf(dirs);
+	}
+
+	/**
+	 * Finds the file a relative reference, such as <code>logo.png</code>
+	 * or <code>images/logo.png</code>, refers to.
+	 *
+	 * @param ref The reference, a path relative to the job's directories.
+	 *
+	 * @return The file, or null if the reference isn't to a file of the
+	 * 			job, including if it is an absolute path or leads out of the
+	 * 			job's directories.
+	 */
+	public Path find(String ref)
+	{
+		Path file = null;
+
+		if (!misses.contains(ref)) {
+			String key = normalize(ref);
+
+			file = (null == key) ? null : getFiles().get(key);
+			if (null == file) {
+				misses.add(ref);
+			}
+		}
+
+		return file;
+	}
+
+	/**
+	 * Finds the file a relative reference made from one of the job's files
+	 * refers to, resolving it against the directory of that file.
+	 *
+	 * @param ref The reference, a path relative to the referring file.
+	 * @param base The file the reference was made from. If it isn't one
+	 * 			of the job's files, or is null, the reference is resolved
+	 * 			against the job's directories.
+	 *
+	 * @return The file, or null if the reference isn't to a file of the
+	 * 			job.
+	 */
+	public Path find(String ref, Path base)
+	{
+		Path baseDir = (null == base) ? null : base.getParent();
+
+		if (null != baseDir) {
+			for (Path dir : dirs) {
+				if (baseDir.getFileSystem() == dir.getFileSystem() && baseDir.startsWith(dir) && !baseDir.equals(dir)) {
+					return find(toKey(dir.relativize(baseDir)) + "/" + ref);
+				}
+			}
+		}
+
+		return find(ref);
+	}
+
+	/**
+	 * Extracts the path of a relative reference, without any query or
+	 * fragment, e.g. <code>images/logo.png</code> from
+	 * <code>images/logo.png#page=1</code>. The reference isn't parsed as a
+	 * URI, as references such as file names with spaces often aren't valid
+	 * URIs.
+	 *
+	 * @param ref The reference.
+	 *
+	 * @return The path, with any escaped characters decoded, or null if the
+	 * 			reference has a scheme or is only a query or fragment.
+	 */
+	public static String getRelativePath(String ref)
+	{
+		int end = ref.length();
+		for (int i = 0; i < end; i++) {
+			if ('?' == ref.charAt(i) || '#' == ref.charAt(i)) {
+				end = i;
+			}
+		}
+
+		String path = ref.substring(0, end);
+
+		int colon = path.indexOf(':');
+		int slash = path.indexOf('/');
+		if (colon > 0 && (slash < 0 || colon < slash) && isScheme(path.substring(0, colon))) {
+			return null;
+		}
+
+		if (path.indexOf('%') >= 0) {
+			try {
+				path = URLDecoder.decode(path.replace("+", "%2B"), StandardCharsets.UTF_8);
+			}
+			catch (IllegalArgumentException e) {
+				// Not escaped after all, so use it as is
+			}
+		}
+
+		return path.isEmpty() ? null : path;
+	}
+
+	private static boolean isScheme(String scheme)
+	{
+		boolean valid = Character.isLetter(scheme.charAt(0));
+
+		for (int i = 1; valid && i < scheme.length(); i++) {
+			char c = scheme.charAt(i);
+			valid = Character.isLetterOrDigit(c) || '+' == c || '-' == c || '.' == c;
+		}
+
+		return valid;
+	}
+
+	/**
+	 * @return All the files of the job.
+	 */
+	public Collection<Path> getAllFiles() {
+		return getFiles().values();
+	}
+
+	private Map<String, Path> getFiles()
+	{
+		Map<String, Path> indexed = files;
+
+		if (null == indexed) {
+			synchronized (this) {
+				indexed = files;
+
+				if (null == indexed) {
+					indexed = new HashMap<>();
+
+					for (Path dir : dirs) {
+						addFiles(dir, indexed);
+					}
+					files = indexed = Collections.unmodifiableMap(indexed);
+				}
+			}
+		}
+
+		return indexed;
+	}
+
+	private static void addFiles(Path dir, Map<String, Path> indexed)
+	{
+		try (Stream<Path> dirFiles = Files.walk(dir)) {
+			dirFiles.filter(Files::isRegularFile)
+					.forEach(file -> indexed.putIfAbsent(toKey(dir.relativize(file)), file));
+		}
+		catch (IOException | UncheckedIOException e) {
+			// A directory which can't be read has no files to find
+		}
+	}
+
+	/**
+	 * Joins the names of a relative path with '/', whichever file system
+	 * the path is on.
+	 */
+	static String toKey(Path relativePath)
+	{
+		List<String> names = new ArrayList<>();
+
+		relativePath.forEach(name -> names.add(name.toString()));
+
+		return String.join("/", names);
+	}
+
+	/**
+	 * Removes the "." and ".." segments of a reference.
+	 *
+	 * @return The normalized reference, or null if it isn't a relative path
+	 * 			within the job's directories.
+	 */
+	static String normalize(String ref)
+	{
+		if (ref.isEmpty() || ref.startsWith("/") || ref.indexOf('\\') >= 0) {
+			return null;
+		}
+
+		List<String> names = new ArrayList<>();
+
+		for (String name : ref.split("/")) {
+			if ("..".equals(name)) {
+				if (names.isEmpty()) {
+					return null;
+				}
+				names.remove(names.size() - 1);
+			}
+			else if (!name.isEmpty() && !".".equals(name)) {
+				names.add(name);
+			}
+		}
+
+		return names.isEmpty() ? null : String.join("/", names);
+	}
+}
@@ -5,18 +5,25 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.HashSet;
 import java.util.Set;
 
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.fop.apps.FOPException;
@@ -32,6 +39,13 @@ import org.apache.fop.events.EventFormatter;
 import org.apache.fop.events.EventListener;
 import org.apache.fop.events.model.EventSeverity;
 import org.apache.fop.render.RendererFactory;
+import org.apache.fop.render.intermediate.IFConstants;
+import org.apache.fop.render.intermediate.IFContext;
+import org.apache.fop.render.intermediate.IFDocumentHandler;
+import org.apache.fop.render.intermediate.IFException;
+import org.apache.fop.render.intermediate.IFParser;
+import org.apache.fop.render.intermediate.IFSerializer;
+import org.apache.fop.render.intermediate.IFUtil;
 import org.apache.logging.log4j.CloseableThreadContext;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -41,19 +55,30 @@ import org.apache.logging.log4j.MarkerManager;
 import org.apache.xmlgraphics.image.loader.impl.AbstractImageSessionContext;
 import org.apache.xmlgraphics.util.MimeConstants;
 
+import com.rcs.pdf.cache.LruCache;
 import com.rcs.pdf.fop.CustomPDFDocumentHandlerMaker;
+import com.rcs.pdfsvc.config.AppProperties;
 
 
 public class PDFGenerator {
+	private static final DateTimeFormatter LOG_DATE_FORMAT = DateTimeFormatter.ofPattern("MMM dd HH:mm:ss.SSS Z yyyy");
+
 	private Logger logger;
 	private FopFactory fopFactory;
 	private TransformerFactory transformerFactory;
+	private TemplatesCache templatesCache;
+	private LruCache<String, String> fontCache;
+	private AssetRegistry assetRegistry;
+	private int templatesCacheSize = AppProperties.DEFAULT_TEMPLATES_CACHE_SIZE;
+	private int fontCacheSize = AppProperties.DEFAULT_FONT_CACHE_SIZE;
+	private int imageCacheSize = AppProperties.DEFAULT_IMAGE_CACHE_SIZE;
 
 	private class LogEventListener
 		implements EventListener
 	{
 		private Set<String> msgSet = new HashSet<>();
 		private String logFile;
+		private Path memoryLogFile;
 		private Level logLevel;
 		private String jobId;
 		private Marker pdfGenMarker;
@@ -64,6 +89,11 @@ public class PDFGenerator {
 			this.logLevel = logLevel;
 			this.jobId = logFile.getParent().getFileName().toString();
 
+			// Log4j can only write files on disk, so the log of a job held in memory is written here
+			if (logFile.getFileSystem() != FileSystems.getDefault()) {
+				memoryLogFile = logFile;
+			}
+
 			pdfGenMarker = MarkerManager.getMarker("FopPdfGen");
 		}
 
@@ -76,6 +106,11 @@ public class PDFGenerator {
 
 				EventSeverity severity = event.getSeverity();
 
+				if (null != memoryLogFile) {
+					writeLog(severity, msg);
+					return;
+				}
+
 				try (final CloseableThreadContext.Instance ctc = CloseableThreadContext
 						.put("ROUTINGKEY", "PDFGen-" + jobId)
 						.put("jobId", jobId)
@@ -96,14 +131,46 @@ public class PDFGenerator {
 				}				
 			}
 		}
+
+		/**
+		 * Appends a message to the job log in the same format as the log4j
+		 * route used for job directories on disk.
+		 */
+		private synchronized void writeLog(EventSeverity severity, String msg)
+		{
+			Level level = Level.toLevel(severity.getName(), Level.ERROR);
+
+			if (level.isMoreSpecificThan(logLevel)) {
+				String line = String.format("[%s] %-5s: %s%n", LOG_DATE_FORMAT.format(ZonedDateTime.now()), level, msg);
+
+				try {
+					Files.writeString(memoryLogFile, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				} catch (IOException e) {
+					logger.warn("Unable to write to job log {}: {}", memoryLogFile, e.getMessage());
+				}
+			}
+		}
 	}
 	
 	private static PDFGenerator singleton = null;
 	
 	public static synchronized PDFGenerator getInstance() {
+		return getInstance(null);
+	}
+
+	/**
+	 * Fetches the PDF generator, creating it on first use.
+	 * 
+	 * @param props The application properties used to configure the
+	 * 			generator when it is created, or null to use the defaults.
+	 * 			Ignored once the generator exists.
+	 * 
+	 * @return The PDF generator.
+	 */
+	public static synchronized PDFGenerator getInstance(AppProperties props) {
 		if (null == singleton) {
 			// Create an instance and kickstart the FOP and Transformer factories
-			singleton = new PDFGenerator();
+			singleton = new PDFGenerator(props);
 			singleton.logger.debug("Kick-starting PDFGenerator");
 			try (OutputStream outStrm = new ByteArrayOutputStream()) {
 				singleton.fopFactory.newFop(MimeConstants.MIME_PDF, outStrm);
@@ -120,17 +187,36 @@ public class PDFGenerator {
 		
 	}
 
-	private PDFGenerator() {
+	private PDFGenerator(AppProperties props) {
 		this.logger = LogManager.getLogger(PDFGenerator.class.getName());
+
+		if (null != props) {
+			templatesCacheSize = props.getTemplatesCacheSize();
+			fontCacheSize = props.getFontCacheSize();
+			imageCacheSize = props.getImageCacheSize();
+		}
 		
 		// Set the User-Agent for any external references in the XLST
 		// Replaced 20230110 - "http.agent", "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.11 (KHTML, like Gecko) Chrome/23.0.1271.95 Safari/537.11"
 		// 20230110 - Update User-Agent, old one results in "Unexpected end of file from server" error trying to fetch images from a web server. Key seems to be the version of Chrome specified, specifically version 52 or eariler.  
 		System.setProperty("http.agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/108.0.0.0 Safari/537.36");
 
-		// Don't let FOP cache resources as they could be coming from different requests but the same resource/file name
+		// Don't let FOP hold on to a Source once it has been read, isReusable(Source) is all
+		// this affects. Sharing images across requests is intended and goes through the
+		// image cache, which is safe as the job's images are referenced by asset:<sha256> URIs
 		System.setProperty(AbstractImageSessionContext.class.getName() + ".no-source-reuse", "true");
-		
+
+		/*
+		 * Images in the job directory are referenced by the digest of their
+		 * content, rather than their file name, so FOP's image cache can be
+		 * used without mixing up images from different requests that have
+		 * the same file name.
+		 */
+		assetRegistry = new AssetRegistry(imageCacheSize);
+
+		// Font family names, keyed by the digest of the font file
+		fontCache = new LruCache<>("Font cache", fontCacheSize);
+
 		initializeFopFactory();
 	}
 
@@ -141,42 +227,135 @@ public class PDFGenerator {
 		try (InputStream cfgStrm = PDFGenerator.class.getResourceAsStream("/fop.xconf")) {
 		    cfg = cfgBuilder.build(cfgStrm);
 
-			fopFactory = new FopFactoryBuilder(new File(".").toURI(), new ThreadWorkDirResolver()).setConfiguration(cfg).build();
+			/*
+			 * Shared by every job, so it isn't tied to a job directory. The
+			 * job's files are referenced by asset URIs, rewritten by the
+			 * ResourceUriFilter, and its fonts found through the JobContext
+			 * attached to its user agent.
+			 */
+			WorkDirResolver fopResolver = new WorkDirResolver();
+			fopResolver.setAssetRegistry(assetRegistry);
+
+			fopFactory = new FopFactoryBuilder(new File(".").toURI(), fopResolver).setConfiguration(cfg).build();
 
+			// Includes and imports are resolved relative to the stylesheet
 			transformerFactory = TransformerFactory.newInstance();
-			transformerFactory.setURIResolver(new ThreadWorkDirResolver());
+
+			templatesCache = new TemplatesCache(transformerFactory, templatesCacheSize);
 
 		} catch (IOException | ConfigurationException e) {
 			logger.catching(Level.ERROR, e);
 		}
 	}
 
-	private FOUserAgent createFOUserAgent(Path jobLogFile, Level logLevel) {
+	private FOUserAgent createFOUserAgent(JobContext jobContext, Path jobLogFile, Level logLevel) {
 		logger.traceEntry();
 
 		// Setup output
-		FOUserAgent foUserAgent = fopFactory.newFOUserAgent();
-		foUserAgent.getEventBroadcaster().addEventListener(new LogEventListener(jobLogFile, logLevel));
+		FOUserAgent foUserAgent = createFOUserAgent(jobContext, new LogEventListener(jobLogFile, logLevel));
 
 		logger.traceExit();
 
 		return foUserAgent;
 	}
 
+	private FOUserAgent createFOUserAgent(JobContext jobContext, EventListener eventListener) {
+		FOUserAgent foUserAgent = fopFactory.newFOUserAgent();
+		foUserAgent.getEventBroadcaster().addEventListener(eventListener);
+		jobContext.attachTo(foUserAgent);
+
+		return foUserAgent;
+	}
+
+	/**
+	 * Creates the context for a job, which is passed to each stage of the
+	 * job and closed once the job is finished.
+	 *
+	 * @param workDir The job directory.
+	 * @param deadline The deadline the job must be rendered by.
+	 *
+	 * @return The job's context.
+	 */
+	public JobContext createJobContext(Path workDir, RenderDeadline deadline) {
+		return createJobContext(workDir, null, deadline);
+	}
+
+	/**
+	 * Creates the context for a job with a bundle, whose files are found
+	 * in the bundle as well as the job directory.
+	 *
+	 * @param workDir The job directory.
+	 * @param bundle The job's mounted bundle, or null if it doesn't have
+	 * 			one.
+	 * @param deadline The deadline the job must be rendered by.
+	 *
+	 * @return The job's context.
+	 */
+	public JobContext createJobContext(Path workDir, JobBundle bundle, RenderDeadline deadline) {
+		return new JobContext(workDir.toAbsolutePath(), bundle, assetRegistry, deadline);
+	}
+
+	/**
+	 * Reports a failed render. If the render was cancelled the exception it
+	 * failed with depends on which part of the pipeline noticed, so it is
+	 * replaced by a {@link RenderCancelledException}.
+	 */
+	private TransformerException failure(RenderDeadline deadline, Exception e)
+	{
+		if (deadline.isCancelled()) {
+			logger.info("Render stopped: {}", deadline.getReason());
+			return new RenderCancelledException(deadline, true);
+		}
+
+		logger.catching(Level.ERROR, e);
+
+		return (e instanceof TransformerException te) ? te : new TransformerException(e);
+	}
+
+	public TemplatesCache getTemplatesCache() {
+		return templatesCache;
+	}
+
+	public LruCache<String, String> getFontCache() {
+		return fontCache;
+	}
+
+	public AssetRegistry getAssetRegistry() {
+		return assetRegistry;
+	}
+
 	public void generateFromFo (final Path foFile, Path pdfFile, final Path jobLogFile, final Level logLevel) throws TransformerException
+	{
+		try (OutputStream outStrm = Files.newOutputStream(pdfFile);
+			 JobContext jobContext = createJobContext(foFile.toAbsolutePath().getParent(), RenderDeadline.none()))
+		{
+			generateFromFo(foFile, outStrm, jobLogFile, logLevel, jobContext);
+		} catch (IOException e) {
+			logger.catching(Level.ERROR, e);
+			throw new TransformerException(e);
+		}
+	}
+
+
+	/**
+	 * Generates a PDF from an FO file, writing it to a stream so the PDF can
+	 * be post-processed without first being saved.
+	 */
+	public void generateFromFo (final Path foFile, final OutputStream outStrm, final Path jobLogFile, final Level logLevel, final JobContext jobContext) throws TransformerException
 	{
 		logger.traceEntry();
 
-		// Setup output
-		try (OutputStream outStrm = Files.newOutputStream(pdfFile))
+		RenderDeadline deadline = jobContext.getDeadline();
+
+		try (InputStream inStrm = deadline.guard(Files.newInputStream(foFile)))
 		{
-			FOUserAgent foUserAgent = createFOUserAgent(jobLogFile, logLevel);
+			FOUserAgent foUserAgent = createFOUserAgent(jobContext, jobLogFile, logLevel);
 
 	        RendererFactory rendererFactory = fopFactory.getRendererFactory();
 	        rendererFactory.addDocumentHandlerMaker(new CustomPDFDocumentHandlerMaker());
 			
 			// Construct fop with desired output format
-			Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, foUserAgent, outStrm);
+			Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, foUserAgent, deadline.guard(outStrm));
 
 			// Setup XSLT
 			Transformer transformer = transformerFactory.newTransformer();
@@ -185,17 +364,15 @@ public class PDFGenerator {
 				transformer.setParameter("versionParam", "2.0");
 		
 				// Setup input for XSLT transformation
-				Source src = new StreamSource(Files.newInputStream(foFile));
+				Source src = new StreamSource(inStrm);
 		
 				// Resulting SAX events (the generated FO) must be piped through to FOP
-				Result res = new SAXResult(fop.getDefaultHandler());
+				Result res = new SAXResult(deadline.guard(new ResourceUriFilter(jobContext, fop.getDefaultHandler())));
 		
 				transformer.transform(src, res);
 			}
 		} catch (Exception e) {
-			logger.catching(Level.ERROR, e);
-			e.printStackTrace(System.err);	// NOSONAR
-			throw new TransformerException(e);
+			throw failure(deadline, e);
 		}
 
 		logger.traceExit();
@@ -203,13 +380,57 @@ public class PDFGenerator {
 
 
 	public void generateFromXml (final Path xmlFile, final Path xsltFile, final Path pdfFile, final Path jobLogFile, final Level logLevel) throws TransformerException
+	{
+		Templates templates;
+
+		try {
+			// Compiling the stylesheet is expensive so reuse a previously compiled version
+			templates = templatesCache.getTemplates(xsltFile);
+		}
+		catch (TransformerException te) {
+			logger.catching(Level.ERROR, te);
+			throw te;
+		}
+		catch (IOException e) {
+			logger.catching(Level.ERROR, e);
+			throw new TransformerException(e);
+		}
+
+		generateFromXml(xmlFile, templates, pdfFile, jobLogFile, logLevel);
+	}
+
+
+	/**
+	 * Generates a PDF from an XML file using an already compiled stylesheet,
+	 * such as one from the {@link StylesheetRegistry}.
+	 */
+	public void generateFromXml (final Path xmlFile, final Templates templates, final Path pdfFile, final Path jobLogFile, final Level logLevel) throws TransformerException
+	{
+		try (OutputStream outStrm = Files.newOutputStream(pdfFile);
+			 JobContext jobContext = createJobContext(xmlFile.toAbsolutePath().getParent(), RenderDeadline.none()))
+		{
+			generateFromXml(xmlFile, templates, outStrm, jobLogFile, logLevel, jobContext);
+		} catch (IOException e) {
+			logger.catching(Level.ERROR, e);
+			throw new TransformerException(e);
+		}
+	}
+
+
+	/**
+	 * Generates a PDF from an XML file using an already compiled stylesheet,
+	 * writing it to a stream so the PDF can be post-processed without first
+	 * being saved.
+	 */
+	public void generateFromXml (final Path xmlFile, final Templates templates, final OutputStream outStrm, final Path jobLogFile, final Level logLevel, final JobContext jobContext) throws TransformerException
 	{
 		logger.traceEntry();
 
-		// Setup output
-		try (OutputStream outStrm = Files.newOutputStream(pdfFile))
+		RenderDeadline deadline = jobContext.getDeadline();
+
+		try (InputStream inStrm = deadline.guard(Files.newInputStream(xmlFile)))
 		{
-			FOUserAgent foUserAgent = createFOUserAgent(jobLogFile, logLevel);
+			FOUserAgent foUserAgent = createFOUserAgent(jobContext, jobLogFile, logLevel);
 			
 			// Setup XSLT
 			try
@@ -218,30 +439,191 @@ public class PDFGenerator {
 		        rendererFactory.addDocumentHandlerMaker(new CustomPDFDocumentHandlerMaker());
 				
 				// Construct fop with desired output format
-				Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, foUserAgent, outStrm);
+				Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, foUserAgent, deadline.guard(outStrm));
 
-				Source xsltSrc = new StreamSource(Files.newInputStream(xsltFile));
-				Transformer transformer = transformerFactory.newTransformer(xsltSrc);
+				Transformer transformer = templates.newTransformer();
 				if (null != transformer) {
+					transformer.setURIResolver(jobContext.getResolver());
+
 					// Set the value of a <param> in the stylesheet
 					transformer.setParameter("versionParam", "2.0");
 
 					// Setup input for XSLT transformation
-					Source xmlSrc = new StreamSource(Files.newInputStream(xmlFile));
+					Source xmlSrc = new StreamSource(inStrm);
 		
 					// Resulting SAX events (the generated FO) must be piped through to FOP
-					Result res = new SAXResult(fop.getDefaultHandler());
+					Result res = new SAXResult(deadline.guard(new ResourceUriFilter(jobContext, fop.getDefaultHandler())));
 		
 					transformer.transform(xmlSrc, res);
 				}
 			}
 			catch (TransformerException te) {
-				logger.catching(Level.ERROR, te);
-				throw te;
+				throw failure(deadline, te);
 			}
 		} catch (IOException | FOPException e) {
-			logger.catching(Level.ERROR, e);
-			throw new TransformerException(e);
+			throw failure(deadline, e);
+		}
+
+		logger.traceExit();
+	}
+
+
+	/**
+	 * Generates a PDF from an FO stream without using a job directory. The
+	 * parsed FO is piped straight into FOP and the PDF written to the output
+	 * stream as it is rendered.
+	 */
+	public void generateFromFo (final InputStream foStrm, final OutputStream outStrm, final EventListener eventListener, final RenderDeadline deadline) throws TransformerException
+	{
+		logger.traceEntry();
+
+		try {
+			FOUserAgent foUserAgent = createFOUserAgent(new JobContext(null, assetRegistry, deadline), eventListener);
+
+	        RendererFactory rendererFactory = fopFactory.getRendererFactory();
+	        rendererFactory.addDocumentHandlerMaker(new CustomPDFDocumentHandlerMaker());
+
+			Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, foUserAgent, deadline.guard(outStrm));
+
+			transformerFactory.newTransformer().transform(new StreamSource(deadline.guard(foStrm)), new SAXResult(deadline.guard(fop.getDefaultHandler())));
+		}
+		catch (TransformerException | FOPException e) {
+			throw failure(deadline, e);
+		}
+
+		logger.traceExit();
+	}
+
+
+	/**
+	 * Generates a PDF from an XML stream using an already compiled
+	 * stylesheet without using a job directory. The generated FO is piped
+	 * straight into FOP and the PDF written to the output stream as it is
+	 * rendered.
+	 */
+	public void generateFromXml (final InputStream xmlStrm, final Templates templates, final OutputStream outStrm, final EventListener eventListener, final RenderDeadline deadline) throws TransformerException
+	{
+		logger.traceEntry();
+
+		try {
+			JobContext jobContext = new JobContext(null, assetRegistry, deadline);
+			FOUserAgent foUserAgent = createFOUserAgent(jobContext, eventListener);
+
+	        RendererFactory rendererFactory = fopFactory.getRendererFactory();
+	        rendererFactory.addDocumentHandlerMaker(new CustomPDFDocumentHandlerMaker());
+
+			Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, foUserAgent, deadline.guard(outStrm));
+
+			Transformer transformer = templates.newTransformer();
+			transformer.setURIResolver(jobContext.getResolver());
+
+			// Set the value of a <param> in the stylesheet
+			transformer.setParameter("versionParam", "2.0");
+
+			transformer.transform(new StreamSource(deadline.guard(xmlStrm)), new SAXResult(deadline.guard(fop.getDefaultHandler())));
+		}
+		catch (TransformerException | FOPException e) {
+			throw failure(deadline, e);
+		}
+
+		logger.traceExit();
+	}
+
+
+	/**
+	 * Runs only the XSLT stage of {@link #generateFromXml(Path, Templates, OutputStream, Path, Level, JobContext)},
+	 * saving the generated FO so it can be cached and the rest of the
+	 * pipeline run by {@link #generateIfFromFo(Path, Path, Path, Level, JobContext)}.
+	 */
+	public void transformToFo (final Path xmlFile, final Templates templates, final Path foFile, final JobContext jobContext) throws TransformerException
+	{
+		logger.traceEntry();
+
+		RenderDeadline deadline = jobContext.getDeadline();
+
+		try (InputStream inStrm = deadline.guard(Files.newInputStream(xmlFile));
+			 OutputStream outStrm = deadline.guard(Files.newOutputStream(foFile)))
+		{
+			Transformer transformer = templates.newTransformer();
+			transformer.setURIResolver(jobContext.getResolver());
+
+			// Set the value of a <param> in the stylesheet
+			transformer.setParameter("versionParam", "2.0");
+
+			transformer.transform(new StreamSource(inStrm), new StreamResult(outStrm));
+		}
+		catch (TransformerException | IOException e) {
+			throw failure(deadline, e);
+		}
+
+		logger.traceExit();
+	}
+
+
+	/**
+	 * Lays out an FO file, saving the result in FOP's intermediate format
+	 * rather than as a PDF. The layout is done for the PDF output format so
+	 * the IF can be rendered as a PDF by {@link #generateFromIf(Path, OutputStream, Path, Level, JobContext)}.
+	 */
+	public void generateIfFromFo (final Path foFile, final Path ifFile, final Path jobLogFile, final Level logLevel, final JobContext jobContext) throws TransformerException
+	{
+		logger.traceEntry();
+
+		RenderDeadline deadline = jobContext.getDeadline();
+
+		try (InputStream inStrm = deadline.guard(Files.newInputStream(foFile));
+			 OutputStream outStrm = deadline.guard(Files.newOutputStream(ifFile)))
+		{
+			FOUserAgent foUserAgent = createFOUserAgent(jobContext, jobLogFile, logLevel);
+
+	        RendererFactory rendererFactory = fopFactory.getRendererFactory();
+	        rendererFactory.addDocumentHandlerMaker(new CustomPDFDocumentHandlerMaker());
+
+	        // Use the PDF handler's fonts and metrics so the layout matches the final PDF
+			IFSerializer ifSerializer = new IFSerializer(new IFContext(foUserAgent));
+			ifSerializer.mimicDocumentHandler(rendererFactory.createDocumentHandler(foUserAgent, MimeConstants.MIME_PDF));
+			foUserAgent.setDocumentHandlerOverride(ifSerializer);
+
+			Fop fop = fopFactory.newFop(IFConstants.MIME_TYPE, foUserAgent, outStrm);
+
+			Result res = new SAXResult(deadline.guard(new ResourceUriFilter(jobContext, fop.getDefaultHandler())));
+
+			transformerFactory.newTransformer().transform(new StreamSource(inStrm), res);
+		}
+		catch (TransformerException | IOException | FOPException e) {
+			throw failure(deadline, e);
+		}
+
+		logger.traceExit();
+	}
+
+
+	/**
+	 * Renders a PDF from a document in FOP's intermediate format, skipping
+	 * the XSLT and layout stages. The PDF is written to a stream so it can
+	 * be post-processed without first being saved.
+	 */
+	public void generateFromIf (final Path ifFile, final OutputStream outStrm, final Path jobLogFile, final Level logLevel, final JobContext jobContext) throws TransformerException
+	{
+		logger.traceEntry();
+
+		RenderDeadline deadline = jobContext.getDeadline();
+
+		try (InputStream inStrm = deadline.guard(Files.newInputStream(ifFile)))
+		{
+			FOUserAgent foUserAgent = createFOUserAgent(jobContext, jobLogFile, logLevel);
+
+	        RendererFactory rendererFactory = fopFactory.getRendererFactory();
+	        rendererFactory.addDocumentHandlerMaker(new CustomPDFDocumentHandlerMaker());
+
+			IFDocumentHandler pdfHandler = rendererFactory.createDocumentHandler(foUserAgent, MimeConstants.MIME_PDF);
+			pdfHandler.setResult(new StreamResult(deadline.guard(outStrm)));
+			IFUtil.setupFonts(pdfHandler);
+
+			new IFParser().parse(new StreamSource(inStrm, ifFile.toUri().toString()), pdfHandler, foUserAgent);
+		}
+		catch (TransformerException | IOException | FOPException | IFException e) {
+			throw failure(deadline, e);
 		}
 
 		logger.traceExit();
@@ -0,0 +1,45 @@
+package com.rcs.pdf;
+
+import javax.xml.transform.TransformerException;
+
+/**
+ * Thrown when a render is stopped by its {@link RenderDeadline}, in place
+ * of whatever the pipeline failed with when it was stopped.
+ */
+public class RenderCancelledException
+	extends TransformerException
+{
+	private static final long serialVersionUID = 1L;
+
+	private final boolean timedOut;
+	private final boolean started;
+
+	/**
+	 * @param deadline The render's deadline.
+	 * @param started true if the render had started, false if it was
+	 * 			cancelled while waiting to start.
+	 */
+	public RenderCancelledException(RenderDeadline deadline, boolean started)
+	{
+		super(deadline.getReason());
+
+		this.timedOut = deadline.isTimedOut();
+		this.started = started;
+	}
+
+	/**
+	 * @return true if the render was stopped because it ran out of time,
+	 * 			rather than being cancelled.
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * @return true if the render had started, false if it was still waiting
+	 * 			for a render thread.
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+}
@@ -0,0 +1,249 @@
+package com.rcs.pdf;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * The time limit of a render, which can also be cancelled early, e.g. when
+ * the client has gone away.
+ * <p>
+ * Neither Saxon nor FOP can be stopped from outside, so cancellation is
+ * cooperative: the pipeline is built with guards, on the SAX events passed
+ * from the transformation to FOP and on the streams it reads and writes,
+ * which fail once the render is cancelled. Whatever the pipeline was doing
+ * it stops at its next event, read or write, and the failure is reported
+ * as a {@link RenderCancelledException}.
+ */
+public class RenderDeadline
+{
+	public static final String TIMED_OUT = "Render timed out";
+
+	private long timeoutMillis;
+	private long expiry;
+	private volatile String reason;
+	private boolean timedOut;
+	private List<Runnable> cancelListeners = new ArrayList<>();
+
+	/**
+	 * Creates a deadline, starting now.
+	 *
+	 * @param timeoutMillis The time allowed for the render, 0 for no limit.
+	 */
+	public RenderDeadline(long timeoutMillis)
+	{
+		this.timeoutMillis = timeoutMillis;
+		this.expiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	/**
+	 * @return A deadline which never expires, though it can still be
+	 * 			cancelled.
+	 */
+	public static RenderDeadline none() {
+		return new RenderDeadline(0);
+	}
+
+	/**
+	 * @return The time allowed for the render, 0 if there is no limit.
+	 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * @return The time left before the deadline, Long.MAX_VALUE if there is
+	 * 			no limit.
+	 */
+	public long getRemainingMillis() {
+		return (0 == timeoutMillis) ? Long.MAX_VALUE : Math.max(TimeUnit.NANOSECONDS.toMillis(expiry - System.nanoTime()), 0);
+	}
+
+	/**
+	 * Checks if the render should stop, either because it was cancelled or
+	 * the deadline has passed.
+	 *
+	 * @return true if the render should stop.
+	 */
+	public boolean isCancelled()
+	{
+		if (null == reason && 0 != timeoutMillis && expiry - System.nanoTime() <= 0) {
+			expire();
+		}
+
+		return null != reason;
+	}
+
+	/**
+	 * @return true if the render was cancelled because the deadline passed.
+	 */
+	public synchronized boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * @return Why the render was cancelled, or null if it hasn't been.
+	 */
+	public String getReason() {
+		return reason;
+	}
+
+	/**
+	 * Cancels the render as the deadline has passed.
+	 */
+	public void expire() {
+		cancel(TIMED_OUT, true);
+	}
+
+	/**
+	 * Cancels the render.
+	 *
+	 * @param reason Why the render was cancelled.
+	 */
+	public void cancel(String reason) {
+		cancel(reason, false);
+	}
+
+	private void cancel(String cancelReason, boolean expired)
+	{
+		List<Runnable> listeners;
+
+		synchronized (this) {
+			if (null != reason) {
+				return;
+			}
+
+			timedOut = expired;
+			reason = cancelReason;
+			listeners = new ArrayList<>(cancelListeners);
+			cancelListeners.clear();
+		}
+
+		listeners.forEach(Runnable::run);
+	}
+
+	/**
+	 * Adds an action to take when the render is cancelled, such as
+	 * interrupting the thread running it. The action is run straight away
+	 * if the render has already been cancelled.
+	 *
+	 * @param listener The action.
+	 */
+	public void onCancel(Runnable listener)
+	{
+		synchronized (this) {
+			if (null == reason) {
+				cancelListeners.add(listener);
+				return;
+			}
+		}
+
+		listener.run();
+	}
+
+	/**
+	 * Guards the SAX events passed to a handler, such as FOP's.
+	 *
+	 * @param handler The handler.
+	 *
+	 * @return A handler which passes the events on until the render is
+	 * 			cancelled.
+	 */
+	public ContentHandler guard(ContentHandler handler)
+	{
+		XMLFilterImpl filter = new XMLFilterImpl() {
+			@Override
+			public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+				check();
+				super.startElement(uri, localName, qName, atts);
+			}
+
+			@Override
+			public void endElement(String uri, String localName, String qName) throws SAXException {
+				check();
+				super.endElement(uri, localName, qName);
+			}
+
+			@Override
+			public void characters(char[] ch, int start, int length) throws SAXException {
+				check();
+				super.characters(ch, start, length);
+			}
+
+			private void check() throws SAXException {
+				if (isCancelled()) {
+					throw new SAXException(reason);
+				}
+			}
+		};
+
+		filter.setContentHandler(handler);
+
+		return filter;
+	}
+
+	/**
+	 * Guards a stream the pipeline reads.
+	 *
+	 * @param inStrm The stream.
+	 *
+	 * @return A stream which fails once the render is cancelled.
+	 */
+	public InputStream guard(InputStream inStrm)
+	{
+		return new FilterInputStream(inStrm) {
+			@Override
+			public int read() throws IOException {
+				check();
+				return super.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				check();
+				return super.read(b, off, len);
+			}
+		};
+	}
+
+	/**
+	 * Guards a stream the pipeline writes.
+	 *
+	 * @param outStrm The stream.
+	 *
+	 * @return A stream which fails once the render is cancelled.
+	 */
+	public OutputStream guard(OutputStream outStrm)
+	{
+		return new FilterOutputStream(outStrm) {
+			@Override
+			public void write(int b) throws IOException {
+				check();
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				check();
+				out.write(b, off, len);
+			}
+		};
+	}
+
+	private void check() throws IOException {
+		if (isCancelled()) {
+			throw new InterruptedIOException(reason);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.rcs.pdf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Sits between the FO source and FOP, replacing relative references to
+ * files in the job directory, or the bundle uploaded with the job, with
+ * content addressed URIs from the {@link AssetRegistry}. References which
+ * aren't to a file of the job are passed through untouched.
+ * <p>
+ * FOP's resource resolver is shared by all jobs, so this is how the job's
+ * files are found. As well as the FO attributes, XLink references, such as
+ * images in embedded SVG, are rewritten.
+ */
+public final class ResourceUriFilter
+	extends XMLFilterImpl
+{
+	private static final String FO_NAMESPACE = "http://www.w3.org/1999/XSL/Format";
+	private static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+	private static final Set<String> URI_ATTRIBUTES = Set.of("src", "background-image");
+
+	private Logger logger;
+	private JobContext jobContext;
+	private Map<String, String> rewrittenValues = new HashMap<>();
+	private Map<String, String> rewrittenHrefs = new HashMap<>();
+
+	/**
+	 * Creates a filter for a job.
+	 *
+	 * @param jobContext The context of the job, whose index relative
+	 * 			references are looked up in and which the files are
+	 * 			registered by.
+	 * @param handler The handler, normally FOP's, the events are passed to.
+	 */
+	public ResourceUriFilter(JobContext jobContext, ContentHandler handler)
+	{
+		logger = LogManager.getLogger(ResourceUriFilter.class);
+
+		this.jobContext = jobContext;
+
+		setContentHandler(handler);
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException
+	{
+		AttributesImpl rewrittenAtts = null;
+
+		for (int i = 0; i < atts.getLength(); i++) {
+			String value = atts.getValue(i);
+			String newValue = value;
+
+			if (FO_NAMESPACE.equals(uri) && atts.getURI(i).isEmpty() && URI_ATTRIBUTES.contains(atts.getLocalName(i))) {
+				newValue = rewrittenValues.computeIfAbsent(value, this::rewrite);
+			}
+			else if (XLINK_NAMESPACE.equals(atts.getURI(i)) && "href".equals(atts.getLocalName(i))) {
+				newValue = rewrittenHrefs.computeIfAbsent(value, this::rewriteHref);
+			}
+
+			if (!newValue.equals(value)) {
+				if (null == rewrittenAtts) {
+					rewrittenAtts = new AttributesImpl(atts);
+				}
+				rewrittenAtts.setValue(i, newValue);
+			}
+		}
+
+		Attributes newAtts = (null == rewrittenAtts) ? atts : rewrittenAtts;
+
+		super.startElement(uri, localName, qName, newAtts);
+	}
+
+	/**
+	 * Rewrites a URI specification, e.g. url('logo.png'), if it refers to a
+	 * file in the job directory.
+	 */
+	private String rewrite(String value)
+	{
+		String newValue = value;
+		Path file = toJobFile(unwrap(value));
+
+		if (null != file) {
+			try {
+				newValue = "url('" + jobContext.registerAsset(file) + "')";
+			} catch (IOException e) {
+				logger.warn("Unable to read {}", file.getFileName(), e);
+			}
+		}
+
+		return newValue;
+	}
+
+	/**
+	 * Rewrites a plain URI, e.g. logo.png, if it refers to a file in the job
+	 * directory.
+	 */
+	private String rewriteHref(String value)
+	{
+		String newValue = value;
+		Path file = toJobFile(value.trim());
+
+		if (null != file) {
+			try {
+				newValue = jobContext.registerAsset(file).toString();
+			} catch (IOException e) {
+				logger.warn("Unable to read {}", file.getFileName(), e);
+			}
+		}
+
+		return newValue;
+	}
+
+	private String unwrap(String value)
+	{
+		String ref = value.trim();
+
+		if (ref.startsWith("url(") && ref.endsWith(")")) {
+			ref = ref.substring(4, ref.length() - 1).trim();
+		}
+		if (ref.length() > 1 &&
+			((ref.startsWith("'") && ref.endsWith("'")) || (ref.startsWith("\"") && ref.endsWith("\""))) )
+		{
+			ref = ref.substring(1, ref.length() - 1);
+		}
+
+		return ref;
+	}
+
+	private Path toJobFile(String ref)
+	{
+		String filePath = (ref.isEmpty() || ref.startsWith("/") || ref.startsWith("#")) ? null : JobFileIndex.getRelativePath(ref);
+
+		return (null == filePath) ? null : jobContext.getFileIndex().find(filePath);
+	}
+}
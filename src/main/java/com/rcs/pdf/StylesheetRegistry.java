@@ -0,0 +1,337 @@
+package com.rcs.pdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.rcs.pdf.cache.ContentDigest;
+
+/**
+ * Holds stylesheet bundles, a main stylesheet plus any modules it includes
+ * or imports, which have been registered with the service so requests can
+ * reference them by ID instead of uploading them each time.
+ * <p>
+ * Each bundle is stored in its own directory under the registry directory,
+ * named by the digest of the bundle's contents, and is compiled when it is
+ * registered. Registered bundles survive a restart as they are reloaded
+ * and precompiled by {@link #load(Path)} when the service starts.
+ */
+public class StylesheetRegistry
+{
+	private static final String BUNDLE_PROPERTIES = ".stylesheet.properties";
+	private static final String MAIN_FILE_PROPERTY = "main";
+	private static final String STAGING_PREFIX = "staging";
+
+	private static StylesheetRegistry instance;
+
+	private Logger logger;
+	private Path registryDir;
+	private Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * A registered stylesheet bundle.
+	 */
+	public static class Entry
+	{
+		private String id;
+		private String mainFile;
+		private List<String> files;
+		private Templates templates;
+
+		private Entry(String id, String mainFile, List<String> files, Templates templates)
+		{
+			this.id = id;
+			this.mainFile = mainFile;
+			this.files = files;
+			this.templates = templates;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getMainFile() {
+			return mainFile;
+		}
+
+		public List<String> getFiles() {
+			return files;
+		}
+
+		public Templates getTemplates() {
+			return templates;
+		}
+	}
+
+	private StylesheetRegistry() {
+		logger = LogManager.getLogger(StylesheetRegistry.class);
+	}
+
+	public static synchronized StylesheetRegistry getInstance()
+	{
+		if (null == instance) {
+			instance = new StylesheetRegistry();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Sets the directory the registry is stored in and compiles any bundles
+	 * registered by a previous run of the service.
+	 *
+	 * @param dir The registry directory, created if it doesn't exist.
+	 *
+	 * @throws IOException If the registry directory could not be read.
+	 */
+	public void load(Path dir) throws IOException
+	{
+		Files.createDirectories(dir);
+		registryDir = dir;
+
+		try (DirectoryStream<Path> dirStrm = Files.newDirectoryStream(dir, Files::isDirectory)) {
+			for (Path bundleDir : dirStrm) {
+				String id = bundleDir.getFileName().toString();
+
+				if (id.startsWith(STAGING_PREFIX)) {
+					// Left behind by an interrupted registration
+					deleteDir(bundleDir);
+				}
+				else {
+					try {
+						Entry entry = compile(id, bundleDir, readMainFile(bundleDir));
+						entries.put(id, entry);
+					} catch (IOException | TransformerException e) {
+						logger.error("Unable to load stylesheet bundle {}: {}", id, e.getMessage());
+					}
+				}
+			}
+		}
+
+		logger.info("Loaded {} registered stylesheet(s)", entries.size());
+	}
+
+	/**
+	 * Creates an empty directory for the files of a new bundle to be saved
+	 * to before calling {@link #register(Path, String)}.
+	 *
+	 * @return The new staging directory.
+	 *
+	 * @throws IOException If the directory could not be created.
+	 */
+	public Path createStagingDir() throws IOException
+	{
+		if (null == registryDir) {
+			throw new IllegalStateException("Stylesheet registry has not been loaded");
+		}
+
+		return Files.createTempDirectory(registryDir, STAGING_PREFIX);
+	}
+
+	/**
+	 * Deletes a staging directory whose bundle won't be registered, such as
+	 * when one of its files couldn't be saved.
+	 *
+	 * @param stagingDir A directory created by {@link #createStagingDir()}.
+	 *
+	 * @throws IOException If the directory could not be deleted.
+	 */
+	public void discardStagingDir(Path stagingDir) throws IOException
+	{
+		if (Files.exists(stagingDir)) {
+			deleteDir(stagingDir);
+		}
+	}
+
+	/**
+	 * Registers the bundle saved in a staging directory. The bundle is
+	 * compiled and, if successful, moved into the registry. Registering the
+	 * same bundle more than once results in the same ID.
+	 *
+	 * @param stagingDir A directory created by {@link #createStagingDir()}.
+	 * @param mainFile The name of the main stylesheet in the bundle.
+	 *
+	 * @return The registered bundle.
+	 *
+	 * @throws IOException If the bundle files could not be read or moved.
+	 * @throws TransformerException If the stylesheet could not be compiled.
+	 */
+	public Entry register(Path stagingDir, String mainFile) throws IOException, TransformerException
+	{
+		Entry entry;
+
+		try {
+			List<String> idParts = new ArrayList<>();
+			idParts.add(mainFile);
+			for (String file : listFiles(stagingDir)) {
+				idParts.add(file);
+				idParts.add(ContentDigest.of(stagingDir.resolve(file)));
+			}
+
+			String id = ContentDigest.combine(idParts.toArray(new String[0]));
+
+			entry = entries.get(id);
+			if (null == entry) {
+				// Compile first so a broken stylesheet is never registered
+				entry = compile(id, stagingDir, mainFile);
+
+				writeMainFile(stagingDir, mainFile);
+				moveBundle(stagingDir, registryDir.resolve(id));
+
+				entries.put(id, entry);
+
+				logger.debug("Registered stylesheet {} as {}", mainFile, id);
+			}
+		}
+		finally {
+			if (Files.exists(stagingDir)) {
+				deleteDir(stagingDir);
+			}
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Fetches a registered bundle.
+	 *
+	 * @param id The ID of the bundle.
+	 *
+	 * @return The bundle or null if there is no bundle with the ID.
+	 */
+	public Entry get(String id) {
+		return null == id ? null : entries.get(id);
+	}
+
+	public Set<String> getIds() {
+		return Collections.unmodifiableSet(new TreeSet<>(entries.keySet()));
+	}
+
+	/**
+	 * Removes a registered bundle.
+	 *
+	 * @param id The ID of the bundle.
+	 *
+	 * @return true if the bundle was removed, false if there was no bundle
+	 * 			with the ID.
+	 *
+	 * @throws IOException If the bundle files could not be deleted.
+	 */
+	public boolean remove(String id) throws IOException
+	{
+		boolean removed = false;
+
+		if (null != id && null != entries.remove(id)) {
+			deleteDir(registryDir.resolve(id));
+			removed = true;
+		}
+
+		return removed;
+	}
+
+	private Entry compile(String id, Path bundleDir, String mainFile) throws IOException, TransformerException
+	{
+		Path xsltFile = bundleDir.resolve(mainFile);
+
+		if (!Files.exists(xsltFile)) {
+			throw new TransformerException("File not found: " + mainFile);
+		}
+
+		// Includes and imports are resolved relative to the main file, so against the bundle
+		Templates templates = PDFGenerator.getInstance().getTemplatesCache().compile(xsltFile);
+
+		return new Entry(id, mainFile, listFiles(bundleDir), templates);
+	}
+
+	private List<String> listFiles(Path bundleDir) throws IOException
+	{
+		// Includes and imports may be in subdirectories, so list the files by their path in the bundle
+		try (Stream<Path> files = Files.walk(bundleDir)) {
+			return files
+					.filter(Files::isRegularFile)
+					.map(file -> JobFileIndex.toKey(bundleDir.relativize(file)))
+					.filter(name -> !BUNDLE_PROPERTIES.equals(name))
+					.sorted()
+					.toList();
+		}
+	}
+
+	private String readMainFile(Path bundleDir) throws IOException
+	{
+		Properties bundleProps = new Properties();
+
+		try (InputStream inStrm = Files.newInputStream(bundleDir.resolve(BUNDLE_PROPERTIES))) {
+			bundleProps.load(inStrm);
+		}
+
+		return bundleProps.getProperty(MAIN_FILE_PROPERTY);
+	}
+
+	private void writeMainFile(Path bundleDir, String mainFile) throws IOException
+	{
+		Properties bundleProps = new Properties();
+		bundleProps.setProperty(MAIN_FILE_PROPERTY, mainFile);
+
+		try (OutputStream outStrm = Files.newOutputStream(bundleDir.resolve(BUNDLE_PROPERTIES))) {
+			bundleProps.store(outStrm, null);
+		}
+	}
+
+	private void moveBundle(Path stagingDir, Path bundleDir) throws IOException
+	{
+		try {
+			Files.move(stagingDir, bundleDir, StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+			// Registered concurrently by another request, the contents are identical
+		} catch (AtomicMoveNotSupportedException amnse) {
+			Files.move(stagingDir, bundleDir);
+		}
+	}
+
+	private void deleteDir(Path dir) throws IOException
+	{
+		Files.walkFileTree(
+			dir,
+			new SimpleFileVisitor<Path> () {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path subDir, IOException ioe) throws IOException {
+					if (null != ioe) {
+						throw ioe;
+					}
+					Files.delete(subDir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+	}
+}
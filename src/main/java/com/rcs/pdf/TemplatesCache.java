@@ -0,0 +1,251 @@
+package com.rcs.pdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.rcs.pdf.cache.ContentDigest;
+import com.rcs.pdf.cache.LruCache;
+
+/**
+ * Caches compiled stylesheets so a stylesheet which has already been seen
+ * goes straight to {@link Templates#newTransformer()} instead of being
+ * parsed and compiled again.
+ * <p>
+ * Entries are keyed by the SHA-256 digest of the stylesheet combined with
+ * the digests of the modules it pulls in through xsl:include and
+ * xsl:import, so changing an included module results in a recompile. The
+ * list of modules a stylesheet references is itself cached by the digest
+ * of the main stylesheet so the stylesheet only has to be scanned the
+ * first time it is seen.
+ */
+public class TemplatesCache
+{
+	private static final String XSLT_NAMESPACE = "http://www.w3.org/1999/XSL/Transform";
+	private static final String MISSING_MODULE = "missing";
+
+	private Logger logger;
+	private TransformerFactory transformerFactory;
+	private SAXParserFactory parserFactory;
+
+	private LruCache<String, List<String>> moduleCache;
+	private LruCache<String, Templates> templatesCache;
+
+	/**
+	 * Handler which collects the href of each xsl:include and xsl:import
+	 * element in a stylesheet.
+	 */
+	private static class ModuleHandler
+		extends DefaultHandler
+	{
+		private List<String> hrefs = new ArrayList<>();
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			if (XSLT_NAMESPACE.equals(uri) &&
+				("include".equals(localName) || "import".equals(localName)) )
+			{
+				String href = attributes.getValue("href");
+				if (null != href) {
+					hrefs.add(href);
+				}
+			}
+		}
+	}
+
+	public TemplatesCache(TransformerFactory transformerFactory, int maxEntries)
+	{
+		logger = LogManager.getLogger(TemplatesCache.class);
+
+		this.transformerFactory = transformerFactory;
+
+		this.templatesCache = new LruCache<>("Templates cache", maxEntries);
+		this.moduleCache = new LruCache<>("Stylesheet module cache", maxEntries);
+
+		parserFactory = SAXParserFactory.newInstance();
+		parserFactory.setNamespaceAware(true);
+		try {
+			parserFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			parserFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		} catch (ParserConfigurationException | SAXException e) {
+			logger.warn("Unable to configure stylesheet module scanner", e);
+		}
+	}
+
+	/**
+	 * Returns the compiled form of a stylesheet, compiling and caching it if
+	 * it hasn't been seen before.
+	 *
+	 * @param xsltFile The stylesheet in the job directory. Any modules
+	 * 			included or imported by the stylesheet are expected to be
+	 * 			in the same directory.
+	 *
+	 * @return The compiled stylesheet.
+	 *
+	 * @throws TransformerException If the stylesheet could not be compiled.
+	 * @throws IOException If the stylesheet or one of its modules could not
+	 * 			be read.
+	 */
+	public Templates getTemplates(Path xsltFile) throws TransformerException, IOException
+	{
+		String key = getKey(xsltFile);
+
+		Templates templates = templatesCache.get(key);
+		if (null == templates) {
+			logger.debug("Compiling stylesheet {}", xsltFile.getFileName());
+
+			templates = compile(xsltFile);
+			templatesCache.put(key, templates);
+		}
+		else {
+			logger.debug("Using cached stylesheet for {}", xsltFile.getFileName());
+		}
+
+		return templates;
+	}
+
+	/**
+	 * Compiles a stylesheet without consulting or updating the cache.
+	 *
+	 * @param xsltFile The stylesheet to compile.
+	 *
+	 * @return The compiled stylesheet.
+	 *
+	 * @throws TransformerException If the stylesheet could not be compiled.
+	 * @throws IOException If the stylesheet could not be read.
+	 */
+	public Templates compile(Path xsltFile) throws TransformerException, IOException
+	{
+		try (InputStream inStrm = Files.newInputStream(xsltFile)) {
+			return transformerFactory.newTemplates(new StreamSource(inStrm, xsltFile.toUri().toString()));
+		}
+	}
+
+	/**
+	 * Computes the cache key for a stylesheet, the digest of the stylesheet
+	 * combined with the names and digests of the modules it references.
+	 *
+	 * @param xsltFile The stylesheet in the job directory.
+	 *
+	 * @return The cache key.
+	 *
+	 * @throws IOException If the stylesheet could not be read.
+	 */
+	public String getKey(Path xsltFile) throws IOException
+	{
+		Path baseDir = xsltFile.toAbsolutePath().getParent();
+		String mainDigest = ContentDigest.of(xsltFile);
+
+		List<String> modules = moduleCache.get(mainDigest);
+		if (null == modules) {
+			modules = findModules(xsltFile);
+			moduleCache.put(mainDigest, modules);
+		}
+
+		List<String> keyParts = new ArrayList<>();
+		keyParts.add(mainDigest);
+
+		for (String module : modules) {
+			Path moduleFile = baseDir.resolve(module);
+
+			keyParts.add(module);
+			keyParts.add(Files.exists(moduleFile) ? ContentDigest.of(moduleFile) : MISSING_MODULE);
+		}
+
+		return ContentDigest.combine(keyParts.toArray(new String[0]));
+	}
+
+	public LruCache<String, Templates> getCache() {
+		return templatesCache;
+	}
+
+	/**
+	 * Walks the include/import tree of a stylesheet collecting the modules
+	 * which are located in the same directory as the stylesheet. Modules
+	 * referenced by absolute URI are not part of the job and are ignored.
+	 *
+	 * @param xsltFile The main stylesheet.
+	 *
+	 * @return The module paths, relative to the stylesheet's directory, in
+	 * 			the order they were found.
+	 */
+	private List<String> findModules(Path xsltFile)
+	{
+		Path baseDir = xsltFile.toAbsolutePath().getParent();
+		Set<String> modules = new LinkedHashSet<>();
+		Deque<Path> pending = new ArrayDeque<>();
+
+		pending.add(xsltFile.toAbsolutePath());
+
+		while (!pending.isEmpty()) {
+			Path stylesheet = pending.remove();
+
+			for (String href : scanModules(stylesheet)) {
+				Path module = toLocalModule(baseDir, href);
+
+				if (null != module && modules.add(baseDir.relativize(module).toString()) && Files.exists(module)) {
+					pending.add(module);
+				}
+			}
+		}
+
+		return new ArrayList<>(modules);
+	}
+
+	private Path toLocalModule(Path baseDir, String href)
+	{
+		Path module = null;
+
+		try {
+			if (null == new URI(href).getScheme()) {
+				Path path = baseDir.resolve(href).normalize();
+				if (path.startsWith(baseDir)) {
+					module = path;
+				}
+			}
+		} catch (URISyntaxException e) {
+			logger.debug("Ignoring invalid module reference {}", href);
+		}
+
+		return module;
+	}
+
+	private List<String> scanModules(Path stylesheet)
+	{
+		ModuleHandler handler = new ModuleHandler();
+
+		try (InputStream inStrm = Files.newInputStream(stylesheet)) {
+			SAXParser parser = parserFactory.newSAXParser();
+			parser.parse(inStrm, handler);
+		} catch (IOException | ParserConfigurationException | SAXException e) {
+			// Let the compile report the problem with the stylesheet
+			logger.debug("Unable to scan {} for modules: {}", stylesheet.getFileName(), e.getMessage());
+		}
+
+		return handler.hrefs;
+	}
+}
@@ -1,13 +1,12 @@
 package com.rcs.pdf;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.List;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
@@ -15,92 +14,145 @@ import javax.xml.transform.URIResolver;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.fop.apps.io.ResourceResolverFactory;
-import org.apache.logging.log4j.Level;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 import org.apache.xmlgraphics.io.Resource;
 import org.apache.xmlgraphics.io.ResourceResolver;
 
+/**
+ * Resolves the references of a job, to its files and to content addressed
+ * asset URIs, for both the XSLT processor and FOP.
+ * <p>
+ * A relative reference is looked up in the index of the job's files, so
+ * finding a file, or finding there isn't one, costs no probe of the file
+ * system. Only absolute URIs are passed on to the default resolvers.
+ */
 public class WorkDirResolver
 	implements ResourceResolver, URIResolver
 {
-	private Logger logger;
-	protected Path tempDirPath;
+	private JobFileIndex fileIndex;
 	private ResourceResolver parentResourceResolver;
 	private URIResolver parentURIResolver;
+	private AssetRegistry assetRegistry;
 
-	protected WorkDirResolver() {
-		logger = LogManager.getLogger(this.getClass());
+	/**
+	 * Creates a resolver which isn't tied to a job directory, only
+	 * resolving asset URIs and references the default resolvers can.
+	 */
+	public WorkDirResolver() {
 		parentResourceResolver = ResourceResolverFactory.createDefaultResourceResolver();
 	}
 
 	public WorkDirResolver (Path path)
+	{
+		this(new JobFileIndex(List.of(path)));
+	}
+
+	/**
+	 * Creates a resolver for a job's files, which may be in more than one
+	 * directory, such as the job directory and a bundle uploaded with the
+	 * job.
+	 *
+	 * @param fileIndex The index of the job's files.
+	 */
+	public WorkDirResolver (JobFileIndex fileIndex)
 	{
 		this();
 
-		tempDirPath = path;
+		this.fileIndex = fileIndex;
 	}
 
 	public void setURIResolver(URIResolver resolver) {
 		parentURIResolver = resolver;
 	}
 
+	public void setAssetRegistry(AssetRegistry registry) {
+		assetRegistry = registry;
+	}
+
+	/**
+	 * Resolves a reference from a stylesheet, e.g. by the document()
+	 * function. A relative reference is only ever resolved to one of the
+	 * job's files, relative to the file it was made from if that is one of
+	 * the job's files, never against the stylesheet's location, as a
+	 * compiled stylesheet is shared with other jobs. An absolute reference
+	 * is passed to the parent resolver, or, without one, left to the XSLT
+	 * processor.
+	 *
+	 * @throws TransformerException If a relative reference isn't to one of
+	 * 			the job's files.
+	 */
 	public Source resolve(String href, String base)
 		throws TransformerException
 	{
 		Source src = null;
-		
-		Path file = tempDirPath.resolve(href);
-		
-		InputStream is = null;
-		try {
-			is = Files.newInputStream(file);
-		} catch (NoSuchFileException nsfe) {
-			throw new TransformerException("File not found: " + Path.of(nsfe.getFile()).getFileName().toString());
-		}
-		catch (IOException e) {
-			logger.catching(Level.ERROR, e);
-		}
+		String path = (null == fileIndex || null == href) ? null : JobFileIndex.getRelativePath(href);
 
-		if (null != is) {
-			src = new StreamSource(is);
-		}
-		else {
-			if (null != parentURIResolver) {
-				src = parentURIResolver.resolve(href, base);
+		if (null != path) {
+			Path file = fileIndex.find(path, toPath(base));
+
+			if (null == file) {
+				throw new TransformerException("File not found: " + path);
 			}
+
+			try {
+				// Identified by its own location, so its relative references are resolved within the job
+				src = new StreamSource(Files.newInputStream(file), file.toUri().toString());
+			}
+			catch (IOException e) {
+				throw new TransformerException("Unable to read " + path, e);
+			}
+		}
+		else if (null != parentURIResolver) {
+			src = parentURIResolver.resolve(href, base);
 		}
-			
+
 		return src;
 	}
 
 	@Override
 	public Resource getResource(URI uri) throws IOException {
-		Resource rsrc = null;
-		try {
-			rsrc = parentResourceResolver.getResource(uri);
+		if (AssetRegistry.isAssetUri(uri)) {
+			Path file = (null == assetRegistry) ? null : assetRegistry.resolve(uri);
+			if (null == file) {
+				throw new FileNotFoundException("Unknown asset: " + uri);
+			}
+			return new Resource(Files.newInputStream(file));
 		}
-		catch (IOException e) {
-			Path path = Paths.get(uri);
-			
-			String filename = path.getFileName().toString();
-			
-			try {
-				Source src = resolve(filename, "");
 
-				if (null != src) {
-					rsrc = new Resource(((StreamSource)src).getInputStream());
-				}
-			} catch (TransformerException te) {
-				logger.catching(Level.ERROR, te);
+		if (null != fileIndex && !uri.isAbsolute()) {
+			Path file = (null == uri.getPath()) ? null : fileIndex.find(uri.getPath());
+			if (null == file) {
+				throw new FileNotFoundException("File not found: " + uri);
 			}
+			return new Resource(Files.newInputStream(file));
 		}
-		
-		return rsrc;
+
+		return parentResourceResolver.getResource(uri);
 	}
 
 	@Override
 	public OutputStream getOutputStream(URI uri) throws IOException {
 		return parentResourceResolver.getOutputStream(uri);
 	}
+
+	/**
+	 * Finds the file a base URI identifies.
+	 *
+	 * @return The file, or null if the base URI isn't a file's, such as
+	 * 			one in a bundle or a URI which isn't valid.
+	 */
+	private static Path toPath(String base)
+	{
+		Path file = null;
+
+		if (null != base && !base.isEmpty()) {
+			try {
+				file = Path.of(URI.create(base));
+			}
+			catch (RuntimeException e) {
+				// Not on a file system which can be found by URI
+			}
+		}
+
+		return file;
+	}
 }
@@ -0,0 +1,66 @@
+package com.rcs.pdf.cache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HexFormat;
+
+/**
+ * A disk backed store of the files, such as images, fonts and stylesheet
+ * modules, which clients reference from render requests by the SHA-256
+ * digest of their contents rather than uploading them every time.
+ * <p>
+ * A client sends a manifest of the files a request needs, the service
+ * answers with those it doesn't have, and only those are uploaded. The
+ * files are keyed by the digest the store computes itself, so a client
+ * can't store a file under the wrong digest. As for the other caches the
+ * least recently used files are deleted once the store exceeds its size.
+ */
+public class AssetStore
+	extends DiskCache
+{
+	private static final int DIGEST_LENGTH = 64;
+
+	/**
+	 * Creates a store, loading any files stored by a previous run.
+	 *
+	 * @param storeDir The directory the files are stored in.
+	 * @param maxBytes The maximum total size of the stored files. A value
+	 * 			of 0 disables the store.
+	 *
+	 * @throws IOException If the store directory could not be read.
+	 */
+	public AssetStore(Path storeDir, long maxBytes) throws IOException
+	{
+		super("Asset store", storeDir, maxBytes);
+	}
+
+	/**
+	 * Adds a file to the store.
+	 *
+	 * @param file The file to store.
+	 *
+	 * @return The digest of the file's contents, which it is stored under.
+	 *
+	 * @throws IOException If the file could not be read.
+	 */
+	public String store(Path file) throws IOException
+	{
+		String digest = ContentDigest.of(file);
+
+		store(digest, file);
+
+		return digest;
+	}
+
+	/**
+	 * Checks if a string is a hex encoded SHA-256 digest, as used to
+	 * reference a stored file.
+	 *
+	 * @param digest The string to check.
+	 *
+	 * @return true if the string is a digest.
+	 */
+	public static boolean isDigest(String digest) {
+		return null != digest && DIGEST_LENGTH == digest.length() && digest.chars().allMatch(HexFormat::isHexDigit);
+	}
+}
@@ -0,0 +1,117 @@
+package com.rcs.pdf.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Helpers for computing the SHA-256 digests used to key the content
+ * addressed caches.
+ */
+public final class ContentDigest
+{
+	public static final String ALGORITHM = "SHA-256";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private ContentDigest() {
+	}
+
+	/**
+	 * Creates a new SHA-256 message digest.
+	 * 
+	 * @return A new MessageDigest instance.
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(ALGORITHM + " not supported", e);
+		}
+	}
+
+	/**
+	 * Computes the digest of the contents of a file.
+	 * 
+	 * @param file The file to digest.
+	 * 
+	 * @return The hex encoded digest.
+	 * 
+	 * @throws IOException If the file could not be read.
+	 */
+	public static String of(Path file) throws IOException {
+		try (InputStream inStrm = Files.newInputStream(file)) {
+			return of(inStrm);
+		}
+	}
+
+	/**
+	 * Computes the digest of the remaining contents of a stream. The stream
+	 * is not closed.
+	 * 
+	 * @param inStrm The stream to digest.
+	 * 
+	 * @return The hex encoded digest.
+	 * 
+	 * @throws IOException If the stream could not be read.
+	 */
+	public static String of(InputStream inStrm) throws IOException {
+		MessageDigest md = newDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int len;
+
+		while ((len = inStrm.read(buffer)) != -1) {
+			md.update(buffer, 0, len);
+		}
+
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Computes the digest of a byte array.
+	 * 
+	 * @param bytes The bytes to digest.
+	 * 
+	 * @return The hex encoded digest.
+	 */
+	public static String of(byte[] bytes) {
+		return toHex(newDigest().digest(bytes));
+	}
+
+	/**
+	 * Computes a single digest over a sequence of strings, typically other
+	 * digests and the names they belong to. Each part is terminated so
+	 * that ("ab", "c") and ("a", "bc") produce different digests.
+	 * 
+	 * @param parts The strings to combine.
+	 * 
+	 * @return The hex encoded digest.
+	 */
+	public static String combine(String... parts) {
+		MessageDigest md = newDigest();
+
+		for (String part : parts) {
+			md.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+			md.update((byte)0);
+		}
+
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Hex encodes a digest.
+	 * 
+	 * @param digest The raw digest bytes.
+	 * 
+	 * @return The lower case hex representation of the digest.
+	 */
+	public static String toHex(byte[] digest) {
+		return HexFormat.of().formatHex(digest);
+	}
+}
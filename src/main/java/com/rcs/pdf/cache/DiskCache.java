@@ -0,0 +1,387 @@
+package com.rcs.pdf.cache;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A disk backed cache of files, keyed by the digest of everything that
+ * went into generating them. The total size of the cached files is
+ * bounded, the least recently used entries being deleted once the bound
+ * is exceeded.
+ * <p>
+ * Each entry is one or more named files stored in a directory, named by
+ * its key, under the cache directory. The index is rebuilt from the cache
+ * directory on startup so entries survive a restart.
+ */
+public class DiskCache
+{
+	private static final String DATA_FILE = "data";
+	private static final String STAGING_SUFFIX = ".tmp";
+
+	private Logger logger;
+	private String name;
+	private Path cacheDir;
+	private long maxBytes;
+	private long totalBytes = 0;
+
+	// Size of each cached entry, in least recently used order
+	private Map<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a cache, loading any entries cached by a previous run.
+	 *
+	 * @param name The name of the cache, used when reporting statistics.
+	 * @param cacheDir The directory the entries are stored in.
+	 * @param maxBytes The maximum total size of the cached entries. A value
+	 * 			of 0 disables the cache.
+	 *
+	 * @throws IOException If the cache directory could not be read.
+	 */
+	public DiskCache(String name, Path cacheDir, long maxBytes) throws IOException
+	{
+		logger = LogManager.getLogger(getClass());
+
+		this.name = name;
+		this.cacheDir = cacheDir;
+		this.maxBytes = maxBytes;
+
+		if (maxBytes > 0) {
+			Files.createDirectories(cacheDir);
+			loadIndex();
+		}
+	}
+
+	public boolean isEnabled() {
+		return maxBytes > 0;
+	}
+
+	/**
+	 * @return The maximum total size of the cached entries, so also the
+	 * 			largest entry which can be cached.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Copies a cached single file entry.
+	 *
+	 * @param key The digest of the entry's inputs.
+	 * @param file Where to put the file.
+	 *
+	 * @return true if the entry was in the cache, otherwise false.
+	 */
+	public boolean fetch(String key, Path file) {
+		return fetch(key, Map.of(DATA_FILE, file));
+	}
+
+	/**
+	 * Copies the files of a cached entry.
+	 *
+	 * @param key The digest of the entry's inputs.
+	 * @param files Where to put each of the entry's files, by name.
+	 *
+	 * @return true if the entry was in the cache, otherwise false.
+	 */
+	public boolean fetch(String key, Map<String, Path> files)
+	{
+		boolean found = false;
+
+		if (isEnabled()) {
+			Path entryDir;
+
+			synchronized (this) {
+				// get, rather than containsKey, so the entry becomes the most recently used
+				entryDir = (null != index.get(key)) ? cacheDir.resolve(key) : null;
+			}
+
+			if (null != entryDir) {
+				try {
+					for (Map.Entry<String, Path> file : files.entrySet()) {
+						linkOrCopy(entryDir.resolve(file.getKey()), file.getValue());
+					}
+
+					// Keep the on-disk order in step for the next restart
+					Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+					found = true;
+				} catch (IOException e) {
+					// Most likely evicted by another thread since we looked
+					logger.debug("Unable to fetch {} entry {}: {}", name, key, e.getMessage());
+				}
+			}
+
+			(found ? hits : misses).incrementAndGet();
+		}
+
+		return found;
+	}
+
+	/**
+	 * Adds a single file entry to the cache.
+	 *
+	 * @param key The digest of the entry's inputs.
+	 * @param file The file to cache.
+	 */
+	public void store(String key, Path file) {
+		store(key, Map.of(DATA_FILE, file));
+	}
+
+	/**
+	 * Adds an entry to the cache. Files which don't exist are cached as
+	 * empty files.
+	 *
+	 * @param key The digest of the entry's inputs.
+	 * @param files The files to cache, by name.
+	 */
+	public void store(String key, Map<String, Path> files) {
+		store(key, files, false);
+	}
+
+	/**
+	 * Adds a single file entry to the cache, moving the file into it rather
+	 * than linking or copying it, for a file which isn't needed once it is
+	 * cached. The file is deleted if it isn't cached, e.g. because the
+	 * entry is already in the cache.
+	 *
+	 * @param key The digest of the entry's inputs.
+	 * @param file The file to cache.
+	 */
+	public void move(String key, Path file) {
+		store(key, Map.of(DATA_FILE, file), true);
+	}
+
+	private void store(String key, Map<String, Path> files, boolean move)
+	{
+		if (isEnabled()) {
+			Path stagingDir = null;
+
+			try {
+				stagingDir = Files.createTempDirectory(cacheDir, key + STAGING_SUFFIX);
+				for (Map.Entry<String, Path> file : files.entrySet()) {
+					if (move) {
+						Files.move(file.getValue(), stagingDir.resolve(file.getKey()));
+					}
+					else if (Files.exists(file.getValue())) {
+						linkOrCopy(file.getValue(), stagingDir.resolve(file.getKey()));
+					}
+					else {
+						Files.createFile(stagingDir.resolve(file.getKey()));
+					}
+				}
+
+				long size = directorySize(stagingDir);
+
+				synchronized (this) {
+					if (size <= maxBytes && !index.containsKey(key)) {
+						moveDir(stagingDir, cacheDir.resolve(key));
+
+						index.put(key, size);
+						totalBytes += size;
+
+						evict();
+					}
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to cache {} entry {}", name, key, e);
+			}
+			finally {
+				if (null != stagingDir) {
+					deleteDir(stagingDir);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if an entry is in the cache, making it the most recently used
+	 * as it is about to be fetched.
+	 *
+	 * @param key The digest of the entry's inputs.
+	 *
+	 * @return true if the entry is in the cache, otherwise false.
+	 */
+	public synchronized boolean contains(String key) {
+		return null != index.get(key);
+	}
+
+	/**
+	 * @param key The digest of the entry's inputs.
+	 *
+	 * @return The size of the entry's files, or -1 if the entry isn't in
+	 * 			the cache.
+	 */
+	public synchronized long getSize(String key)
+	{
+		Long size = index.get(key);
+
+		return (null == size) ? -1 : size;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return The ratio of hits to lookups, between 0 and 1.
+	 */
+	public double getHitRatio() {
+		long hitCnt = hits.get();
+		long total = hitCnt + misses.get();
+
+		return (0 == total) ? 0.0 : (double)hitCnt / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s : %d entries, %d of %d KB, %d hits, %d misses, %d evictions, hit ratio %.1f%%",
+				name, size(), getTotalBytes() / 1024, maxBytes / 1024, getHits(), getMisses(), evictions.get(), getHitRatio() * 100);
+	}
+
+	/**
+	 * Removes the least recently used entries until the cache is within
+	 * its bound. Must be called while holding the lock.
+	 */
+	private void evict()
+	{
+		Iterator<Map.Entry<String, Long>> itor = index.entrySet().iterator();
+
+		while (totalBytes > maxBytes && itor.hasNext()) {
+			Map.Entry<String, Long> entry = itor.next();
+
+			itor.remove();
+			totalBytes -= entry.getValue();
+			evictions.incrementAndGet();
+
+			deleteDir(cacheDir.resolve(entry.getKey()));
+		}
+	}
+
+	private synchronized void loadIndex() throws IOException
+	{
+		List<Path> entryDirs = new ArrayList<>();
+
+		try (DirectoryStream<Path> dirStrm = Files.newDirectoryStream(cacheDir, Files::isDirectory)) {
+			for (Path entryDir : dirStrm) {
+				if (entryDir.getFileName().toString().contains(STAGING_SUFFIX)) {
+					deleteDir(entryDir);
+				}
+				else {
+					entryDirs.add(entryDir);
+				}
+			}
+		}
+
+		// Oldest first so the most recently used end up at the end of the index
+		entryDirs.sort(Comparator.comparing(dir -> dir.toFile().lastModified()));
+
+		for (Path entryDir : entryDirs) {
+			long size = directorySize(entryDir);
+
+			index.put(entryDir.getFileName().toString(), size);
+			totalBytes += size;
+		}
+
+		evict();
+
+		logger.info("Loaded {} {} entries, {} KB", index.size(), name, totalBytes / 1024);
+	}
+
+	/**
+	 * Hard links a file if possible, as the cache and the job directories
+	 * are normally both in the work directory, otherwise copies it, e.g.
+	 * for a job held in memory.
+	 */
+	private void linkOrCopy(Path source, Path target) throws IOException
+	{
+		try {
+			Files.createLink(target, source);
+		} catch (UnsupportedOperationException | ProviderMismatchException | IOException e) {
+			Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void moveDir(Path source, Path target) throws IOException
+	{
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target);
+		}
+	}
+
+	private long directorySize(Path dir) throws IOException
+	{
+		long size = 0;
+
+		try (DirectoryStream<Path> dirStrm = Files.newDirectoryStream(dir)) {
+			for (Path file : dirStrm) {
+				size += Files.size(file);
+			}
+		}
+
+		return size;
+	}
+
+	private void deleteDir(Path dir)
+	{
+		if (Files.exists(dir)) {
+			try {
+				Files.walkFileTree(
+					dir,
+					new SimpleFileVisitor<Path> () {
+						@Override
+						public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+							Files.delete(file);
+							return FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult postVisitDirectory(Path subDir, IOException ioe) throws IOException {
+							if (null != ioe) {
+								throw ioe;
+							}
+							Files.delete(subDir);
+							return FileVisitResult.CONTINUE;
+						}
+					});
+			} catch (IOException e) {
+				logger.warn("Unable to delete {}", dir, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package com.rcs.pdf.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small, thread-safe, size bounded cache which evicts the least recently
+ * used entry once the maximum number of entries is exceeded. Hits, misses
+ * and evictions are counted so the cache can be sized from the statistics.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the cached values.
+ */
+public class LruCache<K, V>
+{
+	private final String name;
+	private final int maxEntries;
+	private final Map<K, V> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a new cache.
+	 * 
+	 * @param name The name of the cache, used when reporting statistics.
+	 * @param maxEntries The maximum number of entries to hold. A value of 0
+	 * 			disables the cache.
+	 */
+	public LruCache(String name, int maxEntries)
+	{
+		if (maxEntries < 0) {
+			throw new IllegalArgumentException("Invalid cache size: " + maxEntries);
+		}
+
+		this.name = name;
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				boolean remove = size() > LruCache.this.maxEntries;
+
+				if (remove) {
+					evictions.incrementAndGet();
+					onEviction(eldest.getKey(), eldest.getValue());
+				}
+
+				return remove;
+			}
+		};
+	}
+
+	/**
+	 * Called, while holding the cache lock, whenever an entry is evicted to
+	 * make room for a new one. Subclasses can override this to release any
+	 * resources associated with the entry.
+	 * 
+	 * @param key The key of the evicted entry.
+	 * @param value The value of the evicted entry.
+	 */
+	protected void onEviction(K key, V value) {
+		// Nothing to release by default
+	}
+
+	/**
+	 * Fetches a value from the cache, marking it as most recently used.
+	 * 
+	 * @param key The key to lookup.
+	 * 
+	 * @return The cached value or null if the key is not in the cache.
+	 */
+	public synchronized V get(K key) {
+		V value = entries.get(key);
+
+		if (null == value) {
+			misses.incrementAndGet();
+		}
+		else {
+			hits.incrementAndGet();
+		}
+
+		return value;
+	}
+
+	/**
+	 * Fetches a value from the cache, marking it as most recently used,
+	 * without counting the lookup as a hit or miss.
+	 * 
+	 * @param key The key to lookup.
+	 * 
+	 * @return The cached value or null if the key is not in the cache.
+	 */
+	public synchronized V peek(K key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Adds a value to the cache, evicting the least recently used entry if
+	 * the cache is full.
+	 * 
+	 * @param key The key of the entry.
+	 * @param value The value to cache.
+	 */
+	public synchronized void put(K key, V value) {
+		entries.put(key, value);
+	}
+
+	/**
+	 * Removes an entry from the cache.
+	 * 
+	 * @param key The key of the entry.
+	 * 
+	 * @return The value removed or null if the key was not in the cache.
+	 */
+	public synchronized V remove(K key) {
+		return entries.remove(key);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return The ratio of hits to lookups, between 0 and 1.
+	 */
+	public double getHitRatio() {
+		long hitCnt = hits.get();
+		long total = hitCnt + misses.get();
+
+		return (0 == total) ? 0.0 : (double)hitCnt / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s : %d of %d entries, %d hits, %d misses, %d evictions, hit ratio %.1f%%",
+				name, size(), maxEntries, getHits(), getMisses(), getEvictions(), getHitRatio() * 100);
+	}
+}
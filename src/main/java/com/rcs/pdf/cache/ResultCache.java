@@ -0,0 +1,54 @@
+package com.rcs.pdf.cache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * A disk backed cache of finished PDFs and their job logs, keyed by the
+ * digest of everything that went into generating them.
+ */
+public class ResultCache
+	extends DiskCache
+{
+	private static final String PDF_FILE = "result.pdf";
+	private static final String LOG_FILE = "result.log";
+
+	/**
+	 * Creates a cache, loading any results cached by a previous run.
+	 *
+	 * @param cacheDir The directory the results are stored in.
+	 * @param maxBytes The maximum total size of the cached results. A value
+	 * 			of 0 disables the cache.
+	 *
+	 * @throws IOException If the cache directory could not be read.
+	 */
+	public ResultCache(Path cacheDir, long maxBytes) throws IOException
+	{
+		super("Result cache", cacheDir, maxBytes);
+	}
+
+	/**
+	 * Copies a cached result into a job directory.
+	 *
+	 * @param key The digest of the job's inputs.
+	 * @param pdfFile Where to put the PDF.
+	 * @param logFile Where to put the log.
+	 *
+	 * @return true if the result was in the cache, otherwise false.
+	 */
+	public boolean fetch(String key, Path pdfFile, Path logFile) {
+		return fetch(key, Map.of(PDF_FILE, pdfFile, LOG_FILE, logFile));
+	}
+
+	/**
+	 * Adds a result to the cache.
+	 *
+	 * @param key The digest of the job's inputs.
+	 * @param pdfFile The generated PDF.
+	 * @param logFile The job log.
+	 */
+	public void store(String key, Path pdfFile, Path logFile) {
+		store(key, Map.of(PDF_FILE, pdfFile, LOG_FILE, logFile));
+	}
+}
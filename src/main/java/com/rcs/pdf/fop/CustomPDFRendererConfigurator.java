@@ -2,14 +2,10 @@ package com.rcs.pdf.fop;
 
 import java.awt.FontFormatException;
 import java.awt.font.TextAttribute;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -29,7 +25,10 @@ import org.apache.fop.render.pdf.PDFRendererConfigurator;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.rcs.pdf.ThreadWorkDirResolver;
+import com.rcs.pdf.JobContext;
+import com.rcs.pdf.PDFGenerator;
+import com.rcs.pdf.cache.ContentDigest;
+import com.rcs.pdf.cache.LruCache;
 
 
 public class CustomPDFRendererConfigurator
@@ -47,37 +46,34 @@ public class CustomPDFRendererConfigurator
     protected FontCollection getCustomFontCollection(InternalResourceResolver resolver, String mimeType)
             throws FOPException {
 
-        List<EmbedFontInfo> fontList = new ArrayList<>();
+        // Start with the fonts installed on the server
+        List<EmbedFontInfo> fontList = new ArrayList<>(FontRepository.getInstance().getFontInfos());
 
-        Path startDir = ThreadWorkDirResolver.getWorkDir();
-        String pattern = "glob:*.ttf"; // match all .ttf files
-        
-        try {
-            List<Path> matchingFiles = findFilesMatchingPattern(startDir, pattern);
-
-            for (Path file : matchingFiles) {
-            	addFont(file, fontList);
+        // Add the fonts uploaded with the job, streamed jobs don't have any
+        JobContext jobContext = JobContext.from(userAgent);
+        if (null != jobContext) {
+            for (Path file : jobContext.getFontFiles()) {
+                addFont(jobContext, file, fontList);
             }
-        } catch (IOException ioe) {
-        	logger.warn("IOException searching for font files", ioe);
         }
 
         return createCollectionFromFontList(resolver, fontList);
     }
 
-    private void addFont(Path filename, List<EmbedFontInfo> fontList)
+    private void addFont(JobContext jobContext, Path filename, List<EmbedFontInfo> fontList)
     {
     	try {
-	        java.awt.Font awtFont = java.awt.Font.createFont(java.awt.Font.TRUETYPE_FONT, filename.toFile());
-	        
-	        Map<TextAttribute,?> fontAttrs = awtFont.getAttributes();
-	    	
-		    FontUris fontUris = new FontUris(filename.toUri(), null);
+    		byte[] fontBytes = Files.readAllBytes(filename);
+    		String digest = ContentDigest.of(fontBytes);
+    		String family = getFontFamily(fontBytes, digest);
+
+    		// Referenced by digest, as for images, so a font in a bundle is read from the archive
+		    FontUris fontUris = new FontUris(jobContext.registerAsset(digest, filename), null);
 		    List<FontTriplet> triplets = new ArrayList<>();
 		    
 		    triplets.add(
 		    		new FontTriplet(
-		    				fontAttrs.get(TextAttribute.FAMILY).toString(),
+		    				family,
 		    				Font.STYLE_NORMAL,
 		    				Font.WEIGHT_NORMAL
 		    				)
@@ -93,31 +89,26 @@ public class CustomPDFRendererConfigurator
 		}
     }
 
-    private List<Path> findFilesMatchingPattern(Path startDir, String pattern) throws IOException {
-        List<Path> matchingFiles = new ArrayList<>();
-        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(pattern);
-
-        Files.walkFileTree(startDir, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (matcher.matches(file.getFileName())) {
-                    matchingFiles.add(file);
-                }
-                return FileVisitResult.CONTINUE;
-            }
+    /**
+     * Determines the family name of a font. Clients tend to send the same
+     * fonts with every request so the family name is cached by the digest
+     * of the font, meaning a font seen before only costs a hash instead of
+     * parsing the whole font.
+     */
+    private String getFontFamily(byte[] fontBytes, String digest) throws FontFormatException, IOException
+    {
+    	LruCache<String, String> fontCache = PDFGenerator.getInstance().getFontCache();
+    	String family = fontCache.get(digest);
 
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                // Optionally, skip certain directories here
-                return FileVisitResult.CONTINUE;
-            }
+    	if (null == family) {
+	        java.awt.Font awtFont = java.awt.Font.createFont(java.awt.Font.TRUETYPE_FONT, new ByteArrayInputStream(fontBytes));
+	        
+	        Map<TextAttribute,?> fontAttrs = awtFont.getAttributes();
 
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-                // Handle errors during file access
-                return FileVisitResult.CONTINUE;
-            }
-        });
-        return matchingFiles;
+	        family = fontAttrs.get(TextAttribute.FAMILY).toString();
+	        fontCache.put(digest, family);
+    	}
+
+    	return family;
     }
 }
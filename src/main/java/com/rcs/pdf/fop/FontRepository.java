@@ -0,0 +1,141 @@
+package com.rcs.pdf.fop;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.io.InternalResourceResolver;
+import org.apache.fop.apps.io.ResourceResolverFactory;
+import org.apache.fop.fonts.EmbedFontInfo;
+import org.apache.fop.fonts.FontCache;
+import org.apache.fop.fonts.autodetect.FontInfoFinder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Fonts which are installed on the server and available to every request
+ * by family name, without the request needing to upload them.
+ * <p>
+ * The font directory is scanned once at startup and the fonts are parsed
+ * in parallel. FOP's font cache is persisted to a file so fonts which
+ * haven't changed don't need to be parsed again when the service restarts.
+ */
+public class FontRepository
+{
+    private static final List<String> FONT_EXTENSIONS = Arrays.asList(".ttf", ".otf", ".ttc");
+
+    private static FontRepository instance;
+
+    private Logger logger;
+    private List<EmbedFontInfo> fontInfos = Collections.emptyList();
+
+    private FontRepository() {
+        logger = LogManager.getLogger(FontRepository.class);
+    }
+
+    public static synchronized FontRepository getInstance()
+    {
+        if (null == instance) {
+            instance = new FontRepository();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Scans a directory, and its sub-directories, for fonts.
+     *
+     * @param fontDir The directory containing the fonts.
+     * @param cacheFile The file FOP's font cache is persisted in.
+     *
+     * @throws IOException If the font directory could not be read.
+     */
+    public void load(Path fontDir, Path cacheFile) throws IOException
+    {
+        long startTime = System.currentTimeMillis();
+
+        InternalResourceResolver resolver = ResourceResolverFactory.createDefaultInternalResourceResolver(fontDir.toUri());
+
+        FontCache fontCache = FontCache.loadFrom(cacheFile.toFile());
+        if (null == fontCache) {
+            fontCache = new FontCache();
+        }
+
+        List<Path> fontFiles;
+        try (Stream<Path> files = Files.walk(fontDir)) {
+            fontFiles = files.filter(this::isFontFile).toList();
+        }
+
+        List<EmbedFontInfo> fonts = new ArrayList<>();
+        List<Path> uncachedFiles = new ArrayList<>();
+
+        // FontCache isn't thread-safe so only consult it from this thread
+        for (Path fontFile : fontFiles) {
+            EmbedFontInfo[] cachedInfos = fontCache.getFontInfos(fontFile.toUri().toASCIIString(), Files.getLastModifiedTime(fontFile).toMillis());
+
+            if (null != cachedInfos) {
+                fonts.addAll(Arrays.asList(cachedInfos));
+            }
+            else {
+                uncachedFiles.add(fontFile);
+            }
+        }
+
+        List<EmbedFontInfo> parsedInfos = uncachedFiles
+                .parallelStream()
+                .flatMap(fontFile -> parseFont(fontFile.toUri(), resolver))
+                .toList();
+
+        for (EmbedFontInfo fontInfo : parsedInfos) {
+            fontCache.addFont(fontInfo, resolver);
+            fonts.add(fontInfo);
+        }
+
+        if (fontCache.hasChanged()) {
+            try {
+                fontCache.saveTo(cacheFile.toFile());
+            } catch (FOPException e) {
+                logger.warn("Unable to save font cache {}", cacheFile, e);
+            }
+        }
+
+        fontInfos = Collections.unmodifiableList(fonts);
+
+        logger.info("Loaded {} font(s) from {} ({} parsed) in {} ms",
+                fontInfos.size(), fontDir, uncachedFiles.size(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * @return The fonts available to every request.
+     */
+    public List<EmbedFontInfo> getFontInfos() {
+        return fontInfos;
+    }
+
+    private boolean isFontFile(Path file)
+    {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+
+        return Files.isRegularFile(file) && FONT_EXTENSIONS.stream().anyMatch(name::endsWith);
+    }
+
+    private Stream<EmbedFontInfo> parseFont(URI fontUri, InternalResourceResolver resolver)
+    {
+        EmbedFontInfo[] infos = new FontInfoFinder().find(fontUri, resolver, null);
+
+        if (null == infos) {
+            logger.warn("Unable to load font {}", fontUri);
+            infos = new EmbedFontInfo[0];
+        }
+
+        return Arrays.stream(infos);
+    }
+}
@@ -0,0 +1,810 @@
+package com.rcs.pdf.memfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A file system held entirely in memory, so a small job's files never touch
+ * the disk. It supports what the rendering pipeline and the job directory
+ * housekeeping use: directories, files read and written through channels,
+ * copying, moving, deleting and the basic file attributes. There are no
+ * links, permissions or watches.
+ * <p>
+ * The memory the files may use is capped. A write which would take the
+ * file system past the cap moves the file being written to a file on disk,
+ * where it stays until it is deleted, so a job whose files turn out larger
+ * than expected carries on rather than failing. As on disk, a deleted
+ * file's name is removed straight away, but its contents are kept until
+ * the channels open on it are closed.
+ * <p>
+ * The structure is guarded by the file system's lock and each file's
+ * contents by the file's own lock, so jobs working in different
+ * directories only contend briefly when files are opened or deleted.
+ */
+public class MemoryFileSystem
+	extends FileSystem
+{
+	private static final String ROOT = "/";
+	private static final String SPILL_SUFFIX = ".spill";
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private final MemoryFileSystemProvider provider;
+	private final DirectoryNode root = new DirectoryNode();
+
+	// Bytes held in memory by all the files
+	private final AtomicLong usedBytes = new AtomicLong();
+
+	private volatile long maxBytes = Long.MAX_VALUE;
+	private volatile Path spillDir;
+
+	private abstract static class Node
+	{
+		private final FileTime creationTime = FileTime.fromMillis(System.currentTimeMillis());
+		private volatile FileTime lastModifiedTime = creationTime;
+
+		void touch() {
+			lastModifiedTime = FileTime.fromMillis(System.currentTimeMillis());
+		}
+	}
+
+	private static class DirectoryNode
+		extends Node
+	{
+		private final Map<String, Node> children = new TreeMap<>();
+	}
+
+	private static class FileNode
+		extends Node
+	{
+		private byte[] data = new byte[0];
+		private long length = 0;
+
+		// The file's contents once moved to disk, null while held in memory
+		private FileChannel spill;
+
+		private int openChannels = 0;
+		private boolean deleted = false;
+	}
+
+	/**
+	 * A snapshot of a file's attributes.
+	 */
+	private static class Attributes
+		implements BasicFileAttributes
+	{
+		private final Node node;
+		private final FileTime lastModifiedTime;
+		private final long size;
+
+		Attributes(Node node)
+		{
+			this.node = node;
+			this.lastModifiedTime = node.lastModifiedTime;
+
+			if (node instanceof FileNode file) {
+				synchronized (file) {
+					size = file.length;
+				}
+			}
+			else {
+				size = 0;
+			}
+		}
+
+		@Override
+		public FileTime lastModifiedTime() {
+			return lastModifiedTime;
+		}
+
+		@Override
+		public FileTime lastAccessTime() {
+			return lastModifiedTime;
+		}
+
+		@Override
+		public FileTime creationTime() {
+			return node.creationTime;
+		}
+
+		@Override
+		public boolean isRegularFile() {
+			return node instanceof FileNode;
+		}
+
+		@Override
+		public boolean isDirectory() {
+			return node instanceof DirectoryNode;
+		}
+
+		@Override
+		public boolean isSymbolicLink() {
+			return false;
+		}
+
+		@Override
+		public boolean isOther() {
+			return false;
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		public Object fileKey() {
+			return node;
+		}
+	}
+
+	/**
+	 * A channel reading and writing a file's contents in place.
+	 */
+	private class MemoryChannel
+		implements SeekableByteChannel
+	{
+		private final FileNode file;
+		private final boolean readable;
+		private final boolean writable;
+		private final boolean append;
+		private long position = 0;
+		private volatile boolean open = true;
+
+		MemoryChannel(FileNode file, boolean readable, boolean writable, boolean append)
+		{
+			this.file = file;
+			this.readable = readable;
+			this.writable = writable;
+			this.append = append;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException
+		{
+			checkOpen();
+			if (!readable) {
+				throw new NonReadableChannelException();
+			}
+
+			synchronized (file) {
+				if (position >= file.length) {
+					return -1;
+				}
+
+				if (null != file.spill) {
+					int len = file.spill.read(dst, position);
+
+					if (len > 0) {
+						position += len;
+					}
+
+					return len;
+				}
+
+				int len = (int)Math.min(dst.remaining(), file.length - position);
+				dst.put(file.data, (int)position, len);
+				position += len;
+
+				return len;
+			}
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException
+		{
+			checkOpen();
+			if (!writable) {
+				throw new NonWritableChannelException();
+			}
+
+			synchronized (file) {
+				if (append) {
+					position = file.length;
+				}
+
+				int len = src.remaining();
+
+				position = writeFile(file, position, src);
+
+				return len;
+			}
+		}
+
+		@Override
+		public long position() throws IOException {
+			checkOpen();
+			return position;
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) throws IOException
+		{
+			checkOpen();
+			if (newPosition < 0) {
+				throw new IllegalArgumentException("Negative position");
+			}
+
+			synchronized (file) {
+				position = newPosition;
+			}
+
+			return this;
+		}
+
+		@Override
+		public long size() throws IOException
+		{
+			checkOpen();
+
+			synchronized (file) {
+				return file.length;
+			}
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) throws IOException
+		{
+			checkOpen();
+			if (!writable) {
+				throw new NonWritableChannelException();
+			}
+
+			synchronized (file) {
+				truncateFile(file, size);
+
+				if (position > size) {
+					position = size;
+				}
+			}
+
+			return this;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			synchronized (file) {
+				if (open) {
+					open = false;
+					file.openChannels--;
+
+					if (file.deleted) {
+						releaseFile(file);
+					}
+					else if (writable && null == file.spill && file.data.length > file.length + (file.length >> 3)) {
+						// Release the space grown into but not written
+						file.data = Arrays.copyOf(file.data, (int)file.length);
+					}
+				}
+			}
+		}
+
+		private void checkOpen() throws ClosedChannelException {
+			if (!open) {
+				throw new ClosedChannelException();
+			}
+		}
+	}
+
+	MemoryFileSystem(MemoryFileSystemProvider provider)
+	{
+		this.provider = provider;
+	}
+
+	/**
+	 * @return The root directory, which jobs create their directories in.
+	 */
+	public Path getRoot() {
+		return new MemoryPath(this, ROOT);
+	}
+
+	/**
+	 * @return The number of bytes held in memory by the files in the file
+	 * 			system.
+	 */
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+
+	/**
+	 * Caps the memory the files may use.
+	 *
+	 * @param maxBytes The most bytes to hold in memory.
+	 * @param spillDir The directory files are moved to once the cap is
+	 * 			reached, or null to fail writes past the cap instead.
+	 */
+	public void setLimit(long maxBytes, Path spillDir)
+	{
+		this.maxBytes = maxBytes;
+		this.spillDir = spillDir;
+	}
+
+	@Override
+	public MemoryFileSystemProvider provider() {
+		return provider;
+	}
+
+	@Override
+	public void close() {
+		throw new UnsupportedOperationException("The memory file system can't be closed");
+	}
+
+	@Override
+	public boolean isOpen() {
+		return true;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	@Override
+	public String getSeparator() {
+		return ROOT;
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		return List.of(getRoot());
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		return List.of();
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		return Set.of("basic");
+	}
+
+	@Override
+	public Path getPath(String first, String... more)
+	{
+		StringBuilder path = new StringBuilder(first);
+
+		for (String name : more) {
+			path.append(ROOT).append(name);
+		}
+
+		return new MemoryPath(this, path.toString());
+	}
+
+	/**
+	 * Matches paths as the default file system would, as only their names
+	 * are compared.
+	 */
+	@Override
+	public PathMatcher getPathMatcher(String syntaxAndPattern)
+	{
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+
+		return path -> matcher.matches(FileSystems.getDefault().getPath(path.toString()));
+	}
+
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException("The memory file system has no users");
+	}
+
+	@Override
+	public WatchService newWatchService() {
+		throw new UnsupportedOperationException("Watching isn't supported");
+	}
+
+	/************************************************************************
+	 *	Operations used by the provider
+	 ***********************************************************************/
+	SeekableByteChannel newByteChannel(MemoryPath path, Set<? extends OpenOption> options) throws IOException
+	{
+		boolean append = options.contains(StandardOpenOption.APPEND);
+		boolean writable = append || options.contains(StandardOpenOption.WRITE);
+		boolean readable = !writable || options.contains(StandardOpenOption.READ);
+		FileNode file;
+
+		synchronized (this) {
+			DirectoryNode parent = getParentDirectory(path);
+			String name = getName(path);
+			Node node = parent.children.get(name);
+
+			if (null == node) {
+				if (!writable || !(options.contains(StandardOpenOption.CREATE) || options.contains(StandardOpenOption.CREATE_NEW))) {
+					throw new NoSuchFileException(path.toString());
+				}
+
+				node = new FileNode();
+				parent.children.put(name, node);
+				parent.touch();
+			}
+			else if (writable && options.contains(StandardOpenOption.CREATE_NEW)) {
+				throw new FileAlreadyExistsException(path.toString());
+			}
+
+			if (!(node instanceof FileNode fileNode)) {
+				throw new FileSystemException(path.toString(), null, "Is a directory");
+			}
+
+			file = fileNode;
+
+			synchronized (file) {
+				file.openChannels++;
+			}
+		}
+
+		if (writable && options.contains(StandardOpenOption.TRUNCATE_EXISTING) && !append) {
+			synchronized (file) {
+				truncateFile(file, 0);
+			}
+		}
+
+		return new MemoryChannel(file, readable, writable, append);
+	}
+
+	DirectoryStream<Path> newDirectoryStream(MemoryPath dir, DirectoryStream.Filter<? super Path> filter) throws IOException
+	{
+		List<Path> entries = new ArrayList<>();
+		List<String> names;
+
+		synchronized (this) {
+			if (!(getNode(dir) instanceof DirectoryNode directory)) {
+				throw new NotDirectoryException(dir.toString());
+			}
+
+			names = new ArrayList<>(directory.children.keySet());
+		}
+
+		for (String name : names) {
+			Path entry = dir.resolve(name);
+
+			if (null == filter || filter.accept(entry)) {
+				entries.add(entry);
+			}
+		}
+
+		return new DirectoryStream<Path>() {
+			private boolean iterated = false;
+
+			@Override
+			public Iterator<Path> iterator()
+			{
+				if (iterated) {
+					throw new IllegalStateException("Already iterated");
+				}
+				iterated = true;
+
+				return entries.iterator();
+			}
+
+			@Override
+			public void close() {
+				// Nothing to release, the entries are a snapshot
+			}
+		};
+	}
+
+	synchronized void createDirectory(MemoryPath dir) throws IOException
+	{
+		DirectoryNode parent = getParentDirectory(dir);
+		String name = getName(dir);
+
+		if (parent.children.containsKey(name)) {
+			throw new FileAlreadyExistsException(dir.toString());
+		}
+
+		parent.children.put(name, new DirectoryNode());
+		parent.touch();
+	}
+
+	synchronized void delete(MemoryPath path) throws IOException
+	{
+		DirectoryNode parent = getParentDirectory(path);
+		String name = getName(path);
+		Node node = parent.children.get(name);
+
+		if (null == node) {
+			throw new NoSuchFileException(path.toString());
+		}
+		if (node instanceof DirectoryNode directory && !directory.children.isEmpty()) {
+			throw new DirectoryNotEmptyException(path.toString());
+		}
+
+		parent.children.remove(name);
+		parent.touch();
+
+		if (node instanceof FileNode file) {
+			synchronized (file) {
+				// Channels already open keep reading and writing the contents until they're closed
+				file.deleted = true;
+
+				if (0 == file.openChannels) {
+					releaseFile(file);
+				}
+			}
+		}
+	}
+
+	synchronized void copy(MemoryPath source, MemoryPath target, boolean move, CopyOption... options) throws IOException
+	{
+		Node node = getNode(source);
+		DirectoryNode targetParent = getParentDirectory(target);
+		String targetName = getName(target);
+		Node existing = targetParent.children.get(targetName);
+
+		if (existing == node) {
+			return;
+		}
+
+		if (null != existing) {
+			if (!Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING)) {
+				throw new FileAlreadyExistsException(target.toString());
+			}
+			delete(target);
+		}
+
+		Node copy;
+
+		if (move) {
+			getParentDirectory(source).children.remove(getName(source));
+			copy = node;
+		}
+		else if (node instanceof FileNode file) {
+			FileNode fileCopy = new FileNode();
+
+			synchronized (file) {
+				if (null == file.spill) {
+					writeFile(fileCopy, 0, ByteBuffer.wrap(file.data, 0, (int)file.length));
+				}
+				else {
+					ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+
+					long position = 0;
+
+					while (position < file.length && file.spill.read(buffer, position) > 0) {
+						position = writeFile(fileCopy, position, buffer.flip());
+						buffer.clear();
+					}
+				}
+			}
+
+			copy = fileCopy;
+		}
+		else {
+			// As for other file systems, a directory is copied without its entries
+			copy = new DirectoryNode();
+		}
+
+		targetParent.children.put(targetName, copy);
+		targetParent.touch();
+	}
+
+	synchronized void checkAccess(MemoryPath path) throws IOException {
+		getNode(path);
+	}
+
+	synchronized BasicFileAttributes readAttributes(MemoryPath path) throws IOException {
+		return new Attributes(getNode(path));
+	}
+
+	synchronized void setLastModifiedTime(MemoryPath path, FileTime time) throws IOException {
+		getNode(path).lastModifiedTime = time;
+	}
+
+	/************************************************************************
+	 *	Private methods
+	 ***********************************************************************/
+	/**
+	 * Writes to a file, growing it if need be. The file is moved to disk
+	 * first if growing it in memory would take the file system past its
+	 * cap. The caller holds the file's lock.
+	 *
+	 * @return The position after the bytes written.
+	 */
+	private long writeFile(FileNode file, long position, ByteBuffer src) throws IOException
+	{
+		long end = position + src.remaining();
+
+		if (null == file.spill && end > file.length && !allocate(end - file.length, end)) {
+			spillFile(file);
+		}
+
+		if (null != file.spill) {
+			while (src.hasRemaining()) {
+				position += file.spill.write(src, position);
+			}
+		}
+		else {
+			if (end > file.data.length) {
+				file.data = Arrays.copyOf(file.data, (int)Math.max(end, Math.min(file.data.length * 2L, MAX_ARRAY_SIZE)));
+			}
+
+			src.get(file.data, (int)position, src.remaining());
+		}
+
+		file.length = Math.max(file.length, end);
+		file.touch();
+
+		return end;
+	}
+
+	/**
+	 * Takes bytes from the memory the files may use.
+	 *
+	 * @param bytes The number of bytes.
+	 * @param fileSize The size of the file the bytes are for.
+	 *
+	 * @return true if they were taken, false if the file system or the
+	 * 			file would be too large.
+	 */
+	private boolean allocate(long bytes, long fileSize)
+	{
+		if (fileSize > MAX_ARRAY_SIZE) {
+			return false;
+		}
+
+		long used;
+
+		do {
+			used = usedBytes.get();
+
+			if (used + bytes > maxBytes) {
+				return false;
+			}
+		} while (!usedBytes.compareAndSet(used, used + bytes));
+
+		return true;
+	}
+
+	/**
+	 * Moves a file's contents to disk, releasing the memory they held. The
+	 * caller holds the file's lock.
+	 */
+	private void spillFile(FileNode file) throws IOException
+	{
+		Path dir = spillDir;
+
+		if (null == dir) {
+			throw new IOException("Memory file system full");
+		}
+
+		Path spillPath = Files.createTempFile(Files.createDirectories(dir), "memfs", SPILL_SUFFIX);
+		FileChannel spill = FileChannel.open(spillPath, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+
+		try {
+			ByteBuffer contents = ByteBuffer.wrap(file.data, 0, (int)file.length);
+
+			while (contents.hasRemaining()) {
+				spill.write(contents, contents.position());
+			}
+		}
+		catch (IOException e) {
+			spill.close();
+			throw e;
+		}
+
+		usedBytes.addAndGet(-file.length);
+		file.spill = spill;
+		file.data = null;
+	}
+
+	/**
+	 * Releases a deleted file's contents, once no channels are open on it.
+	 * The caller holds the file's lock.
+	 */
+	private void releaseFile(FileNode file) throws IOException
+	{
+		if (null == file.spill) {
+			usedBytes.addAndGet(-file.length);
+		}
+		else {
+			file.spill.close();
+		}
+
+		file.data = null;
+		file.spill = null;
+		file.length = 0;
+	}
+
+	private void truncateFile(FileNode file, long size) throws IOException
+	{
+		if (size < file.length) {
+			if (null != file.spill) {
+				file.spill.truncate(size);
+			}
+			else {
+				usedBytes.addAndGet(size - file.length);
+
+				// Clear the truncated bytes so writing past the end reads back as zeros
+				Arrays.fill(file.data, (int)size, (int)file.length, (byte)0);
+				if (0 == size) {
+					file.data = new byte[0];
+				}
+			}
+
+			file.length = size;
+			file.touch();
+		}
+	}
+
+	private Node getNode(MemoryPath path) throws NoSuchFileException
+	{
+		Node node = root;
+
+		for (String name : resolve(path)) {
+			node = (node instanceof DirectoryNode directory) ? directory.children.get(name) : null;
+
+			if (null == node) {
+				throw new NoSuchFileException(path.toString());
+			}
+		}
+
+		return node;
+	}
+
+	private DirectoryNode getParentDirectory(MemoryPath path) throws IOException
+	{
+		String[] names = resolve(path);
+
+		if (0 == names.length) {
+			throw new FileSystemException(path.toString(), null, "Not valid for the root directory");
+		}
+
+		Path parent = new MemoryPath(this, ROOT + String.join(ROOT, Arrays.copyOf(names, names.length - 1)));
+
+		if (!(getNode(MemoryPath.from(parent)) instanceof DirectoryNode directory)) {
+			throw new NotDirectoryException(parent.toString());
+		}
+
+		return directory;
+	}
+
+	private String getName(MemoryPath path)
+	{
+		String[] names = resolve(path);
+
+		return names[names.length - 1];
+	}
+
+	private String[] resolve(MemoryPath path) {
+		return MemoryPath.from(path.toAbsolutePath().normalize()).getNames();
+	}
+}
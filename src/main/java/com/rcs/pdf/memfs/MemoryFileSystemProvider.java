@@ -0,0 +1,231 @@
+package com.rcs.pdf.memfs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Provides the single, process wide, {@link MemoryFileSystem}. Its paths
+ * have "memfs" URIs, which can be opened as URLs through the
+ * {@link MemoryUrlStreamHandlerProvider}, so FOP and Saxon can resolve
+ * relative references between the files of a job held in memory.
+ */
+public class MemoryFileSystemProvider
+	extends java.nio.file.spi.FileSystemProvider
+{
+	public static final String SCHEME = "memfs";
+
+	private static final MemoryFileSystem FILE_SYSTEM = new MemoryFileSystem(new MemoryFileSystemProvider());
+
+	/**
+	 * Only for the {@link java.util.ServiceLoader}, use
+	 * {@link #getMemoryFileSystem()} to get the file system.
+	 */
+	public MemoryFileSystemProvider() {
+		// Nothing to initialize, all instances share the one file system
+	}
+
+	/**
+	 * @return The memory file system.
+	 */
+	public static MemoryFileSystem getMemoryFileSystem() {
+		return FILE_SYSTEM;
+	}
+
+	@Override
+	public String getScheme() {
+		return SCHEME;
+	}
+
+	@Override
+	public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+		throw new FileSystemAlreadyExistsException(SCHEME);
+	}
+
+	@Override
+	public FileSystem getFileSystem(URI uri) {
+		return FILE_SYSTEM;
+	}
+
+	@Override
+	public Path getPath(URI uri)
+	{
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException("Not a " + SCHEME + " URI: " + uri);
+		}
+
+		return FILE_SYSTEM.getPath(uri.getPath());
+	}
+
+	@Override
+	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+		return FILE_SYSTEM.newByteChannel(MemoryPath.from(path), options);
+	}
+
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+		return FILE_SYSTEM.newDirectoryStream(MemoryPath.from(dir), filter);
+	}
+
+	@Override
+	public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+		FILE_SYSTEM.createDirectory(MemoryPath.from(dir));
+	}
+
+	@Override
+	public void delete(Path path) throws IOException {
+		FILE_SYSTEM.delete(MemoryPath.from(path));
+	}
+
+	@Override
+	public void copy(Path source, Path target, CopyOption... options) throws IOException {
+		FILE_SYSTEM.copy(MemoryPath.from(source), MemoryPath.from(target), false, options);
+	}
+
+	@Override
+	public void move(Path source, Path target, CopyOption... options) throws IOException {
+		FILE_SYSTEM.copy(MemoryPath.from(source), MemoryPath.from(target), true, options);
+	}
+
+	@Override
+	public boolean isSameFile(Path path, Path path2) throws IOException
+	{
+		if (path.equals(path2)) {
+			return true;
+		}
+		if (!(path2 instanceof MemoryPath)) {
+			return false;
+		}
+
+		return readAttributes(path, BasicFileAttributes.class).fileKey() == readAttributes(path2, BasicFileAttributes.class).fileKey();
+	}
+
+	@Override
+	public boolean isHidden(Path path) {
+		return false;
+	}
+
+	@Override
+	public FileStore getFileStore(Path path) {
+		throw new UnsupportedOperationException("The memory file system has no file stores");
+	}
+
+	/**
+	 * Checks the file exists, there are no permissions so any access is
+	 * allowed to a file that does.
+	 */
+	@Override
+	public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		FILE_SYSTEM.checkAccess(MemoryPath.from(path));
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options)
+	{
+		MemoryPath memoryPath = MemoryPath.from(path);
+
+		if (type != BasicFileAttributeView.class) {
+			return null;
+		}
+
+		return (V) new BasicFileAttributeView() {
+			@Override
+			public String name() {
+				return "basic";
+			}
+
+			@Override
+			public BasicFileAttributes readAttributes() throws IOException {
+				return FILE_SYSTEM.readAttributes(memoryPath);
+			}
+
+			@Override
+			public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) throws IOException {
+				if (null != lastModifiedTime) {
+					FILE_SYSTEM.setLastModifiedTime(memoryPath, lastModifiedTime);
+				}
+			}
+		};
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException
+	{
+		if (type != BasicFileAttributes.class) {
+			throw new UnsupportedOperationException("Only basic attributes are supported");
+		}
+
+		return (A) FILE_SYSTEM.readAttributes(MemoryPath.from(path));
+	}
+
+	@Override
+	public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException
+	{
+		BasicFileAttributes attrs = FILE_SYSTEM.readAttributes(MemoryPath.from(path));
+		Map<String, Object> values = new HashMap<>();
+		String names = attributes.startsWith("basic:") ? attributes.substring("basic:".length()) : attributes;
+
+		for (String name : names.split(",")) {
+			boolean all = "*".equals(name);
+
+			if (all || "size".equals(name)) {
+				values.put("size", attrs.size());
+			}
+			if (all || "lastModifiedTime".equals(name)) {
+				values.put("lastModifiedTime", attrs.lastModifiedTime());
+			}
+			if (all || "lastAccessTime".equals(name)) {
+				values.put("lastAccessTime", attrs.lastAccessTime());
+			}
+			if (all || "creationTime".equals(name)) {
+				values.put("creationTime", attrs.creationTime());
+			}
+			if (all || "isRegularFile".equals(name)) {
+				values.put("isRegularFile", attrs.isRegularFile());
+			}
+			if (all || "isDirectory".equals(name)) {
+				values.put("isDirectory", attrs.isDirectory());
+			}
+			if (all || "isSymbolicLink".equals(name)) {
+				values.put("isSymbolicLink", attrs.isSymbolicLink());
+			}
+			if (all || "isOther".equals(name)) {
+				values.put("isOther", attrs.isOther());
+			}
+			if (all || "fileKey".equals(name)) {
+				values.put("fileKey", attrs.fileKey());
+			}
+		}
+
+		return values;
+	}
+
+	@Override
+	public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException
+	{
+		if (!"lastModifiedTime".equals(attribute) && !"basic:lastModifiedTime".equals(attribute)) {
+			throw new UnsupportedOperationException("Can't set " + attribute);
+		}
+
+		FILE_SYSTEM.setLastModifiedTime(MemoryPath.from(path), (FileTime) value);
+	}
+}
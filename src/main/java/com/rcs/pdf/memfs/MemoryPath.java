@@ -0,0 +1,247 @@
+package com.rcs.pdf.memfs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A path in the {@link MemoryFileSystem}. Paths are '/' separated and the
+ * working directory, which relative paths are resolved against, is the
+ * root.
+ */
+final class MemoryPath
+	implements Path
+{
+	private static final String SEPARATOR = "/";
+
+	private final MemoryFileSystem fileSystem;
+	private final String path;
+	private final String[] names;
+
+	MemoryPath(MemoryFileSystem fileSystem, String path)
+	{
+		this.fileSystem = fileSystem;
+
+		boolean absolute = path.startsWith(SEPARATOR);
+
+		names = Arrays.stream(path.split(SEPARATOR)).filter(name -> !name.isEmpty()).toArray(String[]::new);
+		this.path = (absolute ? SEPARATOR : "") + String.join(SEPARATOR, names);
+	}
+
+	private MemoryPath(MemoryFileSystem fileSystem, boolean absolute, String[] names)
+	{
+		this.fileSystem = fileSystem;
+		this.names = names;
+		this.path = (absolute ? SEPARATOR : "") + String.join(SEPARATOR, names);
+	}
+
+	static MemoryPath from(Path path)
+	{
+		if (!(path instanceof MemoryPath memoryPath)) {
+			throw new ProviderMismatchException();
+		}
+
+		return memoryPath;
+	}
+
+	/**
+	 * @return The names of the path's elements, excluding the root.
+	 */
+	String[] getNames() {
+		return names;
+	}
+
+	@Override
+	public MemoryFileSystem getFileSystem() {
+		return fileSystem;
+	}
+
+	@Override
+	public boolean isAbsolute() {
+		return path.startsWith(SEPARATOR);
+	}
+
+	@Override
+	public Path getRoot() {
+		return isAbsolute() ? new MemoryPath(fileSystem, SEPARATOR) : null;
+	}
+
+	@Override
+	public Path getFileName() {
+		return (0 == names.length) ? null : new MemoryPath(fileSystem, false, new String[] { names[names.length - 1] });
+	}
+
+	@Override
+	public Path getParent()
+	{
+		if (0 == names.length || (1 == names.length && !isAbsolute())) {
+			return null;
+		}
+
+		return new MemoryPath(fileSystem, isAbsolute(), Arrays.copyOf(names, names.length - 1));
+	}
+
+	@Override
+	public int getNameCount() {
+		return names.length;
+	}
+
+	@Override
+	public Path getName(int index) {
+		return subpath(index, index + 1);
+	}
+
+	@Override
+	public Path subpath(int beginIndex, int endIndex)
+	{
+		if (beginIndex < 0 || endIndex > names.length || beginIndex >= endIndex) {
+			throw new IllegalArgumentException("Invalid subpath " + beginIndex + "-" + endIndex + " of " + path);
+		}
+
+		return new MemoryPath(fileSystem, false, Arrays.copyOfRange(names, beginIndex, endIndex));
+	}
+
+	@Override
+	public boolean startsWith(Path other)
+	{
+		if (!(other instanceof MemoryPath that) || isAbsolute() != that.isAbsolute() || that.names.length > names.length) {
+			return false;
+		}
+
+		return Arrays.equals(names, 0, that.names.length, that.names, 0, that.names.length);
+	}
+
+	@Override
+	public boolean endsWith(Path other)
+	{
+		if (!(other instanceof MemoryPath that) || that.names.length > names.length) {
+			return false;
+		}
+		if (that.isAbsolute()) {
+			return equals(that);
+		}
+
+		return Arrays.equals(names, names.length - that.names.length, names.length, that.names, 0, that.names.length);
+	}
+
+	@Override
+	public Path normalize()
+	{
+		Deque<String> normalized = new ArrayDeque<>();
+
+		for (String name : names) {
+			if ("..".equals(name)) {
+				if (!normalized.isEmpty() && !"..".equals(normalized.peekLast())) {
+					normalized.removeLast();
+				}
+				else if (!isAbsolute()) {
+					// Above the root of an absolute path is still the root, a relative path can start above its directory
+					normalized.addLast(name);
+				}
+			}
+			else if (!".".equals(name)) {
+				normalized.addLast(name);
+			}
+		}
+
+		return new MemoryPath(fileSystem, isAbsolute(), normalized.toArray(new String[0]));
+	}
+
+	@Override
+	public Path resolve(Path other)
+	{
+		MemoryPath that = from(other);
+
+		if (that.isAbsolute() || (0 == names.length && !isAbsolute())) {
+			return that;
+		}
+		if (0 == that.names.length) {
+			return this;
+		}
+
+		String[] resolved = Arrays.copyOf(names, names.length + that.names.length);
+		System.arraycopy(that.names, 0, resolved, names.length, that.names.length);
+
+		return new MemoryPath(fileSystem, isAbsolute(), resolved);
+	}
+
+	@Override
+	public Path relativize(Path other)
+	{
+		MemoryPath that = from(other);
+
+		if (isAbsolute() != that.isAbsolute()) {
+			throw new IllegalArgumentException("Can't relativize " + that + " against " + this);
+		}
+
+		int common = 0;
+		while (common < names.length && common < that.names.length && names[common].equals(that.names[common])) {
+			common++;
+		}
+
+		String[] relative = new String[names.length - common + that.names.length - common];
+		Arrays.fill(relative, 0, names.length - common, "..");
+		System.arraycopy(that.names, common, relative, names.length - common, that.names.length - common);
+
+		return new MemoryPath(fileSystem, false, relative);
+	}
+
+	@Override
+	public URI toUri()
+	{
+		try {
+			return new URI(MemoryFileSystemProvider.SCHEME, null, toAbsolutePath().toString(), null);
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public MemoryPath toAbsolutePath() {
+		return isAbsolute() ? this : new MemoryPath(fileSystem, true, names);
+	}
+
+	@Override
+	public Path toRealPath(LinkOption... options) throws IOException
+	{
+		Path realPath = toAbsolutePath().normalize();
+
+		fileSystem.provider().checkAccess(realPath);
+
+		return realPath;
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+		throw new UnsupportedOperationException("Watching isn't supported");
+	}
+
+	@Override
+	public int compareTo(Path other) {
+		return path.compareTo(from(other).path);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof MemoryPath that && fileSystem == that.fileSystem && path.equals(that.path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
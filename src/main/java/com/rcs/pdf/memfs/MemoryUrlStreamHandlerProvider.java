@@ -0,0 +1,96 @@
+package com.rcs.pdf.memfs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.spi.URLStreamHandlerProvider;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Opens "memfs" URLs, so the files of a job held in memory can be read by
+ * anything resolving references as URLs, such as FOP's default resource
+ * resolver and Saxon's xsl:include.
+ */
+public class MemoryUrlStreamHandlerProvider
+	extends URLStreamHandlerProvider
+{
+	private static class MemoryUrlConnection
+		extends URLConnection
+	{
+		private Path path;
+
+		MemoryUrlConnection(URL url) {
+			super(url);
+		}
+
+		@Override
+		public void connect() throws IOException
+		{
+			if (!connected) {
+				try {
+					path = MemoryFileSystemProvider.getMemoryFileSystem().provider().getPath(url.toURI());
+				} catch (URISyntaxException e) {
+					throw new IOException("Invalid URL: " + url, e);
+				}
+
+				if (!Files.exists(path)) {
+					throw new FileNotFoundException(url.toString());
+				}
+
+				connected = true;
+			}
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException
+		{
+			connect();
+
+			try {
+				return Files.newInputStream(path);
+			} catch (NoSuchFileException e) {
+				throw new FileNotFoundException(url.toString());
+			}
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException
+		{
+			connect();
+
+			return Files.newOutputStream(path);
+		}
+
+		@Override
+		public long getContentLengthLong()
+		{
+			try {
+				connect();
+				return Files.size(path);
+			} catch (IOException e) {
+				return -1;
+			}
+		}
+	}
+
+	private static class MemoryUrlStreamHandler
+		extends URLStreamHandler
+	{
+		@Override
+		protected URLConnection openConnection(URL url) {
+			return new MemoryUrlConnection(url);
+		}
+	}
+
+	@Override
+	public URLStreamHandler createURLStreamHandler(String protocol) {
+		return MemoryFileSystemProvider.SCHEME.equals(protocol) ? new MemoryUrlStreamHandler() : null;
+	}
+}
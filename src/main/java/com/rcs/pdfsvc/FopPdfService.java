@@ -12,19 +12,27 @@ import java.util.EnumSet;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import org.apache.logging.log4j.core.lookup.MainMapLookup;
 import org.glassfish.grizzly.GrizzlyFuture;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
 import com.rcs.FileCleanupManager;
 import com.rcs.pdf.PDFGenerator;
+import com.rcs.pdf.StylesheetRegistry;
+import com.rcs.pdf.fop.FontRepository;
+import com.rcs.pdf.memfs.MemoryFileSystemProvider;
 import com.rcs.pdfsvc.config.AppProperties;
 import com.rcs.pdfsvc.config.AppResourceConfig;
+import com.rcs.pdfsvc.job.PdfJobProcessor;
 
 public class FopPdfService {
+	private static final String STYLESHEET_DIR = "stylesheets";
+	private static final String FONT_CACHE_FILE = "fop-fonts.cache";
 
     static HttpServer server;
 	static ScheduledExecutorService scheduler;
@@ -46,6 +54,10 @@ public class FopPdfService {
 	    MainMapLookup.setMainArguments("logdir", props.getLogDir().toString());
 	    
 	    Files.createDirectories(props.getWorkDir());
+	    Path uploadDir = Files.createDirectories(props.getWorkDir().resolve(AppResourceConfig.UPLOAD_DIR));
+
+	    // Job directories held in memory move files to the uploads directory once they've used their share
+	    MemoryFileSystemProvider.getMemoryFileSystem().setLimit(props.getMemoryWorkspaceMaxSize() * 1024L * 1024L, uploadDir);
 	    
 		scheduler = Executors.newSingleThreadScheduledExecutor();
 
@@ -76,23 +88,59 @@ public class FopPdfService {
 					}
 	    		});
 
+	    /*
+	     * Likewise any uploads left buffered by a previous run, allowing
+	     * plenty of time for an upload in progress in another instance.
+	     */
+	    try (Stream<Path> uploads = Files.list(uploadDir)) {
+	    	uploads.forEach(file -> FileCleanupManager.getInstance().addEntry(file, 15, TimeUnit.MINUTES));
+	    }
+
 	    FileCleanupManager.getInstance().initializeSchedule(scheduler);
 
         // create a resource config that scans for JAX-RS resources and providers
         // in com.example package
         final ResourceConfig rc = new AppResourceConfig(props);
         
+        // Parse the fonts installed on the server before any requests need them
+        if (null != props.getFontDir()) {
+        	FontRepository.getInstance().load(props.getFontDir(), props.getWorkDir().resolve(FONT_CACHE_FILE));
+        }
+
         // Kickstart the PDF Generator
-        PDFGenerator.getInstance();
+        PDFGenerator.getInstance(props);
+
+        // Load any results cached previously
+        PdfJobProcessor.getInstance(props);
+
+        // Load and compile any stylesheets registered previously
+        StylesheetRegistry.getInstance().load(props.getWorkDir().resolve(STYLESHEET_DIR));
 
         // create and start a new instance of grizzly http server
         // exposing the Jersey application at BASE_URI
-        server = GrizzlyHttpServerFactory.createHttpServer((URI)rc.getProperty(AppResourceConfig.BASE_URI), rc);
+        server = GrizzlyHttpServerFactory.createHttpServer((URI)rc.getProperty(AppResourceConfig.BASE_URI), rc, false);
+
+        if (props.isUseVirtualThreads()) {
+        	/*
+        	 * Handle each request on its own virtual thread, so thousands of
+        	 * slow uploads or downloads don't need thousands of platform
+        	 * threads. The rendering itself is still done on the limited
+        	 * pool of platform render threads.
+        	 */
+        	for (NetworkListener listener : server.getListeners()) {
+        		listener.getTransport().setWorkerThreadPool(Executors.newThreadPerTaskExecutor(
+        				Thread.ofVirtual().name("http-worker-", 0).factory()));
+        	}
+        }
+
+        server.start();
         
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down server");		// NOSONAR - No logger available at this point
 
                 scheduler.shutdown();
+
+                PdfJobProcessor.getInstance().shutdown();
                 
                 if (null != server) {
 	                GrizzlyFuture<HttpServer> future = server.shutdown();
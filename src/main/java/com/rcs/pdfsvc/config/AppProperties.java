@@ -18,6 +18,8 @@ import java.util.Properties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.rcs.pdfsvc.job.OptimizationLevel;
+
 
 public class AppProperties
 {
@@ -28,15 +30,112 @@ public class AppProperties
 	public static final String APP_URL = "FopPdfSvc-AppUrl";
 	public static final String LOGDIR = "FopPdfSvc-LogDir";
 	public static final String WORKDIR = "FopPdfSvc-WorkDir";
-	
+	public static final String TEMPLATES_CACHE_SIZE = "FopPdfSvc-TemplatesCacheSize";
+	public static final String FONT_CACHE_SIZE = "FopPdfSvc-FontCacheSize";
+	public static final String FONTDIR = "FopPdfSvc-FontDir";
+	public static final String IMAGE_CACHE_SIZE = "FopPdfSvc-ImageCacheSize";
+	public static final String RESULT_CACHE_SIZE = "FopPdfSvc-ResultCacheSizeMB";
+	public static final String STAGE_CACHE_SIZE = "FopPdfSvc-StageCacheSizeMB";
+	public static final String ASSET_STORE_SIZE = "FopPdfSvc-AssetStoreSizeMB";
+	public static final String OPTIMIZATION_LEVEL = "FopPdfSvc-OptimizationLevel";
+	public static final String RENDER_THREADS = "FopPdfSvc-RenderThreads";
+	public static final String RENDER_QUEUE_SIZE = "FopPdfSvc-RenderQueueSize";
+	public static final String VIRTUAL_THREADS = "FopPdfSvc-VirtualThreads";
+	public static final String CLIENT_WEIGHTS = "FopPdfSvc-ClientWeights";
+	public static final String CLIENT_MAX_RENDERS = "FopPdfSvc-ClientMaxRenders";
+	public static final String FAST_LANE_THREADS = "FopPdfSvc-FastLaneThreads";
+	public static final String FAST_LANE_MAX_INPUT_SIZE = "FopPdfSvc-FastLaneMaxInputKB";
+	public static final String FAST_LANE_MAX_PAGE_SEQUENCES = "FopPdfSvc-FastLaneMaxPageSequences";
+	public static final String FAST_LANE_MAX_RENDER_TIME = "FopPdfSvc-FastLaneMaxRenderMillis";
+	public static final String MAX_RENDER_TIME = "FopPdfSvc-MaxRenderSeconds";
+	public static final String UPLOAD_MEMORY_THRESHOLD = "FopPdfSvc-UploadMemoryThresholdKB";
+	public static final String MAX_UPLOAD_PART_SIZE = "FopPdfSvc-MaxUploadPartMB";
+	public static final String MAX_UPLOAD_SIZE = "FopPdfSvc-MaxUploadMB";
+	public static final String MEMORY_WORKSPACE_MAX_JOB_SIZE = "FopPdfSvc-MemoryWorkspaceMaxJobKB";
+	public static final String MEMORY_WORKSPACE_MAX_SIZE = "FopPdfSvc-MemoryWorkspaceMaxMB";
+
+	public static final int DEFAULT_TEMPLATES_CACHE_SIZE = 32;
+	public static final int DEFAULT_FONT_CACHE_SIZE = 256;
+	public static final int DEFAULT_IMAGE_CACHE_SIZE = 1024;
+	public static final int DEFAULT_RESULT_CACHE_SIZE = 0;
+	public static final int DEFAULT_STAGE_CACHE_SIZE = 0;
+	public static final int DEFAULT_ASSET_STORE_SIZE = 1024;
+	public static final OptimizationLevel DEFAULT_OPTIMIZATION_LEVEL = OptimizationLevel.SMART;
+	public static final int DEFAULT_RENDER_THREADS = 0;
+	public static final int DEFAULT_RENDER_QUEUE_SIZE = 64;
+	public static final boolean DEFAULT_VIRTUAL_THREADS = false;
+	public static final int DEFAULT_CLIENT_MAX_RENDERS = 0;
+	public static final int DEFAULT_FAST_LANE_THREADS = 1;
+	public static final int DEFAULT_FAST_LANE_MAX_INPUT_SIZE = 256;
+	public static final int DEFAULT_FAST_LANE_MAX_PAGE_SEQUENCES = 4;
+	public static final int DEFAULT_FAST_LANE_MAX_RENDER_TIME = 2000;
+	public static final int DEFAULT_MAX_RENDER_TIME = 120;
+	public static final int DEFAULT_UPLOAD_MEMORY_THRESHOLD = 64;
+	public static final int DEFAULT_MAX_UPLOAD_PART_SIZE = 64;
+	public static final int DEFAULT_MAX_UPLOAD_SIZE = 256;
+	public static final int DEFAULT_MEMORY_WORKSPACE_MAX_JOB_SIZE = 2048;
+	public static final int DEFAULT_MEMORY_WORKSPACE_MAX_SIZE = 256;
+
 	private static final List<String> knownProperties = Arrays.asList(
 			USE_SSL,
 			HOSTNAME,
 			PORT,
 			APP_URL,
 			LOGDIR,
-			WORKDIR
+			WORKDIR,
+			TEMPLATES_CACHE_SIZE,
+			FONT_CACHE_SIZE,
+			FONTDIR,
+			IMAGE_CACHE_SIZE,
+			RESULT_CACHE_SIZE,
+			STAGE_CACHE_SIZE,
+			ASSET_STORE_SIZE,
+			OPTIMIZATION_LEVEL,
+			RENDER_THREADS,
+			RENDER_QUEUE_SIZE,
+			VIRTUAL_THREADS,
+			CLIENT_WEIGHTS,
+			CLIENT_MAX_RENDERS,
+			FAST_LANE_THREADS,
+			FAST_LANE_MAX_INPUT_SIZE,
+			FAST_LANE_MAX_PAGE_SEQUENCES,
+			FAST_LANE_MAX_RENDER_TIME,
+			MAX_RENDER_TIME,
+			UPLOAD_MEMORY_THRESHOLD,
+			MAX_UPLOAD_PART_SIZE,
+			MAX_UPLOAD_SIZE,
+			MEMORY_WORKSPACE_MAX_JOB_SIZE,
+			MEMORY_WORKSPACE_MAX_SIZE
 			); 
+
+	/*
+	 * Values used for optional properties which aren't specified in the
+	 * properties file, system properties or the environment.
+	 */
+	private static final Map<String,String> defaultValues = Map.ofEntries(
+			Map.entry(TEMPLATES_CACHE_SIZE, Integer.toString(DEFAULT_TEMPLATES_CACHE_SIZE)),
+			Map.entry(FONT_CACHE_SIZE, Integer.toString(DEFAULT_FONT_CACHE_SIZE)),
+			Map.entry(IMAGE_CACHE_SIZE, Integer.toString(DEFAULT_IMAGE_CACHE_SIZE)),
+			Map.entry(RESULT_CACHE_SIZE, Integer.toString(DEFAULT_RESULT_CACHE_SIZE)),
+			Map.entry(STAGE_CACHE_SIZE, Integer.toString(DEFAULT_STAGE_CACHE_SIZE)),
+			Map.entry(ASSET_STORE_SIZE, Integer.toString(DEFAULT_ASSET_STORE_SIZE)),
+			Map.entry(OPTIMIZATION_LEVEL, DEFAULT_OPTIMIZATION_LEVEL.name()),
+			Map.entry(RENDER_THREADS, Integer.toString(DEFAULT_RENDER_THREADS)),
+			Map.entry(RENDER_QUEUE_SIZE, Integer.toString(DEFAULT_RENDER_QUEUE_SIZE)),
+			Map.entry(VIRTUAL_THREADS, Boolean.toString(DEFAULT_VIRTUAL_THREADS)),
+			Map.entry(CLIENT_WEIGHTS, ""),
+			Map.entry(CLIENT_MAX_RENDERS, Integer.toString(DEFAULT_CLIENT_MAX_RENDERS)),
+			Map.entry(FAST_LANE_THREADS, Integer.toString(DEFAULT_FAST_LANE_THREADS)),
+			Map.entry(FAST_LANE_MAX_INPUT_SIZE, Integer.toString(DEFAULT_FAST_LANE_MAX_INPUT_SIZE)),
+			Map.entry(FAST_LANE_MAX_PAGE_SEQUENCES, Integer.toString(DEFAULT_FAST_LANE_MAX_PAGE_SEQUENCES)),
+			Map.entry(FAST_LANE_MAX_RENDER_TIME, Integer.toString(DEFAULT_FAST_LANE_MAX_RENDER_TIME)),
+			Map.entry(MAX_RENDER_TIME, Integer.toString(DEFAULT_MAX_RENDER_TIME)),
+			Map.entry(UPLOAD_MEMORY_THRESHOLD, Integer.toString(DEFAULT_UPLOAD_MEMORY_THRESHOLD)),
+			Map.entry(MAX_UPLOAD_PART_SIZE, Integer.toString(DEFAULT_MAX_UPLOAD_PART_SIZE)),
+			Map.entry(MAX_UPLOAD_SIZE, Integer.toString(DEFAULT_MAX_UPLOAD_SIZE)),
+			Map.entry(MEMORY_WORKSPACE_MAX_JOB_SIZE, Integer.toString(DEFAULT_MEMORY_WORKSPACE_MAX_JOB_SIZE)),
+			Map.entry(MEMORY_WORKSPACE_MAX_SIZE, Integer.toString(DEFAULT_MEMORY_WORKSPACE_MAX_SIZE))
+			);
 	
 	private Map<String,Object> properties = new HashMap<>();
 	
@@ -82,7 +181,7 @@ public class AppProperties
 							fileProps.put(prop, propStr);
 						}
 					}
-					initializeProperty(prop, fileProps.getProperty(prop));
+					initializeProperty(prop, fileProps.getProperty(prop, defaultValues.get(prop)));
 				});
 			}
 			else {
@@ -97,8 +196,8 @@ public class AppProperties
 	private void initializeProperty(String prop, String value)
 	{
 		switch (prop) {
-			case USE_SSL:
-				initializeSSL(prop, value);
+			case USE_SSL, VIRTUAL_THREADS:
+				initializeFlag(prop, value);
 				break;
 				
 			case HOSTNAME:
@@ -116,13 +215,34 @@ public class AppProperties
 			case LOGDIR, WORKDIR:
 				initializeDir(prop, value);
 				break;
+
+			case TEMPLATES_CACHE_SIZE, FONT_CACHE_SIZE, IMAGE_CACHE_SIZE, RESULT_CACHE_SIZE, STAGE_CACHE_SIZE, ASSET_STORE_SIZE, RENDER_THREADS, RENDER_QUEUE_SIZE, CLIENT_MAX_RENDERS,
+				FAST_LANE_THREADS, FAST_LANE_MAX_INPUT_SIZE, FAST_LANE_MAX_PAGE_SEQUENCES, FAST_LANE_MAX_RENDER_TIME, MAX_RENDER_TIME,
+				UPLOAD_MEMORY_THRESHOLD, MAX_UPLOAD_PART_SIZE, MAX_UPLOAD_SIZE, MEMORY_WORKSPACE_MAX_JOB_SIZE, MEMORY_WORKSPACE_MAX_SIZE:
+				initializeCount(prop, value);
+				break;
+
+			case OPTIMIZATION_LEVEL:
+				initializeOptimizationLevel(prop, value);
+				break;
+
+			case CLIENT_WEIGHTS:
+				initializeClientWeights(prop, value);
+				break;
+
+			case FONTDIR:
+				// Optional, no font directory is used when it isn't specified
+				if (null != value && !value.trim().isEmpty()) {
+					initializeDir(prop, value);
+				}
+				break;
 				
 			default:
 				throw new IllegalArgumentException("Unrecognized property: " + prop + " : " + value);
 		}
 	}
 
-	private void initializeSSL(final String prop, final String value) {
+	private void initializeFlag(final String prop, final String value) {
 		switch (value.trim().toLowerCase()) {
 			case "0", "no", "false":
 				properties.put(prop, Boolean.FALSE);
@@ -220,6 +340,71 @@ public class AppProperties
 		}
 	}
 
+	private void initializeCount(final String prop, final String value) {
+		Integer count = null;
+
+		try {
+			if (null != value && !value.trim().isEmpty()) {
+				int intCount = Integer.parseInt(value.trim());
+
+				if (intCount >= 0) {
+					count = Integer.valueOf(intCount);
+				}
+			}
+		}
+		catch (NumberFormatException e) {
+			// Just return null
+		}
+
+		if (null == count) {
+			throw new IllegalArgumentException("Invalid value specified for " + prop + " : " + value);
+		}
+		else {
+			properties.put(prop, count);
+		}
+	}
+
+	private void initializeOptimizationLevel(final String prop, final String value) {
+		try {
+			properties.put(prop, OptimizationLevel.parse(value));
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid value specified for " + prop + " : " + value);
+		}
+	}
+
+	/*
+	 * The weights are a comma separated list of client=weight pairs, with
+	 * clients identified by their address, e.g. "10.0.0.5=4,10.0.0.6=1".
+	 */
+	private void initializeClientWeights(final String prop, final String value) {
+		Map<String, Integer> weights = new HashMap<>();
+
+		if (null != value && !value.trim().isEmpty()) {
+			for (String entry : value.split(",")) {
+				String[] pair = entry.split("=");
+				Integer weight = null;
+
+				try {
+					if (2 == pair.length && !pair[0].trim().isEmpty()) {
+						weight = Integer.valueOf(pair[1].trim());
+					}
+				}
+				catch (NumberFormatException e) {
+					// Just leave it null
+				}
+
+				if (null == weight || weight < 1) {
+					throw new IllegalArgumentException("Invalid value specified for " + prop + " : " + value);
+				}
+
+				weights.put(pair[0].trim(), weight);
+			}
+		}
+
+		properties.put(prop, Map.copyOf(weights));
+	}
+
 	/*
 	 * We use a method instead of a member variable because logging can't be
 	 * initialized until after the properties have been loaded.
@@ -268,6 +453,198 @@ public class AppProperties
 		return (Path)properties.get(LOGDIR);
 	}
 
+	/**
+	 * @return The directory of fonts available to all requests, or null if
+	 * 			there isn't one.
+	 */
+	public Path getFontDir() {
+		return (Path)properties.get(FONTDIR);
+	}
+
+	/**
+	 * @return The maximum number of compiled stylesheets to cache, 0 if
+	 * 			caching is disabled.
+	 */
+	public int getTemplatesCacheSize() {
+		return (Integer)properties.get(TEMPLATES_CACHE_SIZE);
+	}
+
+	/**
+	 * @return The maximum number of parsed fonts to cache, 0 if caching is
+	 * 			disabled.
+	 */
+	public int getFontCacheSize() {
+		return (Integer)properties.get(FONT_CACHE_SIZE);
+	}
+
+	/**
+	 * @return The maximum number of distinct images, by content, to track
+	 * 			for reuse across requests.
+	 */
+	public int getImageCacheSize() {
+		return (Integer)properties.get(IMAGE_CACHE_SIZE);
+	}
+
+	/**
+	 * @return The maximum size, in megabytes, of the generated PDFs to cache
+	 * 			on disk, 0 if caching is disabled.
+	 */
+	public int getResultCacheSize() {
+		return (Integer)properties.get(RESULT_CACHE_SIZE);
+	}
+
+	/**
+	 * @return The maximum size, in megabytes, of each of the caches of
+	 * 			generated FO and laid out IF documents, 0 if staged caching
+	 * 			is disabled.
+	 */
+	public int getStageCacheSize() {
+		return (Integer)properties.get(STAGE_CACHE_SIZE);
+	}
+
+	/**
+	 * @return The maximum size, in megabytes, of the files clients can
+	 * 			reference by digest instead of uploading, 0 if the asset
+	 * 			store is disabled.
+	 */
+	public int getAssetStoreSize() {
+		return (Integer)properties.get(ASSET_STORE_SIZE);
+	}
+
+	/**
+	 * @return The optimization level used when a request doesn't specify
+	 * 			one.
+	 */
+	public OptimizationLevel getOptimizationLevel() {
+		return (OptimizationLevel)properties.get(OPTIMIZATION_LEVEL);
+	}
+
+	/**
+	 * @return The number of PDFs to render concurrently, 0 to use one
+	 * 			thread per available processor.
+	 */
+	public int getRenderThreads() {
+		return (Integer)properties.get(RENDER_THREADS);
+	}
+
+	/**
+	 * @return The maximum number of jobs waiting for a render thread. Jobs
+	 * 			submitted once the queue is full are rejected.
+	 */
+	public int getRenderQueueSize() {
+		return (Integer)properties.get(RENDER_QUEUE_SIZE);
+	}
+
+	/**
+	 * @return true if HTTP requests are handled on virtual threads, so
+	 * 			requests blocked on slow clients or I/O don't each tie up a
+	 * 			platform thread. Rendering is still limited to the render
+	 * 			threads.
+	 */
+	public boolean isUseVirtualThreads() {
+		return (Boolean)properties.get(VIRTUAL_THREADS);
+	}
+
+	/**
+	 * @return The weight of each client's share of the render threads and
+	 * 			the render queue, by client address. Clients which aren't
+	 * 			listed have a weight of 1.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Integer> getClientWeights() {
+		return (Map<String, Integer>)properties.get(CLIENT_WEIGHTS);
+	}
+
+	/**
+	 * @return The most PDFs rendered at once for any one client, 0 for no
+	 * 			limit other than the number of render threads.
+	 */
+	public int getClientMaxRenders() {
+		return (Integer)properties.get(CLIENT_MAX_RENDERS);
+	}
+
+	/**
+	 * @return The number of render threads reserved for jobs in the fast
+	 * 			lane, which jobs in the bulk lane can't use.
+	 */
+	public int getFastLaneThreads() {
+		return (Integer)properties.get(FAST_LANE_THREADS);
+	}
+
+	/**
+	 * @return The largest input, in KB, of a job in the fast lane.
+	 */
+	public int getFastLaneMaxInputSize() {
+		return (Integer)properties.get(FAST_LANE_MAX_INPUT_SIZE);
+	}
+
+	/**
+	 * @return The most page sequences in the FO of a job in the fast lane.
+	 */
+	public int getFastLaneMaxPageSequences() {
+		return (Integer)properties.get(FAST_LANE_MAX_PAGE_SEQUENCES);
+	}
+
+	/**
+	 * @return The longest predicted render time, in milliseconds, of a job
+	 * 			in the fast lane.
+	 */
+	public int getFastLaneMaxRenderTime() {
+		return (Integer)properties.get(FAST_LANE_MAX_RENDER_TIME);
+	}
+
+	/**
+	 * @return The longest time, in seconds, a request can take to render,
+	 * 			including the time waiting for a render thread, 0 for no
+	 * 			limit. A request can ask for a shorter time.
+	 */
+	public int getMaxRenderTime() {
+		return (Integer)properties.get(MAX_RENDER_TIME);
+	}
+
+	/**
+	 * @return The size, in KB, up to which an uploaded file is held in
+	 * 			memory until it is saved to the job directory. Larger files
+	 * 			are buffered in the upload directory.
+	 */
+	public int getUploadMemoryThreshold() {
+		return (Integer)properties.get(UPLOAD_MEMORY_THRESHOLD);
+	}
+
+	/**
+	 * @return The largest file, in megabytes, which can be uploaded, 0 for
+	 * 			no limit.
+	 */
+	public int getMaxUploadPartSize() {
+		return (Integer)properties.get(MAX_UPLOAD_PART_SIZE);
+	}
+
+	/**
+	 * @return The largest multipart request, in megabytes, 0 for no limit.
+	 */
+	public int getMaxUploadSize() {
+		return (Integer)properties.get(MAX_UPLOAD_SIZE);
+	}
+
+	/**
+	 * @return The largest request, in KB, whose job directory is held in
+	 * 			memory rather than in the work directory, 0 to always use
+	 * 			the work directory.
+	 */
+	public int getMemoryWorkspaceMaxJobSize() {
+		return (Integer)properties.get(MEMORY_WORKSPACE_MAX_JOB_SIZE);
+	}
+
+	/**
+	 * @return The most memory, in megabytes, used by job directories held
+	 * 			in memory. Jobs arriving once it is used get a job directory
+	 * 			in the work directory, and files written beyond it by jobs
+	 * 			already in memory are moved to disk.
+	 */
+	public int getMemoryWorkspaceMaxSize() {
+		return (Integer)properties.get(MEMORY_WORKSPACE_MAX_SIZE);
+	}
+
 	public URI getBaseUri() {
 		URI uri = null;
 
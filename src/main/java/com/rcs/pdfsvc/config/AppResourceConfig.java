@@ -5,10 +5,13 @@ import java.util.logging.Logger;
 
 import org.glassfish.jersey.logging.LoggingFeature;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
+import org.glassfish.jersey.media.multipart.MultiPartProperties;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.server.ServerProperties;
 
 import com.rcs.monitor.FopPdfAppEventListener;
+import com.rcs.pdfsvc.resource.UploadLimitFilter;
+
 import jakarta.ws.rs.ApplicationPath;
 
 @ApplicationPath("/")
@@ -17,6 +20,13 @@ public class AppResourceConfig
 {
     public static final String BASE_URI = "BaseUri";
     public static final String WORK_DIR = "WorkDir";
+    public static final String MAX_UPLOAD_PART_SIZE = "MaxUploadPartSize";
+    public static final String MAX_UPLOAD_SIZE = "MaxUploadSize";
+    public static final String MEMORY_WORKSPACE_MAX_JOB_SIZE = "MemoryWorkspaceMaxJobSize";
+    public static final String MEMORY_WORKSPACE_MAX_SIZE = "MemoryWorkspaceMaxSize";
+
+    // Directory in the work directory where uploads too large to keep in memory are buffered
+    public static final String UPLOAD_DIR = "uploads";
 
 	
 	public AppResourceConfig(AppProperties props)
@@ -30,9 +40,24 @@ public class AppResourceConfig
 				Level.INFO, LoggingFeature.Verbosity.PAYLOAD_ANY, 10000));
 		register(MultiPartFeature.class);
 
+		/*
+		 * Buffer large uploads on the same file system as the job
+		 * directories, so saving one to its job directory is a rename
+		 * rather than a second copy.
+		 */
+		register(new MultiPartProperties()
+				.bufferThreshold(props.getUploadMemoryThreshold() * 1024)
+				.tempDir(props.getWorkDir().resolve(UPLOAD_DIR).toString())
+				.resolver());
+		register(new UploadLimitFilter(props.getMaxUploadSize() * 1024L * 1024L));
+
 		this.property(ServerProperties.WADL_FEATURE_DISABLE, true);
 
 		this.property(BASE_URI, props.getBaseUri());
 		this.property(WORK_DIR, props.getWorkDir());
+		this.property(MAX_UPLOAD_PART_SIZE, props.getMaxUploadPartSize() * 1024L * 1024L);
+		this.property(MAX_UPLOAD_SIZE, props.getMaxUploadSize() * 1024L * 1024L);
+		this.property(MEMORY_WORKSPACE_MAX_JOB_SIZE, props.getMemoryWorkspaceMaxJobSize() * 1024L);
+		this.property(MEMORY_WORKSPACE_MAX_SIZE, props.getMemoryWorkspaceMaxSize() * 1024L * 1024L);
 	}
 }
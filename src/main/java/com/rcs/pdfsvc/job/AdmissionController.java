@@ -0,0 +1,594 @@
+package com.rcs.pdfsvc.job;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Limits the number of PDFs rendered at once, adapting the limit to how
+ * the service is coping, and turns away jobs once too many are waiting or
+ * the heap has no room for them. The waiting jobs are limited per client,
+ * each client being allowed its weighted share of the queue, so one client
+ * filling the queue doesn't shut out the others.
+ * <p>
+ * The limit starts at the maximum and is cut back, multiplicatively, when
+ * the heap is nearly full after a render or renders become much slower
+ * than usual. It grows back, one at a time, while every slot is in use
+ * and renders are coping. Each job's memory use is estimated from the size
+ * of its input, including its files if its job directory is held in
+ * memory, and reserved while it is admitted, so a burst of large documents
+ * is rejected rather than running the heap out of memory.
+ * <p>
+ * The heap is judged by how full its tenured pools were after the last
+ * collection, rather than by the memory in use, which includes garbage
+ * not yet collected and so swings with the collector's timing rather than
+ * the memory the renders need.
+ * <p>
+ * Free render slots are shared between clients by weighted fair queuing:
+ * each client's share of the slots is in proportion to its weight, however
+ * many jobs it has queued, so a client submitting a large batch can't
+ * starve the others. A client can also be limited to a maximum number of
+ * concurrent renders.
+ * <p>
+ * Some of the slots can be reserved for jobs in the {@link Lane#FAST fast
+ * lane}, so however many bulk jobs are rendering a small job only waits
+ * for other small jobs.
+ */
+public class AdmissionController
+{
+	// Rough expansion of the input into FOP's area tree, plus a fixed overhead per job
+	private static final long MEMORY_PER_INPUT_BYTE = 20;
+	private static final long MEMORY_PER_JOB = 8L * 1024 * 1024;
+
+	// A job's files held in memory, as well as the PDFs rendered from them
+	private static final long WORKSPACE_PER_INPUT_BYTE = 3;
+
+	// Fraction of the heap reserved for a job whose input size isn't known, such as a chunked upload
+	private static final double UNKNOWN_SIZE_HEAP_FRACTION = 0.25;
+
+	// Fraction of the heap live after the last collection above which the limit is cut
+	private static final double HEAP_HIGH_WATER = 0.85;
+
+	// How much slower than the long term average renders can get before the limit is cut
+	private static final double LATENCY_TOLERANCE = 2.0;
+	private static final double SHORT_TERM_WEIGHT = 0.3;
+	private static final double LONG_TERM_WEIGHT = 0.02;
+
+	private Logger logger;
+	private MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+	private List<MemoryPoolMXBean> tenuredPools = getTenuredPools();
+	private int maxLimit;
+	private int maxWaiting;
+	private int limit;
+	private int running = 0;
+	private int bulkRunning = 0;
+	private int waiting = 0;
+	private long reservedBytes = 0;
+
+	private Map<String, Integer> clientWeights;
+	private int clientMaxRunning;
+	private int fastLaneSlots;
+
+	// Clients with queued or running jobs
+	private Map<String, Client> clients = new HashMap<>();
+
+	// The virtual time of the latest job to start, where clients which become busy start from
+	private double systemTime = 0;
+
+	// Tickets ready to start, in the order they became ready
+	private List<Ticket> queue = new ArrayList<>();
+
+	// Render time in ms per MB of input, plus one, so small jobs are comparable with large ones
+	private double shortTermLatency = 0;
+	private double longTermLatency = 0;
+	private double averageRenderMillis = 0;
+
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * The scheduling state of a client with queued or running jobs.
+	 */
+	private static class Client
+	{
+		private int weight;
+		private int running = 0;
+		private int queued = 0;
+
+		// The client's share of the rendering done, the work it has started divided by its weight
+		private double virtualTime;
+
+		private Client(int weight) {
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * A job admitted by the controller. The holder either waits for a
+	 * render slot with {@link #await()}, or hands the ticket a task with
+	 * {@link #dispatch(Executor, Runnable)} to run once a slot is free. The
+	 * ticket must be closed once the render is finished, or abandoned, to
+	 * release the slot and the job's memory.
+	 */
+	public class Ticket
+		implements AutoCloseable
+	{
+		private String clientId;
+		private Lane lane;
+		private long inputBytes;
+		private long reservation;
+		private Executor executor;
+		private Runnable task;
+		private Consumer<RejectedExecutionException> rejectionHandler;
+		private RejectedExecutionException failure;
+		private boolean queued = false;
+		private boolean started = false;
+		private boolean closed = false;
+		private long startTime;
+
+		private Ticket(String clientId, Lane lane, long inputBytes, long reservation) {
+			this.clientId = clientId;
+			this.lane = lane;
+			this.inputBytes = inputBytes;
+			this.reservation = reservation;
+		}
+
+		/**
+		 * Waits for a render slot.
+		 *
+		 * @throws InterruptedException If interrupted while waiting.
+		 */
+		public void await() throws InterruptedException {
+			awaitStart(this);
+		}
+
+		/**
+		 * Runs a task once a render slot is free. The task must close the
+		 * ticket when it is finished. If the executor won't run the task,
+		 * e.g. because it is shutting down, the ticket is closed and the
+		 * rejection handler is called instead.
+		 *
+		 * @param executor The executor to run the task on, which must have
+		 * 			a thread for every render slot.
+		 * @param task The task.
+		 * @param rejectionHandler Called with the executor's exception if
+		 * 			the task can't be run.
+		 */
+		public void dispatch(Executor executor, Runnable task, Consumer<RejectedExecutionException> rejectionHandler) {
+			this.rejectionHandler = rejectionHandler;
+			enqueue(this, executor, task);
+		}
+
+		/**
+		 * Withdraws the ticket if its job hasn't started, e.g. because the
+		 * job has been cancelled.
+		 *
+		 * @return true if the ticket was withdrawn, false if its job has
+		 * 			already started or the ticket is closed.
+		 */
+		public boolean withdraw() {
+			return AdmissionController.this.withdraw(this);
+		}
+
+		@Override
+		public void close() {
+			release(this);
+		}
+	}
+
+	/**
+	 * Creates a controller which treats all clients equally.
+	 *
+	 * @param maxLimit The most PDFs to render at once.
+	 * @param maxWaiting The most admitted jobs waiting for a render slot.
+	 */
+	public AdmissionController(int maxLimit, int maxWaiting)
+	{
+		this(maxLimit, maxWaiting, Map.of(), 0, 0);
+	}
+
+	/**
+	 * Creates a controller.
+	 *
+	 * @param maxLimit The most PDFs to render at once.
+	 * @param maxWaiting The most admitted jobs waiting for a render slot.
+	 * @param clientWeights The weight of each client's share of the render
+	 * 			slots and the queue, by client id. Other clients have a
+	 * 			weight of 1.
+	 * @param clientMaxRunning The most PDFs to render at once for any one
+	 * 			client, 0 for no limit other than the overall limit.
+	 * @param fastLaneSlots The number of render slots only jobs in the fast
+	 * 			lane can use. Bulk jobs can always use at least one slot.
+	 */
+	public AdmissionController(int maxLimit, int maxWaiting, Map<String, Integer> clientWeights, int clientMaxRunning, int fastLaneSlots)
+	{
+		logger = LogManager.getLogger(AdmissionController.class);
+
+		this.maxLimit = Math.max(maxLimit, 1);
+		this.maxWaiting = maxWaiting;
+		this.limit = this.maxLimit;
+		this.clientWeights = clientWeights;
+		this.clientMaxRunning = clientMaxRunning;
+		this.fastLaneSlots = fastLaneSlots;
+	}
+
+	/**
+	 * Admits a job, reserving an estimate of the memory it will need, or
+	 * rejects it if its client already has its share of the waiting jobs or
+	 * the heap doesn't have room for it. A job is always admitted if nothing
+	 * else is, so even a job too big for the estimate gets its chance.
+	 *
+	 * @param clientId The id of the client the job is for, null for an
+	 * 			anonymous client.
+	 * @param lane The lane the job is scheduled in.
+	 * @param inputBytes The size of the job's input, or -1 if it isn't
+	 * 			known, in which case a quarter of the heap is reserved.
+	 *
+	 * @return The job's ticket.
+	 *
+	 * @throws JobRejectedException If the job is rejected.
+	 */
+	public Ticket admit(String clientId, Lane lane, long inputBytes) throws JobRejectedException {
+		return admit(clientId, lane, inputBytes, false);
+	}
+
+	/**
+	 * Admits a job, as {@link #admit(String, Lane, long)}, also reserving
+	 * the memory its files need if its job directory is held in memory.
+	 *
+	 * @param clientId The id of the client the job is for, null for an
+	 * 			anonymous client.
+	 * @param lane The lane the job is scheduled in.
+	 * @param inputBytes The size of the job's input, or -1 if it isn't
+	 * 			known.
+	 * @param inMemory true if the job's files, and the PDFs rendered from
+	 * 			them, are held in memory.
+	 *
+	 * @return The job's ticket.
+	 *
+	 * @throws JobRejectedException If the job is rejected.
+	 */
+	public synchronized Ticket admit(String clientId, Lane lane, long inputBytes, boolean inMemory) throws JobRejectedException
+	{
+		long reservation = (inputBytes < 0) ?
+				Math.max((long)(memoryBean.getHeapMemoryUsage().getMax() * UNKNOWN_SIZE_HEAP_FRACTION), MEMORY_PER_JOB) :
+				inputBytes * MEMORY_PER_INPUT_BYTE + MEMORY_PER_JOB + (inMemory ? getWorkspaceSize(inputBytes) : 0);
+		boolean idle = 0 == running + waiting;
+		String id = (null == clientId) ? "" : clientId;
+		Client client = clients.get(id);
+
+		if (!idle && ((null == client) ? 0 : client.queued) >= getQueueShare(id, client)) {
+			throw reject("Too many PDFs queued");
+		}
+
+		MemoryUsage heap = memoryBean.getHeapMemoryUsage();
+		if (!idle && heap.getMax() > 0 && reservedBytes + reservation > heap.getMax() - getLiveBytes()) {
+			throw reject("Not enough memory to render the PDF");
+		}
+
+		if (null == client) {
+			client = new Client(clientWeights.getOrDefault(id, 1));
+
+			// Start level with the clients already busy, rather than owed their past usage
+			client.virtualTime = systemTime;
+			clients.put(id, client);
+		}
+
+		client.queued++;
+		waiting++;
+		reservedBytes += reservation;
+		admitted.incrementAndGet();
+
+		return new Ticket(id, lane, Math.max(inputBytes, 0), reservation);
+	}
+
+	/**
+	 * Estimates the memory a job directory held in memory needs: the job's
+	 * files, along with the PDF rendered from them and its optimized copy,
+	 * each taken to be about the size of the input.
+	 *
+	 * @param inputBytes The size of the job's input.
+	 *
+	 * @return The estimated size of the job directory.
+	 */
+	public static long getWorkspaceSize(long inputBytes) {
+		return Math.max(inputBytes, 0) * WORKSPACE_PER_INPUT_BYTE;
+	}
+
+	/**
+	 * Works out how many jobs a client can have waiting, its share of the
+	 * queue in proportion to its weight against the other clients with
+	 * jobs waiting. A client can always queue one job, if any can be.
+	 *
+	 * @param id The client's id.
+	 * @param client The client, or null if it has no jobs.
+	 */
+	private int getQueueShare(String id, Client client)
+	{
+		int weight = (null == client) ? clientWeights.getOrDefault(id, 1) : client.weight;
+		int totalWeight = weight;
+
+		for (Client other : clients.values()) {
+			if (other.queued > 0 && other != client) {
+				totalWeight += other.weight;
+			}
+		}
+
+		return Math.max((int)((long)maxWaiting * weight / totalWeight), Math.min(maxWaiting, 1));
+	}
+
+	private JobRejectedException reject(String reason)
+	{
+		rejected.incrementAndGet();
+
+		// Time for the jobs ahead of this one to clear, at the current rate
+		long retryAfter = (long)Math.ceil(averageRenderMillis * (waiting + 1) / limit / 1000);
+
+		logger.info("{}, {} rendering, {} waiting, retry after {} s", reason, running, waiting, retryAfter);
+
+		return new JobRejectedException(reason, Math.max(retryAfter, 1));
+	}
+
+	private synchronized void awaitStart(Ticket ticket) throws InterruptedException
+	{
+		enqueue(ticket, null, null);
+
+		while (!ticket.started && !ticket.closed) {
+			wait();
+		}
+	}
+
+	private synchronized void enqueue(Ticket ticket, Executor executor, Runnable task)
+	{
+		if (!ticket.queued && !ticket.closed) {
+			ticket.executor = executor;
+			ticket.task = task;
+			ticket.queued = true;
+			queue.add(ticket);
+
+			schedule();
+		}
+	}
+
+	/**
+	 * Starts queued tickets while there are free render slots, each time
+	 * choosing the ticket of the client which has had the least of its
+	 * share, oldest first. Bulk tickets are passed over once the slots which
+	 * aren't reserved for the fast lane are all in use.
+	 */
+	private void schedule()
+	{
+		int bulkLimit = Math.max(limit - fastLaneSlots, 1);
+		List<Ticket> failed = new ArrayList<>();
+
+		while (running < limit) {
+			Ticket next = null;
+			Client nextClient = null;
+
+			for (Ticket ticket : queue) {
+				Client client = clients.get(ticket.clientId);
+
+				if ((Lane.FAST == ticket.lane || bulkRunning < bulkLimit) &&
+					(0 == clientMaxRunning || client.running < clientMaxRunning) &&
+					(null == next || client.virtualTime < nextClient.virtualTime))
+				{
+					next = ticket;
+					nextClient = client;
+				}
+			}
+
+			if (null == next) {
+				break;
+			}
+
+			queue.remove(next);
+			nextClient.queued--;
+			nextClient.running++;
+			systemTime = Math.max(systemTime, nextClient.virtualTime);
+			nextClient.virtualTime += (1.0 + next.inputBytes / (1024.0 * 1024.0)) / nextClient.weight;
+
+			waiting--;
+			running++;
+			if (Lane.BULK == next.lane) {
+				bulkRunning++;
+			}
+			next.started = true;
+			next.startTime = System.nanoTime();
+
+			if (null != next.task) {
+				try {
+					next.executor.execute(next.task);
+				} catch (RejectedExecutionException e) {
+					// Shutting down, give back the slot the task won't release
+					logger.warn("Unable to start job: {}", e.getMessage());
+
+					running--;
+					nextClient.running--;
+					if (Lane.BULK == next.lane) {
+						bulkRunning--;
+					}
+					next.closed = true;
+					next.failure = e;
+					reservedBytes -= next.reservation;
+					if (0 == nextClient.running + nextClient.queued) {
+						clients.remove(next.clientId);
+					}
+					failed.add(next);
+				}
+			}
+		}
+
+		notifyAll();
+
+		for (Ticket ticket : failed) {
+			ticket.rejectionHandler.accept(ticket.failure);
+		}
+	}
+
+	private synchronized boolean withdraw(Ticket ticket)
+	{
+		boolean withdrawn = !ticket.started && !ticket.closed;
+
+		if (withdrawn) {
+			release(ticket);
+		}
+
+		return withdrawn;
+	}
+
+	private synchronized void release(Ticket ticket)
+	{
+		if (!ticket.closed) {
+			ticket.closed = true;
+			reservedBytes -= ticket.reservation;
+
+			Client client = clients.get(ticket.clientId);
+
+			if (ticket.started) {
+				boolean saturated = running >= limit;
+
+				running--;
+				client.running--;
+				if (Lane.BULK == ticket.lane) {
+					bulkRunning--;
+				}
+				adapt(System.nanoTime() - ticket.startTime, ticket.inputBytes, saturated);
+			}
+			else {
+				waiting--;
+				client.queued--;
+				if (ticket.queued) {
+					queue.remove(ticket);
+				}
+			}
+
+			if (null != client && 0 == client.running + client.queued) {
+				clients.remove(ticket.clientId);
+			}
+
+			schedule();
+		}
+	}
+
+	/**
+	 * Adjusts the limit after a render, cutting it if the heap is nearly
+	 * full or renders have slowed down, otherwise growing it if every slot
+	 * was in use.
+	 */
+	private void adapt(long renderNanos, long inputBytes, boolean saturated)
+	{
+		double renderMillis = TimeUnit.NANOSECONDS.toMillis(renderNanos);
+		double latency = renderMillis / (1.0 + inputBytes / (1024.0 * 1024.0));
+
+		if (0 == longTermLatency) {
+			shortTermLatency = longTermLatency = latency;
+			averageRenderMillis = renderMillis;
+		}
+		else {
+			shortTermLatency += SHORT_TERM_WEIGHT * (latency - shortTermLatency);
+			longTermLatency += LONG_TERM_WEIGHT * (latency - longTermLatency);
+			averageRenderMillis += SHORT_TERM_WEIGHT * (renderMillis - averageRenderMillis);
+		}
+
+		MemoryUsage heap = memoryBean.getHeapMemoryUsage();
+		long liveBytes = getLiveBytes();
+		boolean heapHigh = heap.getMax() > 0 && liveBytes > heap.getMax() * HEAP_HIGH_WATER;
+		boolean slow = shortTermLatency > longTermLatency * LATENCY_TOLERANCE;
+
+		if (heapHigh || slow) {
+			int newLimit = Math.max(1, limit * 3 / 4);
+
+			if (newLimit != limit) {
+				logger.info("Reducing render limit to {}, heap {}% live, latency {} ms/MB against {} ms/MB",
+						newLimit, liveBytes * 100 / Math.max(heap.getMax(), 1), (long)shortTermLatency, (long)longTermLatency);
+				limit = newLimit;
+			}
+		}
+		else if (saturated && limit < maxLimit) {
+			limit++;
+		}
+	}
+
+	/**
+	 * Finds the heap's tenured pools, those which hold the objects that
+	 * survive collections. Only they support a usage threshold, the young
+	 * pools being emptied by every collection.
+	 */
+	private static List<MemoryPoolMXBean> getTenuredPools()
+	{
+		List<MemoryPoolMXBean> pools = new ArrayList<>();
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (MemoryType.HEAP == pool.getType() && pool.isUsageThresholdSupported() && pool.isCollectionUsageThresholdSupported()) {
+				pools.add(pool);
+			}
+		}
+
+		return pools;
+	}
+
+	/**
+	 * Estimates the live data on the heap, from the tenured pools' usage
+	 * after their last collection. Falls back to the heap in use if the
+	 * collector doesn't report it.
+	 */
+	private long getLiveBytes()
+	{
+		long liveBytes = 0;
+		boolean reported = false;
+
+		for (MemoryPoolMXBean pool : tenuredPools) {
+			MemoryUsage afterGc = pool.getCollectionUsage();
+
+			if (null != afterGc) {
+				liveBytes += afterGc.getUsed();
+				reported = true;
+			}
+		}
+
+		return reported ? liveBytes : memoryBean.getHeapMemoryUsage().getUsed();
+	}
+
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	public synchronized int getWaiting() {
+		return waiting;
+	}
+
+	/**
+	 * @param clientId The id of the client.
+	 *
+	 * @return The number of PDFs being rendered for the client.
+	 */
+	public synchronized int getRunning(String clientId) {
+		Client client = clients.get((null == clientId) ? "" : clientId);
+
+		return (null == client) ? 0 : client.running;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Admission : limit %d of %d, %d reserved for the fast lane, %d rendering, %d bulk, %d queued of %d, %d active clients, %d MB reserved, %d admitted, %d rejected",
+				limit, maxLimit, fastLaneSlots, running, bulkRunning, waiting, maxWaiting, clients.size(), reservedBytes / (1024 * 1024), admitted.get(), rejected.get());
+	}
+}
@@ -0,0 +1,22 @@
+package com.rcs.pdfsvc.job;
+
+/**
+ * Thrown when a client reuses an idempotency key for a job whose inputs
+ * differ from those of the job the key was first used for. The job isn't a
+ * retry, so isn't given the earlier job's result, and isn't run either.
+ */
+public class IdempotencyKeyConflictException
+	extends IllegalStateException
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates an exception.
+	 *
+	 * @param key The idempotency key.
+	 */
+	public IdempotencyKeyConflictException(String key)
+	{
+		super("Idempotency key " + key + " was already used for a different request");
+	}
+}
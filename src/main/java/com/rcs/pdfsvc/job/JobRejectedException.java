@@ -0,0 +1,36 @@
+package com.rcs.pdfsvc.job;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a job isn't admitted because the service is too busy. The
+ * client should retry after the given delay.
+ */
+public class JobRejectedException
+	extends RejectedExecutionException
+{
+	private static final long serialVersionUID = 1L;
+
+	private final long retryAfter;
+
+	/**
+	 * Creates an exception.
+	 *
+	 * @param message Why the job was rejected.
+	 * @param retryAfter How long, in seconds, the client should wait
+	 * 			before retrying.
+	 */
+	public JobRejectedException(String message, long retryAfter)
+	{
+		super(message);
+
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return How long, in seconds, the client should wait before retrying.
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+}
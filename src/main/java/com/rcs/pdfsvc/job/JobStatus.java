@@ -0,0 +1,19 @@
+package com.rcs.pdfsvc.job;
+
+/**
+ * The progress of a job submitted to the render executor.
+ */
+public enum JobStatus
+{
+	/** Waiting for a render thread. */
+	QUEUED,
+
+	/** Being rendered. */
+	RUNNING,
+
+	/** The PDF and log are in the job directory. */
+	DONE,
+
+	/** The PDF could not be generated. */
+	FAILED;
+}
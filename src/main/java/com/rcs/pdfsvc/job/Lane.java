@@ -0,0 +1,14 @@
+package com.rcs.pdfsvc.job;
+
+/**
+ * The lane a job is scheduled in, which decides the render threads it can
+ * use.
+ */
+public enum Lane
+{
+	/** A small job, which can also use the threads reserved for the lane. */
+	FAST,
+
+	/** Any other job, which can't use the threads reserved for the fast lane. */
+	BULK;
+}
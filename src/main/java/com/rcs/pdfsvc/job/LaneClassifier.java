@@ -0,0 +1,247 @@
+package com.rcs.pdfsvc.job;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.rcs.pdf.StylesheetRegistry;
+import com.rcs.pdf.cache.LruCache;
+
+/**
+ * Sorts jobs into the fast or bulk lane before they are admitted, so small
+ * documents can be given render threads which bulk jobs can't use and are
+ * never stuck behind a large report.
+ * <p>
+ * A job is in the fast lane if its input is small, its FO has few page
+ * sequences and earlier jobs with the same render profile, the same
+ * stylesheet, rendered quickly. The render time of each job is recorded
+ * against its profile, so the predictions follow how each stylesheet
+ * actually performs, and the error of the predictions is reported with the
+ * statistics.
+ */
+public class LaneClassifier
+{
+	public static final String FO_PROFILE = "fo";
+
+	private static final String PAGE_SEQUENCE = "page-sequence";
+	private static final int MAX_NAME_LENGTH = 64;
+	private static final int PROFILES_SIZE = 256;
+
+	// Weight of the latest render in the average render time of a profile
+	private static final double HISTORY_WEIGHT = 0.2;
+
+	private Logger logger;
+	private long maxInputBytes;
+	private int maxPageSequences;
+	private long maxRenderMillis;
+
+	// Render time in ms per MB of input, plus one, of each render profile
+	private LruCache<String, Double> profiles = new LruCache<>("Render profiles", PROFILES_SIZE);
+
+	private long fastJobs = 0;
+	private long bulkJobs = 0;
+	private long slowFastJobs = 0;
+	private long predictions = 0;
+	private double totalError = 0;
+
+	/**
+	 * The classification of a job, with what it was based on, to be
+	 * recorded along with the job's actual render time.
+	 */
+	public static class Estimate
+	{
+		private String profile;
+		private long inputBytes;
+		private long predictedMillis;
+		private Lane lane;
+
+		private Estimate(String profile, long inputBytes, long predictedMillis, Lane lane)
+		{
+			this.profile = profile;
+			this.inputBytes = inputBytes;
+			this.predictedMillis = predictedMillis;
+			this.lane = lane;
+		}
+
+		public String getProfile() {
+			return profile;
+		}
+
+		public long getInputBytes() {
+			return inputBytes;
+		}
+
+		/**
+		 * @return The predicted render time in milliseconds, or -1 if
+		 * 			there is no history for the job's profile.
+		 */
+		public long getPredictedMillis() {
+			return predictedMillis;
+		}
+
+		public Lane getLane() {
+			return lane;
+		}
+	}
+
+	/**
+	 * Creates a classifier.
+	 *
+	 * @param maxInputBytes The largest input of a job in the fast lane.
+	 * @param maxPageSequences The most page sequences in the FO of a job in
+	 * 			the fast lane.
+	 * @param maxRenderMillis The longest predicted render time of a job in
+	 * 			the fast lane.
+	 */
+	public LaneClassifier(long maxInputBytes, int maxPageSequences, long maxRenderMillis)
+	{
+		logger = LogManager.getLogger(LaneClassifier.class);
+
+		this.maxInputBytes = maxInputBytes;
+		this.maxPageSequences = maxPageSequences;
+		this.maxRenderMillis = maxRenderMillis;
+	}
+
+	/**
+	 * @param stylesheet The registered stylesheet a document is transformed
+	 * 			with, or null for an FO document.
+	 *
+	 * @return The render profile of a document.
+	 */
+	public static String getProfile(StylesheetRegistry.Entry stylesheet) {
+		return (null == stylesheet) ? FO_PROFILE : "stylesheet:" + stylesheet.getId();
+	}
+
+	/**
+	 * Classifies a job run from a job directory. The page sequences are
+	 * only counted for an FO job, small enough for the fast lane, as the
+	 * FO of an XML job doesn't exist until it is transformed. The history
+	 * of the job's stylesheet stands in for them.
+	 *
+	 * @param job The job.
+	 * @param inputBytes The size of the job's input.
+	 *
+	 * @return The job's estimate.
+	 */
+	public Estimate estimate(PdfJob job, long inputBytes)
+	{
+		int pageSequences = 0;
+
+		if (job.isFoJob() && inputBytes <= maxInputBytes) {
+			pageSequences = countPageSequences(job.getFoPath());
+		}
+
+		return estimate(job.getRenderProfile(), inputBytes, pageSequences);
+	}
+
+	/**
+	 * Classifies a job.
+	 *
+	 * @param profile The job's render profile.
+	 * @param inputBytes The size of the job's input, or -1 if it isn't
+	 * 			known, which puts the job in the bulk lane.
+	 * @param pageSequences The number of page sequences in the job's FO, 0
+	 * 			if not known.
+	 *
+	 * @return The job's estimate.
+	 */
+	public synchronized Estimate estimate(String profile, long inputBytes, int pageSequences)
+	{
+		Double millisPerMB = profiles.peek(profile);
+		long predictedMillis = (null == millisPerMB) ? -1 : Math.round(millisPerMB * getWork(inputBytes));
+
+		Lane lane = (inputBytes >= 0 && inputBytes <= maxInputBytes && pageSequences <= maxPageSequences && predictedMillis <= maxRenderMillis)
+				? Lane.FAST : Lane.BULK;
+
+		if (Lane.FAST == lane) {
+			fastJobs++;
+		}
+		else {
+			bulkJobs++;
+		}
+
+		return new Estimate(profile, inputBytes, predictedMillis, lane);
+	}
+
+	/**
+	 * Records how long a job took to render, to improve the predictions for
+	 * its profile.
+	 *
+	 * @param estimate The job's estimate.
+	 * @param renderMillis The time taken to render the job.
+	 */
+	public synchronized void record(Estimate estimate, long renderMillis)
+	{
+		double latency = renderMillis / getWork(estimate.inputBytes);
+		Double millisPerMB = profiles.peek(estimate.profile);
+
+		profiles.put(estimate.profile, (null == millisPerMB) ? latency : millisPerMB + HISTORY_WEIGHT * (latency - millisPerMB));
+
+		if (estimate.predictedMillis >= 0) {
+			predictions++;
+			totalError += Math.abs(estimate.predictedMillis - renderMillis) / (double)Math.max(renderMillis, 1);
+		}
+
+		if (Lane.FAST == estimate.lane && renderMillis > maxRenderMillis) {
+			slowFastJobs++;
+		}
+
+		logger.debug("{} job for {} predicted {} ms, took {} ms", estimate.lane, estimate.profile, estimate.predictedMillis, renderMillis);
+	}
+
+	/**
+	 * Counts the page sequences in an FO document, stopping once there are
+	 * too many for the fast lane.
+	 */
+	private int countPageSequences(Path foFile)
+	{
+		int count = 0;
+
+		try (InputStream inStrm = new BufferedInputStream(Files.newInputStream(foFile))) {
+			StringBuilder name = null;
+			int c;
+
+			while (count <= maxPageSequences && -1 != (c = inStrm.read())) {
+				if ('<' == c) {
+					name = new StringBuilder();
+				}
+				else if (null != name) {
+					if (name.isEmpty() && ('/' == c || '!' == c || '?' == c)) {
+						// An end tag, comment or processing instruction
+						name = null;
+					}
+					else if (Character.isWhitespace(c) || '>' == c || '/' == c) {
+						String localName = name.substring(name.indexOf(":") + 1);
+
+						if (PAGE_SEQUENCE.equals(localName)) {
+							count++;
+						}
+						name = null;
+					}
+					else if (name.length() < MAX_NAME_LENGTH) {
+						name.append((char)c);
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.debug("Unable to count page sequences in {}: {}", foFile, e.getMessage());
+		}
+
+		return count;
+	}
+
+	private static double getWork(long inputBytes) {
+		return 1.0 + Math.max(inputBytes, 0) / (1024.0 * 1024.0);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Lanes : %d fast, %d bulk, %d fast jobs over %d ms, prediction error %.1f%% over %d predictions, %d render profiles",
+				fastJobs, bulkJobs, slowFastJobs, maxRenderMillis, (0 == predictions) ? 0.0 : totalError * 100 / predictions, predictions, profiles.size());
+	}
+}
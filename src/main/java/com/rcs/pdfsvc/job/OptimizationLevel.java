@@ -0,0 +1,39 @@
+package com.rcs.pdfsvc.job;
+
+import java.util.Locale;
+
+/**
+ * How much effort to put into reducing the size of a generated PDF, trading
+ * request latency against the size of the PDF.
+ */
+public enum OptimizationLevel
+{
+	/** The PDF is saved as generated by FOP, without being rewritten. */
+	NONE,
+
+	/** The PDF is rewritten, compressing its content streams. */
+	COMPRESS,
+
+	/** As COMPRESS, also removing duplicate objects such as fonts and images. */
+	SMART,
+
+	/** As SMART, using the best compression and object and cross-reference streams. */
+	MAXIMUM;
+
+	/**
+	 * Parses an optimization level, ignoring case.
+	 *
+	 * @param value The name of the level.
+	 *
+	 * @return The optimization level.
+	 *
+	 * @throws IllegalArgumentException If the value isn't the name of an
+	 * 			optimization level.
+	 */
+	public static OptimizationLevel parse(String value) {
+		if (null == value) {
+			throw new IllegalArgumentException("Missing optimization level");
+		}
+		return valueOf(value.trim().toUpperCase(Locale.ROOT));
+	}
+}
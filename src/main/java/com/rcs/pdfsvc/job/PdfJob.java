@@ -0,0 +1,450 @@
+package com.rcs.pdfsvc.job;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.Level;
+
+import com.rcs.pdf.RenderDeadline;
+import com.rcs.pdf.StylesheetRegistry;
+import com.rcs.pdf.cache.ContentDigest;
+
+/**
+ * A request to generate a PDF, either from an FO file or from an XML file
+ * and a stylesheet, using the files saved in a job directory or in the ZIP
+ * bundle uploaded with the job.
+ */
+public final class PdfJob
+{
+	public static final String LOG_FILE = "pdfGen.log";
+	public static final String BUNDLE_FILE = "bundle.zip";
+
+	private Path workDir;
+	private String foFile;
+	private String xmlFile;
+	private String xsltFile;
+	private StylesheetRegistry.Entry stylesheet;
+	private String pdfFile;
+	private Level logLevel;
+	private OptimizationLevel optimizationLevel;
+	private Map<String, String> inputDigests = new TreeMap<>();
+	private boolean hasBundle;
+	private volatile Path bundleRoot;
+	private String idempotencyKey;
+	private String clientId;
+	private LaneClassifier.Estimate estimate;
+	private RenderDeadline deadline = RenderDeadline.none();
+	private boolean cacheHit;
+	private long generatedSize = -1;
+	private Map<String, Long> stageTimings = new LinkedHashMap<>();
+	private volatile JobStatus status;
+	private volatile String failureMessage;
+	private volatile CompletableFuture<PdfJob> completion = CompletableFuture.completedFuture(this);
+
+	/**
+	 * Creates a job.
+	 *
+	 * @param workDir The job directory, containing the uploaded files.
+	 * @param pdfFile The name of the PDF file to generate.
+	 * @param logLevel The level of the events to include in the job log.
+	 */
+	public PdfJob(Path workDir, String pdfFile, Level logLevel)
+	{
+		this.workDir = workDir;
+		this.pdfFile = pdfFile;
+		this.logLevel = logLevel;
+	}
+
+	/**
+	 * Sets the FO file the PDF is generated from.
+	 *
+	 * @param foFile The name of the FO file in the job directory.
+	 */
+	public void setFoFile(String foFile) {
+		this.foFile = foFile;
+	}
+
+	/**
+	 * Sets the XML file and uploaded stylesheet the PDF is generated from.
+	 *
+	 * @param xmlFile The name of the XML file in the job directory.
+	 * @param xsltFile The name of the stylesheet in the job directory.
+	 */
+	public void setXmlFile(String xmlFile, String xsltFile) {
+		this.xmlFile = xmlFile;
+		this.xsltFile = xsltFile;
+	}
+
+	/**
+	 * Sets the XML file and registered stylesheet the PDF is generated from.
+	 *
+	 * @param xmlFile The name of the XML file in the job directory.
+	 * @param stylesheet The registered stylesheet.
+	 */
+	public void setXmlFile(String xmlFile, StylesheetRegistry.Entry stylesheet) {
+		this.xmlFile = xmlFile;
+		this.stylesheet = stylesheet;
+	}
+
+	/**
+	 * Records that a ZIP bundle of the job's files was uploaded, saved in
+	 * the job directory as {@link #BUNDLE_FILE}.
+	 *
+	 * @param hasBundle true if the job has a bundle.
+	 */
+	public void setBundle(boolean hasBundle) {
+		this.hasBundle = hasBundle;
+	}
+
+	/**
+	 * @return The uploaded bundle, or null if the job doesn't have one.
+	 */
+	public Path getBundlePath() {
+		return hasBundle ? workDir.resolve(BUNDLE_FILE) : null;
+	}
+
+	/**
+	 * Sets where the bundle is mounted while the job is rendered, so the
+	 * files the PDF is generated from are found in it.
+	 *
+	 * @param bundleRoot The top level directory of the mounted bundle, or
+	 * 			null once it is unmounted.
+	 */
+	void setBundleRoot(Path bundleRoot) {
+		this.bundleRoot = bundleRoot;
+	}
+
+	/**
+	 * @return The top level directory of the mounted bundle, or null if it
+	 * 			isn't mounted.
+	 */
+	public Path getBundleRoot() {
+		return bundleRoot;
+	}
+
+	/**
+	 * Records the digest of a file uploaded for the job.
+	 *
+	 * @param fileName The name of the file in the job directory.
+	 * @param digest The digest of the file's contents.
+	 */
+	public void addInputDigest(String fileName, String digest) {
+		inputDigests.put(fileName, digest);
+	}
+
+	/**
+	 * Computes a digest which identifies the output of the job, over the
+	 * names and contents of the uploaded files, the file(s) the PDF is
+	 * generated from and the options which affect the output. Two jobs with
+	 * the same digest produce the same PDF and log.
+	 *
+	 * @return The digest of the job's inputs.
+	 */
+	public String getInputDigest()
+	{
+		List<String> parts = getSourceParts();
+
+		parts.add("loglevel=" + logLevel);
+		parts.add("optimization=" + optimizationLevel);
+
+		return ContentDigest.combine(parts.toArray(new String[0]));
+	}
+
+	/**
+	 * Computes a digest which identifies the FO generated by the XSLT stage
+	 * of the job. Unlike {@link #getInputDigest()} it excludes the options
+	 * which only affect the later stages.
+	 *
+	 * @return The digest of the XSLT stage's inputs.
+	 */
+	public String getTransformDigest() {
+		return ContentDigest.combine(getSourceParts().toArray(new String[0]));
+	}
+
+	/**
+	 * Computes a digest which identifies the layout of an FO document by
+	 * this job, over the FO and the files, such as images and fonts, it may
+	 * reference. The files the FO was generated from are excluded so jobs
+	 * whose XML or stylesheet differ but which produce the same FO share a
+	 * layout.
+	 *
+	 * @param foDigest The digest of the FO document.
+	 *
+	 * @return The digest of the layout stage's inputs.
+	 */
+	public String getLayoutDigest(String foDigest)
+	{
+		List<String> parts = new ArrayList<>();
+
+		parts.add("fo=" + foDigest);
+
+		getResourceDigests().forEach((name, digest) -> {
+			parts.add(name);
+			parts.add(digest);
+		});
+
+		return ContentDigest.combine(parts.toArray(new String[0]));
+	}
+
+	/**
+	 * @return The digests of the uploaded files, by file name, other than
+	 * 			the files the PDF is generated from. These are the files,
+	 * 			such as images and fonts, which the document may reference.
+	 */
+	public Map<String, String> getResourceDigests()
+	{
+		Map<String, String> resourceDigests = new TreeMap<>(inputDigests);
+
+		resourceDigests.keySet().removeIf(name -> name.equals(foFile) || name.equals(xmlFile) || name.equals(xsltFile));
+
+		return resourceDigests;
+	}
+
+	/**
+	 * @return Identifies how the PDF is generated, by the stylesheet or as
+	 * 			FO, so the job's render time can be predicted from earlier
+	 * 			jobs generated the same way.
+	 */
+	public String getRenderProfile()
+	{
+		if (null != xsltFile) {
+			return "xslt:" + inputDigests.get(xsltFile);
+		}
+
+		return LaneClassifier.getProfile(stylesheet);
+	}
+
+	private List<String> getSourceParts()
+	{
+		List<String> parts = new ArrayList<>();
+
+		inputDigests.forEach((name, digest) -> {
+			parts.add(name);
+			parts.add(digest);
+		});
+
+		parts.add("fo=" + foFile);
+		parts.add("xml=" + xmlFile);
+		parts.add("xslt=" + xsltFile);
+		parts.add("stylesheet=" + (null == stylesheet ? null : stylesheet.getId()));
+
+		return parts;
+	}
+
+	/**
+	 * Sets how much effort to put into reducing the size of the PDF.
+	 *
+	 * @param optimizationLevel The optimization level, or null to use the
+	 * 			service's default.
+	 */
+	public void setOptimizationLevel(OptimizationLevel optimizationLevel) {
+		this.optimizationLevel = optimizationLevel;
+	}
+
+	public OptimizationLevel getOptimizationLevel() {
+		return optimizationLevel;
+	}
+
+	/**
+	 * Sets the key, supplied by the client, which identifies retries of the
+	 * same request.
+	 *
+	 * @param idempotencyKey The key, or null if the client didn't supply
+	 * 			one.
+	 */
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
+
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+
+	/**
+	 * Sets the client the job is for, which its share of the render threads
+	 * is scheduled by.
+	 *
+	 * @param clientId The client's id, or null for an anonymous client.
+	 */
+	public void setClientId(String clientId) {
+		this.clientId = clientId;
+	}
+
+	public String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Sets the deadline the job must be rendered by, which also lets the
+	 * job be cancelled.
+	 *
+	 * @param deadline The deadline.
+	 */
+	public void setDeadline(RenderDeadline deadline) {
+		this.deadline = deadline;
+	}
+
+	public RenderDeadline getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @return The job's lane and predicted render time, or null if the job
+	 * 			wasn't submitted to the render executor.
+	 */
+	public LaneClassifier.Estimate getEstimate() {
+		return estimate;
+	}
+
+	void setEstimate(LaneClassifier.Estimate estimate) {
+		this.estimate = estimate;
+	}
+
+	public Path getWorkDir() {
+		return workDir;
+	}
+
+	public String getId() {
+		return workDir.getFileName().toString();
+	}
+
+	public boolean isFoJob() {
+		return null != foFile;
+	}
+
+	public Path getFoPath() {
+		return resolveInput(foFile);
+	}
+
+	public Path getXmlPath() {
+		return resolveInput(xmlFile);
+	}
+
+	public Path getXsltPath() {
+		return (null == xsltFile) ? null : resolveInput(xsltFile);
+	}
+
+	/**
+	 * Finds one of the files the PDF is generated from, which is read from
+	 * the bundle if it wasn't uploaded separately.
+	 */
+	private Path resolveInput(String fileName)
+	{
+		Path file = workDir.resolve(fileName);
+
+		if (null != bundleRoot && !Files.exists(file)) {
+			file = bundleRoot.resolve(fileName);
+		}
+
+		return file;
+	}
+
+	public StylesheetRegistry.Entry getStylesheet() {
+		return stylesheet;
+	}
+
+	public String getPdfFile() {
+		return pdfFile;
+	}
+
+	public Path getPdfPath() {
+		return workDir.resolve(pdfFile);
+	}
+
+	public Path getLogPath() {
+		return workDir.resolve(LOG_FILE);
+	}
+
+	public Level getLogLevel() {
+		return logLevel;
+	}
+
+	/**
+	 * @return true if the PDF was taken from the result cache rather than
+	 * 			being generated.
+	 */
+	public boolean isCacheHit() {
+		return cacheHit;
+	}
+
+	void setCacheHit(boolean cacheHit) {
+		this.cacheHit = cacheHit;
+	}
+
+	/**
+	 * Records how long a stage of the job took.
+	 *
+	 * @param stage The name of the stage.
+	 * @param nanos The time taken, in nanoseconds.
+	 */
+	void addStageTiming(String stage, long nanos) {
+		stageTimings.put(stage, nanos / 1_000_000);
+	}
+
+	/**
+	 * @return The time taken by each stage of the job, in milliseconds, in
+	 * 			the order the stages ran.
+	 */
+	public Map<String, Long> getStageTimings() {
+		return Collections.unmodifiableMap(stageTimings);
+	}
+
+	/**
+	 * @return The size of the PDF as generated by FOP, before it was
+	 * 			optimized, or -1 if the PDF was taken from the result cache.
+	 */
+	public long getGeneratedSize() {
+		return generatedSize;
+	}
+
+	void setGeneratedSize(long generatedSize) {
+		this.generatedSize = generatedSize;
+	}
+
+	/**
+	 * @return The progress of the job, or null if it wasn't submitted to the
+	 * 			render executor.
+	 */
+	public JobStatus getStatus() {
+		return status;
+	}
+
+	void setStatus(JobStatus status) {
+		this.status = status;
+	}
+
+	/**
+	 * @return Why the job failed, or null if it hasn't failed.
+	 */
+	public String getFailureMessage() {
+		return failureMessage;
+	}
+
+	void setFailed(String failureMessage) {
+		this.failureMessage = failureMessage;
+		this.status = JobStatus.FAILED;
+	}
+
+	/**
+	 * Runs an action once the job is finished with its directory, which may
+	 * be after the caller gave up waiting for it, as a render can only stop
+	 * at its next event.
+	 *
+	 * @param action The action, run straight away if the job has finished
+	 * 			or was never submitted.
+	 */
+	public void whenFinished(Runnable action) {
+		completion.whenComplete((job, e) -> action.run());
+	}
+
+	void setCompletion(CompletableFuture<PdfJob> completion) {
+		this.completion = completion;
+	}
+}
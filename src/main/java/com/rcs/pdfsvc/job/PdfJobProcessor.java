@@ -0,0 +1,1052 @@
+package com.rcs.pdfsvc.job;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.itextpdf.io.source.RandomAccessSourceFactory;
+import com.itextpdf.kernel.pdf.CompressionConstants;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.ReaderProperties;
+import com.itextpdf.kernel.pdf.WriterProperties;
+import com.rcs.pdf.JobBundle;
+import com.rcs.pdf.JobContext;
+import com.rcs.pdf.PDFGenerator;
+import com.rcs.pdf.RenderCancelledException;
+import com.rcs.pdf.RenderDeadline;
+import com.rcs.pdf.cache.AssetStore;
+import com.rcs.pdf.cache.ContentDigest;
+import com.rcs.pdf.cache.DiskCache;
+import com.rcs.pdf.cache.LruCache;
+import com.rcs.pdf.cache.ResultCache;
+import com.rcs.pdf.memfs.MemoryFileSystem;
+import com.rcs.pdfsvc.config.AppProperties;
+
+/**
+ * Runs PDF jobs: generates the PDF, rewrites it to reduce its size and
+ * caches the result so an identical job can be answered without
+ * generating the PDF again.
+ * <p>
+ * Concurrent identical jobs, typically a client retrying a request which
+ * timed out, are coalesced so only one of them is run and the others wait
+ * for, and share, its result. Jobs are identical if they have the same
+ * inputs or the same client supplied idempotency key. Idempotency keys are
+ * scoped to the client, and a key reused with different inputs is
+ * rejected rather than given another job's result.
+ * <p>
+ * Optionally the output of the XSLT stage, the FO, and of the layout
+ * stage, FOP's intermediate format (IF), are cached too so a job which
+ * differs from an earlier one only in its later stages resumes the
+ * pipeline from the latest stage which is cached.
+ * <p>
+ * Jobs are rendered on a fixed size pool of render threads, so the number
+ * of PDFs being rendered at once is independent of the number of HTTP
+ * requests being served. Jobs are only queued for a render thread once
+ * admitted by the {@link AdmissionController}, which adapts how many of
+ * the threads are used to the heap and render times. The
+ * {@link LaneClassifier} sorts jobs into lanes first, so small jobs can use
+ * threads reserved for them.
+ * <p>
+ * A job which passes its {@link RenderDeadline}, or is cancelled, is
+ * withdrawn if it is still queued. If it is rendering its render thread is
+ * interrupted and the pipeline stops at its next event, read or write.
+ */
+public class PdfJobProcessor
+{
+	private static final String RESULT_CACHE_DIR = "result-cache";
+	private static final String FO_CACHE_DIR = "fo-cache";
+	private static final String IF_CACHE_DIR = "if-cache";
+	private static final String ASSET_STORE_DIR = "assets";
+	private static final String STAGE_FO_FILE = ".stage.fo";
+	private static final String STAGE_IF_FILE = ".stage.if";
+	private static final String IDEMPOTENCY_KEY_PREFIX = "key:";
+	private static final int COMPLETED_JOBS_SIZE = 1024;
+	private static final int FINISHED_JOBS_SIZE = 1024;
+
+	// How long past its deadline to wait for a render to stop before giving up on it
+	private static final long STOP_GRACE_MILLIS = 5000;
+
+	private static PdfJobProcessor singleton = null;
+
+	private Logger logger;
+	private ResultCache resultCache;
+	private DiskCache foCache;
+	private DiskCache ifCache;
+	private AssetStore assetStore;
+	private OptimizationLevel defaultOptimizationLevel = AppProperties.DEFAULT_OPTIMIZATION_LEVEL;
+
+	// The running job for each job key, for the duplicates to wait on
+	private ConcurrentMap<String, RunningJob> runningJobs = new ConcurrentHashMap<>();
+
+	// Finished jobs by idempotency key, so a late retry is given the original result
+	private LruCache<String, PdfJob> completedJobs = new LruCache<>("Completed jobs", COMPLETED_JOBS_SIZE);
+
+	// Jobs submitted to the render executor by job id, so their progress can be reported. Jobs
+	// are only dropped once they have finished, and then only the least recently polled
+	private ConcurrentMap<String, PdfJob> activeJobs = new ConcurrentHashMap<>();
+	private LruCache<String, PdfJob> finishedJobs = new LruCache<>("Finished jobs", FINISHED_JOBS_SIZE);
+
+	private ThreadPoolExecutor renderExecutor;
+	private AdmissionController admissionController;
+	private LaneClassifier laneClassifier;
+	private int maxRenderTime = AppProperties.DEFAULT_MAX_RENDER_TIME;
+	private ScheduledExecutorService deadlineTimer;
+
+	/**
+	 * A job being run, along with the duplicates waiting for its result.
+	 * The job gives each duplicate its result as it finishes, as once it
+	 * returns its directory may be released.
+	 */
+	private static class RunningJob
+	{
+		private final PdfJob job;
+		private final Map<PdfJob, CompletableFuture<PdfJob>> duplicates = new LinkedHashMap<>();
+		private boolean finished;
+
+		private RunningJob(PdfJob job) {
+			this.job = job;
+		}
+
+		/**
+		 * @return The future completed once the duplicate has been given
+		 * 			the job's result, or null if the job has already finished.
+		 */
+		private synchronized CompletableFuture<PdfJob> join(PdfJob duplicate)
+		{
+			CompletableFuture<PdfJob> shared = null;
+
+			if (!finished) {
+				shared = new CompletableFuture<>();
+				duplicates.put(duplicate, shared);
+			}
+
+			return shared;
+		}
+
+		/**
+		 * @return The duplicates which joined before the job finished.
+		 */
+		private synchronized Map<PdfJob, CompletableFuture<PdfJob>> finish()
+		{
+			finished = true;
+
+			return new LinkedHashMap<>(duplicates);
+		}
+	}
+
+	/**
+	 * The thread rendering a job, so it can be interrupted if the job is
+	 * cancelled, but only while it is rendering that job rather than a
+	 * later one.
+	 */
+	private static class RenderThread
+	{
+		private Thread thread;
+
+		private synchronized void enter() {
+			thread = Thread.currentThread();
+		}
+
+		private synchronized void exit() {
+			thread = null;
+
+			// Clear an interrupt which arrived as the job finished
+			Thread.interrupted();
+		}
+
+		private synchronized void interrupt() {
+			if (null != thread) {
+				thread.interrupt();
+			}
+		}
+	}
+
+	private PdfJobProcessor(AppProperties props) throws IOException
+	{
+		logger = LogManager.getLogger(PdfJobProcessor.class);
+
+		if (null != props) {
+			resultCache = new ResultCache(props.getWorkDir().resolve(RESULT_CACHE_DIR), props.getResultCacheSize() * 1024L * 1024L);
+			foCache = new DiskCache("FO cache", props.getWorkDir().resolve(FO_CACHE_DIR), props.getStageCacheSize() * 1024L * 1024L);
+			ifCache = new DiskCache("IF cache", props.getWorkDir().resolve(IF_CACHE_DIR), props.getStageCacheSize() * 1024L * 1024L);
+			assetStore = new AssetStore(props.getWorkDir().resolve(ASSET_STORE_DIR), props.getAssetStoreSize() * 1024L * 1024L);
+			defaultOptimizationLevel = props.getOptimizationLevel();
+			maxRenderTime = props.getMaxRenderTime();
+			laneClassifier = new LaneClassifier(props.getFastLaneMaxInputSize() * 1024L, props.getFastLaneMaxPageSequences(), props.getFastLaneMaxRenderTime());
+			createRenderExecutor(props.getRenderThreads(), props.getRenderQueueSize(), props.getClientWeights(), props.getClientMaxRenders(), props.getFastLaneThreads());
+		}
+		else {
+			resultCache = new ResultCache(null, 0);
+			foCache = new DiskCache("FO cache", null, 0);
+			ifCache = new DiskCache("IF cache", null, 0);
+			assetStore = new AssetStore(null, 0);
+			laneClassifier = new LaneClassifier(AppProperties.DEFAULT_FAST_LANE_MAX_INPUT_SIZE * 1024L,
+					AppProperties.DEFAULT_FAST_LANE_MAX_PAGE_SEQUENCES, AppProperties.DEFAULT_FAST_LANE_MAX_RENDER_TIME);
+			createRenderExecutor(AppProperties.DEFAULT_RENDER_THREADS, AppProperties.DEFAULT_RENDER_QUEUE_SIZE, Map.of(),
+					AppProperties.DEFAULT_CLIENT_MAX_RENDERS, AppProperties.DEFAULT_FAST_LANE_THREADS);
+		}
+	}
+
+	/**
+	 * Creates the pool of render threads and the controller which admits
+	 * jobs to it.
+	 *
+	 * @param threads The number of render threads, 0 for one per available
+	 * 			processor.
+	 * @param queueSize The maximum number of jobs waiting for a thread.
+	 * @param clientWeights The weight of each client's share of the threads.
+	 * @param clientMaxRenders The most jobs run at once for any one client,
+	 * 			0 for no limit.
+	 * @param fastLaneThreads The number of threads reserved for jobs in the
+	 * 			fast lane.
+	 */
+	private void createRenderExecutor(int threads, int queueSize, Map<String, Integer> clientWeights, int clientMaxRenders, int fastLaneThreads)
+	{
+		int threadCnt = (0 == threads) ? Runtime.getRuntime().availableProcessors() : threads;
+		AtomicInteger threadNum = new AtomicInteger();
+
+		logger.info("Rendering with {} threads, {} reserved for the fast lane, queueing up to {} jobs", threadCnt, fastLaneThreads, queueSize);
+
+		admissionController = new AdmissionController(threadCnt, queueSize, clientWeights, clientMaxRenders, fastLaneThreads);
+
+		// Jobs are only handed to the executor once there is a free thread, the admission controller queues them
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "render-deadline");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.setRemoveOnCancelPolicy(true);
+		deadlineTimer = timer;
+
+		renderExecutor = new ThreadPoolExecutor(
+				threadCnt, threadCnt,
+				0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(),
+				runnable -> {
+					Thread thread = new Thread(runnable, "render-" + threadNum.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	public static synchronized PdfJobProcessor getInstance() {
+		if (null == singleton) {
+			try {
+				singleton = new PdfJobProcessor(null);
+			} catch (IOException e) {
+				// Not possible as the caches are disabled
+				throw new IllegalStateException(e);
+			}
+		}
+		return singleton;
+	}
+
+	/**
+	 * Creates the job processor.
+	 *
+	 * @param props The application properties used to configure the
+	 * 			processor.
+	 *
+	 * @return The job processor.
+	 *
+	 * @throws IOException If a cache could not be loaded.
+	 */
+	public static synchronized PdfJobProcessor getInstance(AppProperties props) throws IOException {
+		if (null == singleton) {
+			singleton = new PdfJobProcessor(props);
+		}
+		return singleton;
+	}
+
+	public ResultCache getResultCache() {
+		return resultCache;
+	}
+
+	public DiskCache getFoCache() {
+		return foCache;
+	}
+
+	public DiskCache getIfCache() {
+		return ifCache;
+	}
+
+	public AssetStore getAssetStore() {
+		return assetStore;
+	}
+
+	/**
+	 * Runs a job, or waits for an identical job which is already running,
+	 * leaving the PDF and the job log in the job directory. A duplicate job
+	 * is given links to the original's files, by the original as it
+	 * finishes so before its directory can be released, so each job owns
+	 * its result and can release its directory independently of the others.
+	 *
+	 * @param job The job to run.
+	 *
+	 * @throws TransformerException If the PDF could not be generated.
+	 * @throws IdempotencyKeyConflictException If the job's idempotency key
+	 * 			was used for a job with different inputs.
+	 */
+	public void process(PdfJob job) throws TransformerException
+	{
+		logger.traceEntry();
+
+		if (null == job.getOptimizationLevel()) {
+			job.setOptimizationLevel(defaultOptimizationLevel);
+		}
+
+		String key = getJobKey(job);
+		boolean done = false;
+
+		while (!done) {
+			PdfJob completedJob = getCompletedJob(key, job);
+
+			if (null != completedJob) {
+				logger.info("Job {} is a retry of job {}, using its result", job.getId(), completedJob.getId());
+				done = shareCompletedResult(key, completedJob, job);
+			}
+			else {
+				RunningJob running = new RunningJob(job);
+				RunningJob runningJob = runningJobs.putIfAbsent(key, running);
+
+				if (null != runningJob) {
+					checkSameRequest(runningJob.job, job);
+
+					CompletableFuture<PdfJob> shared = runningJob.join(job);
+					if (null != shared) {
+						logger.info("Job {} is a duplicate of a running job, waiting for it", job.getId());
+						done = awaitOriginal(shared, job);
+					}
+					else {
+						// The original has just finished, and may be releasing its result, so start again
+						runningJobs.remove(key, runningJob);
+					}
+				}
+				else {
+					try {
+						// The original may have finished between the checks above
+						completedJob = getCompletedJob(key, job);
+						if (null == completedJob || !shareCompletedResult(key, completedJob, job)) {
+							run(job);
+
+							if (null != job.getIdempotencyKey()) {
+								completedJobs.put(key, job);
+							}
+						}
+
+						shareWithDuplicates(running);
+					}
+					catch (TransformerException | RuntimeException e) {
+						// However the pipeline failed once stopped, the duplicates need to know it was stopped
+						Exception failure = job.getDeadline().isCancelled() ? new RenderCancelledException(job.getDeadline(), true) : e;
+
+						running.finish().values().forEach(shared -> shared.completeExceptionally(failure));
+						throw e;
+					}
+					finally {
+						runningJobs.remove(key, running);
+					}
+					done = true;
+				}
+			}
+		}
+
+		logger.traceExit();
+	}
+
+	/**
+	 * Waits for the job a duplicate is waiting for to give it its result.
+	 *
+	 * @return true if the duplicate was given the result, false if the
+	 * 			original was stopped, by its own deadline or client, and the
+	 * 			duplicate, which hasn't been, needs to start again.
+	 */
+	private boolean awaitOriginal(CompletableFuture<PdfJob> shared, PdfJob job) throws TransformerException
+	{
+		boolean done = true;
+
+		try {
+			await(shared);
+		}
+		catch (RenderCancelledException e) {
+			if (job.getDeadline().isCancelled()) {
+				throw e;
+			}
+
+			logger.info("Job {} was waiting for a job which was stopped, running it", job.getId());
+			done = false;
+		}
+
+		return done;
+	}
+
+	/**
+	 * Gives the duplicates waiting for a job its result, before the job
+	 * returns and its directory may be released.
+	 */
+	private void shareWithDuplicates(RunningJob running)
+	{
+		running.finish().forEach((duplicate, shared) -> {
+			try {
+				shareResult(running.job, duplicate);
+				shared.complete(running.job);
+			}
+			catch (TransformerException e) {
+				shared.completeExceptionally(e);
+			}
+		});
+	}
+
+	/**
+	 * Gives a retry the result of the job it retries, unless the result has
+	 * been released in the meantime.
+	 *
+	 * @return true if the result was shared, false if the job needs running.
+	 */
+	private boolean shareCompletedResult(String key, PdfJob completedJob, PdfJob job)
+	{
+		boolean shared = true;
+
+		try {
+			shareResult(completedJob, job);
+		}
+		catch (TransformerException e) {
+			logger.info("Result of job {} was released before job {} could use it, running it", completedJob.getId(), job.getId());
+			completedJobs.remove(key);
+			shared = false;
+		}
+
+		return shared;
+	}
+
+	public int getRunningJobCount() {
+		return runningJobs.size();
+	}
+
+	/**
+	 * Queues a job to be run on a render thread, if it is admitted.
+	 *
+	 * @param job The job to run.
+	 *
+	 * @return A future completed with the job once it has finished.
+	 *
+	 * @throws JobRejectedException If the job isn't admitted.
+	 * @throws RejectedExecutionException If the processor has been shut
+	 * 			down.
+	 * @throws IdempotencyKeyConflictException If the job's idempotency key
+	 * 			was used for a job with different inputs.
+	 */
+	public CompletableFuture<PdfJob> submit(PdfJob job)
+	{
+		CompletableFuture<PdfJob> future = new CompletableFuture<>();
+
+		if (renderExecutor.isShutdown()) {
+			throw new RejectedExecutionException("Shutting down");
+		}
+
+		if (null == job.getOptimizationLevel()) {
+			job.setOptimizationLevel(defaultOptimizationLevel);
+		}
+
+		// Reject a conflicting key up front, rather than once the job has waited its turn
+		if (null != job.getIdempotencyKey()) {
+			String key = getJobKey(job);
+			RunningJob runningJob = runningJobs.get(key);
+
+			if (null != runningJob) {
+				checkSameRequest(runningJob.job, job);
+			}
+			getCompletedJob(key, job);
+		}
+
+		LaneClassifier.Estimate estimate = laneClassifier.estimate(job, getInputSize(job));
+		AdmissionController.Ticket ticket = admissionController.admit(job.getClientId(), estimate.getLane(), estimate.getInputBytes(),
+				job.getWorkDir().getFileSystem() instanceof MemoryFileSystem);
+		RenderDeadline deadline = job.getDeadline();
+		RenderThread renderThread = new RenderThread();
+
+		job.setEstimate(estimate);
+		job.setStatus(JobStatus.QUEUED);
+		job.setCompletion(future);
+		activeJobs.put(job.getId(), job);
+		future.whenComplete((done, e) -> {
+			finishedJobs.put(job.getId(), job);
+			activeJobs.remove(job.getId());
+		});
+
+		ScheduledFuture<?> timer = startTimer(deadline);
+
+		deadline.onCancel(() -> {
+			if (ticket.withdraw()) {
+				logger.info("Job {} cancelled while queued: {}", job.getId(), deadline.getReason());
+				job.setFailed(deadline.getReason());
+				future.completeExceptionally(new RenderCancelledException(deadline, false));
+			}
+			else {
+				renderThread.interrupt();
+			}
+		});
+
+		ticket.dispatch(renderExecutor, () -> {
+			try (ticket) {
+				renderThread.enter();
+				job.setStatus(JobStatus.RUNNING);
+				process(job);
+				job.setStatus(JobStatus.DONE);
+				future.complete(job);
+			}
+			catch (TransformerException | RuntimeException e) {
+				// The pipeline may have been stopped while waiting for a duplicate, rather than in the generator
+				Exception failure = (deadline.isCancelled() && !(e instanceof RenderCancelledException)) ? new RenderCancelledException(deadline, true) : e;
+
+				if (failure instanceof RenderCancelledException) {
+					logger.info("Job {} stopped: {}", job.getId(), failure.getMessage());
+				}
+				else {
+					logger.catching(Level.ERROR, e);
+				}
+				job.setFailed((null == failure.getCause()) ? failure.getMessage() : failure.getCause().getMessage());
+				future.completeExceptionally(failure);
+			}
+			finally {
+				renderThread.exit();
+				if (null != timer) {
+					timer.cancel(false);
+				}
+			}
+		},
+		e -> {
+			job.setFailed(e.getMessage());
+			if (null != timer) {
+				timer.cancel(false);
+			}
+			future.completeExceptionally(e);
+		});
+
+		return future;
+	}
+
+	/**
+	 * Runs a job on a render thread, waiting for it to finish. If the render
+	 * doesn't stop once the job's deadline has passed, the wait is given up
+	 * while the render carries on, see {@link PdfJob#whenFinished(Runnable)}.
+	 *
+	 * @param job The job to run.
+	 *
+	 * @throws TransformerException If the PDF could not be generated.
+	 * @throws RenderCancelledException If the job passed its deadline, or
+	 * 			was cancelled.
+	 * @throws JobRejectedException If the job isn't admitted.
+	 */
+	public void render(PdfJob job) throws TransformerException
+	{
+		CompletableFuture<PdfJob> future = submit(job);
+		RenderDeadline deadline = job.getDeadline();
+
+		if (0 == deadline.getTimeoutMillis()) {
+			await(future);
+		}
+		else {
+			try {
+				// Time out a copy, as the job's own future only completes once the render has stopped
+				await(future.copy().orTimeout(deadline.getRemainingMillis() + STOP_GRACE_MILLIS, TimeUnit.MILLISECONDS));
+			}
+			catch (TransformerException e) {
+				if (!(e.getCause() instanceof TimeoutException)) {
+					throw e;
+				}
+
+				// The render hasn't reached a point where it can stop, stop waiting for it
+				logger.warn("Job {} hasn't stopped {} ms after its deadline", job.getId(), STOP_GRACE_MILLIS);
+				deadline.expire();
+				throw new RenderCancelledException(deadline, true);
+			}
+		}
+	}
+
+	/**
+	 * Expires a deadline as soon as it passes, so a job waiting for a render
+	 * thread is cancelled then, rather than when it next checks the
+	 * deadline.
+	 *
+	 * @param deadline The deadline.
+	 *
+	 * @return The timer, to cancel once the job is finished, or null if the
+	 * 			deadline has no limit.
+	 */
+	public ScheduledFuture<?> startTimer(RenderDeadline deadline)
+	{
+		if (0 == deadline.getTimeoutMillis()) {
+			return null;
+		}
+
+		return deadlineTimer.schedule(deadline::expire, deadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates the deadline for a job, from the time the client asked for,
+	 * limited to the service's maximum render time.
+	 *
+	 * @param timeoutSeconds The time, in seconds, the client asked for, 0
+	 * 			for the maximum.
+	 *
+	 * @return The deadline, starting now.
+	 */
+	public RenderDeadline createDeadline(long timeoutSeconds)
+	{
+		long seconds = timeoutSeconds;
+
+		if (0 != maxRenderTime && (0 == seconds || seconds > maxRenderTime)) {
+			seconds = maxRenderTime;
+		}
+
+		return new RenderDeadline(TimeUnit.SECONDS.toMillis(seconds));
+	}
+
+	/**
+	 * Fetches a job submitted to the render executor.
+	 *
+	 * @param id The id of the job.
+	 *
+	 * @return The job, or null if it isn't known, or has finished and is no
+	 * 			longer tracked.
+	 */
+	public PdfJob getSubmittedJob(String id)
+	{
+		PdfJob job = activeJobs.get(id);
+
+		return (null != job) ? job : finishedJobs.get(id);
+	}
+
+	/**
+	 * Admits a job which is rendered by the caller, rather than on a render
+	 * thread, such as one streamed straight to the client. The caller must
+	 * wait for the ticket before rendering and close it afterwards.
+	 *
+	 * @param clientId The id of the client the job is for, null for an
+	 * 			anonymous client.
+	 * @param estimate The job's estimate, from the lane classifier.
+	 *
+	 * @return The job's ticket.
+	 *
+	 * @throws JobRejectedException If the job isn't admitted.
+	 */
+	public AdmissionController.Ticket admit(String clientId, LaneClassifier.Estimate estimate) {
+		return admissionController.admit(clientId, estimate.getLane(), estimate.getInputBytes());
+	}
+
+	public AdmissionController getAdmissionController() {
+		return admissionController;
+	}
+
+	public LaneClassifier getLaneClassifier() {
+		return laneClassifier;
+	}
+
+	public int getQueuedJobCount() {
+		return admissionController.getWaiting();
+	}
+
+	public int getRenderingJobCount() {
+		return admissionController.getRunning();
+	}
+
+	/**
+	 * @return The total size of the files uploaded for a job, used to
+	 * 			estimate the cost of rendering it.
+	 */
+	private long getInputSize(PdfJob job)
+	{
+		long size = 0;
+
+		try (Stream<Path> files = Files.list(job.getWorkDir())) {
+			size = files.filter(Files::isRegularFile).mapToLong(file -> {
+				try {
+					return Files.size(file);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).sum();
+		} catch (IOException | UncheckedIOException e) {
+			logger.debug("Unable to size job {}: {}", job.getId(), e.getMessage());
+		}
+
+		return size;
+	}
+
+	/**
+	 * Stops accepting jobs, letting those already queued finish.
+	 */
+	public void shutdown() {
+		renderExecutor.shutdown();
+		deadlineTimer.shutdown();
+	}
+
+	/**
+	 * Runs a job, leaving the PDF and the job log in the job directory.
+	 * <p>
+	 * FOP's output is kept in memory and fed straight into the rewrite, so
+	 * only the final PDF is written to disk.
+	 *
+	 * @param job The job to run.
+	 *
+	 * @throws TransformerException If the PDF could not be generated.
+	 */
+	private void run(PdfJob job) throws TransformerException
+	{
+		logger.traceEntry();
+
+		String key = job.getInputDigest();
+		long startTime = System.nanoTime();
+
+		if (resultCache.fetch(key, job.getPdfPath(), job.getLogPath())) {
+			logger.info("Using cached result for job {}", job.getId());
+			job.setCacheHit(true);
+			job.addStageTiming("cache", System.nanoTime() - startTime);
+		}
+		else {
+    		PDFGenerator pdfGen = PDFGenerator.getInstance();
+    		ByteArrayOutputStream fopOutStrm = new ByteArrayOutputStream();
+
+    		// The job's files stay registered as assets until the context is closed
+    		try (JobBundle bundle = mountBundle(job);
+    			 JobContext jobContext = pdfGen.createJobContext(job.getWorkDir(), bundle, job.getDeadline()))
+    		{
+	    		if (foCache.isEnabled()) {
+	    			generateStaged(pdfGen, job, jobContext, fopOutStrm);
+	    		}
+	    		else {
+	    			if (job.isFoJob()) {
+	    				pdfGen.generateFromFo(job.getFoPath(), fopOutStrm, job.getLogPath(), job.getLogLevel(), jobContext);
+	    			}
+	    			else {
+	    				pdfGen.generateFromXml(job.getXmlPath(), getTemplates(pdfGen, job), fopOutStrm, job.getLogPath(), job.getLogLevel(), jobContext);
+	    			}
+	    			job.addStageTiming("generate", System.nanoTime() - startTime);
+	    		}
+    		}
+    		catch (IOException e) {
+    			throw new TransformerException("Unable to read bundle: " + e.getMessage(), e);
+    		}
+    		finally {
+    			job.setBundleRoot(null);
+    		}
+
+    		job.setGeneratedSize(fopOutStrm.size());
+
+    		startTime = System.nanoTime();
+    	    rewritePdf(fopOutStrm.toByteArray(), job.getPdfPath(), job.getOptimizationLevel());
+    	    job.addStageTiming("rewrite", System.nanoTime() - startTime);
+
+    	    if (null != job.getEstimate()) {
+    	    	laneClassifier.record(job.getEstimate(), job.getStageTimings().values().stream().mapToLong(Long::longValue).sum());
+    	    }
+
+    	    resultCache.store(key, job.getPdfPath(), job.getLogPath());
+		}
+
+		logger.info("Job {} stage timings: {}", job::getId, job::getStageTimings);
+
+		logger.traceExit();
+	}
+
+	/**
+	 * Mounts the bundle uploaded with a job, if it has one, so its files are
+	 * read in place while the job is rendered.
+	 *
+	 * @return The mounted bundle, or null if the job doesn't have one.
+	 */
+	private JobBundle mountBundle(PdfJob job) throws IOException
+	{
+		JobBundle bundle = null;
+
+		if (null != job.getBundlePath()) {
+			bundle = JobBundle.mount(job.getWorkDir(), job.getBundlePath());
+			job.setBundleRoot(bundle.getRoot());
+		}
+
+		return bundle;
+	}
+
+	/**
+	 * Generates the PDF one stage at a time, with the output of each stage
+	 * saved in the job directory, so the intermediate outputs can be cached.
+	 */
+	private void generateStaged(PDFGenerator pdfGen, PdfJob job, JobContext jobContext, OutputStream outStrm) throws TransformerException
+	{
+		Path foFile = job.isFoJob() ? job.getFoPath() : job.getWorkDir().resolve(STAGE_FO_FILE);
+		Path ifFile = job.getWorkDir().resolve(STAGE_IF_FILE);
+		long startTime = System.nanoTime();
+
+		if (!job.isFoJob()) {
+			String foKey = job.getTransformDigest();
+
+			if (foCache.fetch(foKey, foFile)) {
+				logger.info("Using cached FO for job {}", job.getId());
+			}
+			else {
+				pdfGen.transformToFo(job.getXmlPath(), getTemplates(pdfGen, job), foFile, jobContext);
+				foCache.store(foKey, foFile);
+			}
+			job.addStageTiming("transform", System.nanoTime() - startTime);
+		}
+
+		startTime = System.nanoTime();
+
+		String ifKey;
+		try {
+			ifKey = job.getLayoutDigest(ContentDigest.of(foFile));
+		} catch (IOException e) {
+			throw new TransformerException(e);
+		}
+
+		if (ifCache.fetch(ifKey, ifFile)) {
+			logger.info("Using cached IF for job {}", job.getId());
+
+			// The IF references images by digest, which must resolve to this job's copies
+			job.getResourceDigests().forEach((name, digest) -> jobContext.registerAsset(digest, job.getWorkDir().resolve(name)));
+			if (null != job.getBundleRoot()) {
+				registerBundle(jobContext, job.getBundleRoot());
+			}
+		}
+		else {
+			pdfGen.generateIfFromFo(foFile, ifFile, job.getLogPath(), job.getLogLevel(), jobContext);
+			ifCache.store(ifKey, ifFile);
+		}
+		job.addStageTiming("layout", System.nanoTime() - startTime);
+
+		startTime = System.nanoTime();
+		pdfGen.generateFromIf(ifFile, outStrm, job.getLogPath(), job.getLogLevel(), jobContext);
+		job.addStageTiming("render", System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Registers the files in a job's bundle, whose digests, unlike those of
+	 * uploaded files, aren't known until they are read.
+	 */
+	private void registerBundle(JobContext jobContext, Path bundleRoot) throws TransformerException
+	{
+		try (Stream<Path> files = Files.walk(bundleRoot)) {
+			for (Path file : (Iterable<Path>)files.filter(Files::isRegularFile)::iterator) {
+				jobContext.registerAsset(file);
+			}
+		}
+		catch (IOException e) {
+			throw new TransformerException(e);
+		}
+	}
+
+	private Templates getTemplates(PDFGenerator pdfGen, PdfJob job) throws TransformerException
+	{
+		Templates templates;
+
+		if (null != job.getXsltPath()) {
+			try {
+				templates = pdfGen.getTemplatesCache().getTemplates(job.getXsltPath());
+			} catch (IOException e) {
+				throw new TransformerException(e);
+			}
+		}
+		else {
+			templates = job.getStylesheet().getTemplates();
+		}
+
+		return templates;
+	}
+
+	/**
+	 * Jobs with an idempotency key are identified by it, within the client
+	 * which chose it, otherwise by their inputs and the name of the PDF,
+	 * which is part of the PDF's location.
+	 */
+	private String getJobKey(PdfJob job)
+	{
+		return (null != job.getIdempotencyKey()) ?
+				IDEMPOTENCY_KEY_PREFIX + Objects.toString(job.getClientId(), "") + "/" + job.getIdempotencyKey() :
+				getRequestDigest(job);
+	}
+
+	private String getRequestDigest(PdfJob job) {
+		return job.getInputDigest() + "/" + job.getPdfFile();
+	}
+
+	/**
+	 * Checks a job sharing an idempotency key with an earlier job is a
+	 * retry of it, rather than a different request.
+	 */
+	private void checkSameRequest(PdfJob original, PdfJob job)
+	{
+		if (null != job.getIdempotencyKey() && !getRequestDigest(original).equals(getRequestDigest(job))) {
+			logger.info("Job {} reuses the idempotency key of job {} with different inputs", job.getId(), original.getId());
+			throw new IdempotencyKeyConflictException(job.getIdempotencyKey());
+		}
+	}
+
+	private PdfJob getCompletedJob(String key, PdfJob job)
+	{
+		PdfJob completedJob = completedJobs.get(key);
+
+		// Its directory is deleted once it expires
+		if (null != completedJob && !Files.exists(completedJob.getPdfPath())) {
+			completedJobs.remove(key);
+			completedJob = null;
+		}
+
+		if (null != completedJob) {
+			checkSameRequest(completedJob, job);
+		}
+
+		return completedJob;
+	}
+
+	/**
+	 * Gives a duplicate job the result of the job it duplicated.
+	 */
+	private void shareResult(PdfJob resultJob, PdfJob job) throws TransformerException
+	{
+		try {
+			linkOrCopy(resultJob.getPdfPath(), job.getPdfPath());
+			if (Files.exists(resultJob.getLogPath())) {
+				linkOrCopy(resultJob.getLogPath(), job.getLogPath());
+			}
+		} catch (IOException e) {
+			// The original's directory was released before we got to it, don't leave links to a part of it
+			try {
+				Files.deleteIfExists(job.getPdfPath());
+				Files.deleteIfExists(job.getLogPath());
+			} catch (IOException e2) {
+				e.addSuppressed(e2);
+			}
+			throw new TransformerException("Result of job " + resultJob.getId() + " is no longer available", e);
+		}
+
+		job.setOptimizationLevel(resultJob.getOptimizationLevel());
+		job.setGeneratedSize(resultJob.getGeneratedSize());
+		resultJob.getStageTimings().forEach((stage, millis) -> job.addStageTiming(stage, millis * 1_000_000));
+	}
+
+	private void linkOrCopy(Path source, Path target) throws IOException
+	{
+		try {
+			Files.createLink(target, source);
+		} catch (UnsupportedOperationException | ProviderMismatchException | IOException e) {
+			// A job held in memory can't be linked to the cache on disk
+			Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private PdfJob await(CompletableFuture<PdfJob> runningJob) throws TransformerException
+	{
+		try {
+			return runningJob.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TransformerException("Interrupted waiting for job", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TransformerException te) {
+				throw te;
+			}
+			if (e.getCause() instanceof RuntimeException re) {
+				throw re;
+			}
+			throw new TransformerException(e.getCause());
+		}
+	}
+
+    /**
+     * Rewrites a PDF to optimize its size, reading FOP's output from memory
+     * and writing only the final PDF.
+     *
+     * @param fopPdf The PDF generated by FOP.
+     * @param pdfFile Where to save the optimized PDF.
+     * @param level How much effort to put into reducing the size of the PDF.
+     *
+     * @throws TransformerException If the PDF could not be saved.
+     */
+    private void rewritePdf(byte[] fopPdf, Path pdfFile, OptimizationLevel level) throws TransformerException {
+    	try {
+			Files.write(pdfFile, optimizePdf(fopPdf, level));
+		} catch (IOException ioe) {
+			throw new TransformerException(ioe);
+		}
+    }
+
+    /**
+     * Optimizes the size of a PDF generated by FOP. If the rewrite fails the
+     * PDF is returned as generated.
+     *
+     * @param fopPdf The PDF generated by FOP.
+     * @param level How much effort to put into reducing the size of the PDF.
+     *
+     * @return The optimized PDF.
+     */
+    public byte[] optimizePdf(byte[] fopPdf, OptimizationLevel level) {
+    	logger.traceEntry();
+
+    	byte[] pdf = fopPdf;
+
+    	if (OptimizationLevel.NONE != level) {
+	    	try {
+	    		WriterProperties writerProps = new WriterProperties();
+	    		if (OptimizationLevel.MAXIMUM == level) {
+	    			writerProps.setFullCompressionMode(true).setCompressionLevel(CompressionConstants.BEST_COMPRESSION);
+	    		}
+
+	    		ByteArrayOutputStream outStrm = new ByteArrayOutputStream(fopPdf.length);
+				PdfWriter writer = new PdfWriter(outStrm, writerProps);
+				writer.setSmartMode(OptimizationLevel.COMPRESS != level);
+
+				try (PdfDocument pdfDoc = new PdfDocument(writer);
+					 PdfDocument fopPdfDoc = new PdfDocument(new PdfReader(new RandomAccessSourceFactory().createSource(fopPdf), new ReaderProperties())))
+				{
+					pdfDoc.initializeOutlines();
+
+					fopPdfDoc.copyPagesTo(1, fopPdfDoc.getNumberOfPages(), pdfDoc);
+				}
+
+				pdf = outStrm.toByteArray();
+			} catch (Exception e) {
+				logger.catching(Level.ERROR, e);
+			}
+    	}
+
+		logger.traceExit();
+
+		return pdf;
+    }
+
+    public OptimizationLevel getDefaultOptimizationLevel() {
+    	return defaultOptimizationLevel;
+    }
+}
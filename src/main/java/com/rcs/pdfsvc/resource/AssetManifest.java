@@ -0,0 +1,117 @@
+package com.rcs.pdfsvc.resource;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.rcs.pdf.cache.AssetStore;
+
+/**
+ * A list of the files a render request needs, by name and the SHA-256
+ * digest of their contents. The format is that of sha256sum, one file per
+ * line with the hex encoded digest, whitespace and the file name, e.g.
+ * <pre>
+ * 3a7bd3e2360a3d29eea436fcfb7e44c735d117c42d1c1835420b6b9942dd4f1b  logo.png
+ * </pre>
+ * so a client can create one with <code>sha256sum *</code>. The '*'
+ * sha256sum adds in binary mode is ignored.
+ */
+public final class AssetManifest
+{
+	private final Map<String, String> digests;
+
+	private AssetManifest(Map<String, String> digests) {
+		this.digests = Collections.unmodifiableMap(digests);
+	}
+
+	/**
+	 * Parses a manifest.
+	 *
+	 * @param text The manifest, or null for an empty manifest.
+	 *
+	 * @return The manifest.
+	 *
+	 * @throws IllegalArgumentException If a line isn't a digest followed by
+	 * 			a file name, or the file name is a path.
+	 */
+	public static AssetManifest parse(String text)
+	{
+		Map<String, String> digests = new LinkedHashMap<>();
+
+		if (null != text) {
+			for (String line : text.split("\\R")) {
+				String entry = line.strip();
+
+				if (!entry.isEmpty()) {
+					String[] parts = entry.split("\\s+\\*?", 2);
+
+					if (2 != parts.length || !AssetStore.isDigest(parts[0])) {
+						throw new IllegalArgumentException("Invalid manifest entry: " + entry);
+					}
+
+					String name = parts[1];
+					if (name.contains("/") || name.contains("\\") || ".".equals(name) || "..".equals(name)) {
+						throw new IllegalArgumentException("Manifest file name isn't a plain file name: " + name);
+					}
+
+					digests.put(name, parts[0].toLowerCase(Locale.ROOT));
+				}
+			}
+		}
+
+		return new AssetManifest(digests);
+	}
+
+	/**
+	 * Creates a manifest of files whose digests are already known.
+	 *
+	 * @param digests The digest of each file, by file name.
+	 *
+	 * @return The manifest.
+	 */
+	public static AssetManifest of(Map<String, String> digests) {
+		return new AssetManifest(new LinkedHashMap<>(digests));
+	}
+
+	/**
+	 * @return The digest of each file, by file name.
+	 */
+	public Map<String, String> getDigests() {
+		return digests;
+	}
+
+	public boolean isEmpty() {
+		return digests.isEmpty();
+	}
+
+	/**
+	 * Creates a manifest of the entries of this one whose files aren't in
+	 * the store.
+	 *
+	 * @param store The store to check.
+	 *
+	 * @return The manifest of the missing files.
+	 */
+	public AssetManifest getMissing(AssetStore store)
+	{
+		Map<String, String> missing = new LinkedHashMap<>();
+
+		digests.forEach((name, digest) -> {
+			if (!store.contains(digest)) {
+				missing.put(name, digest);
+			}
+		});
+
+		return new AssetManifest(missing);
+	}
+
+	@Override
+	public String toString() {
+		return digests.entrySet()
+				.stream()
+				.map(entry -> entry.getValue() + "  " + entry.getKey() + "\n")
+				.collect(Collectors.joining());
+	}
+}
@@ -0,0 +1,174 @@
+package com.rcs.pdfsvc.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.jersey.media.multipart.BodyPartEntity;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.FormDataParam;
+
+import com.rcs.pdf.cache.AssetStore;
+import com.rcs.pdf.cache.ContentDigest;
+import com.rcs.pdfsvc.config.AppResourceConfig;
+import com.rcs.pdfsvc.job.PdfJobProcessor;
+
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Configuration;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+
+
+/**
+ * The asset store, holding files clients reference by digest from render
+ * requests so they don't need to be uploaded with every request.
+ * <p>
+ * A client posts the manifest of the files a request needs to
+ * "assets/missing", uploads the files listed in the response to "assets"
+ * and then sends the render request with the manifest in place of the
+ * files.
+ */
+@Path("assets")
+public class AssetResource {
+	private Logger logger;
+
+	@Context
+	private Configuration config;
+
+	public AssetResource () {
+		logger = LogManager.getLogger(AssetResource.class.getName());
+	}
+
+    /**
+     * Method handling HTTP POST requests to find the files of a manifest
+     * which aren't in the asset store.
+     *
+     * @param manifest The manifest, in the format of sha256sum.
+     *
+     * @return Response A {@link}jakarta.ws.rs.core.Response object. Either
+     *         a 200, OK response with the entries of the manifest whose
+     *         files need to be uploaded, empty if there are none, or a 400,
+     *         Bad Request response if the manifest is invalid.
+     */
+    @POST
+    @Path("missing")
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response findMissing(String manifest)
+    {
+    	Response resp;
+
+    	try {
+    		AssetManifest missing = AssetManifest.parse(manifest).getMissing(PdfJobProcessor.getInstance().getAssetStore());
+
+    		logger.debug("{} asset(s) missing", missing.getDigests().size());
+
+    		resp = Response.ok(missing.toString()).build();
+    	}
+    	catch (IllegalArgumentException e) {
+    		logger.info("Invalid manifest: {}", e.getMessage());
+    		resp = Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
+    	}
+
+    	return resp;
+    }
+
+    /**
+     * Method handling HTTP POST requests to add files to the asset store.
+     *
+     * @return Response A {@link}jakarta.ws.rs.core.Response object. Either
+     *         a 200, OK response with the manifest of the files stored, a
+     *         400, Bad Request response if no files were sent, a 413,
+     *         Content Too Large response if a file is larger than the store
+     *         or an uploaded file may be, or a 503, Service Unavailable
+     *         response if the asset store is disabled.
+     */
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response storeAssets(@FormDataParam("files[]") List<FormDataBodyPart> bodyParts)
+    {
+    	Response resp;
+
+		logger.traceEntry();
+
+		AssetStore store = PdfJobProcessor.getInstance().getAssetStore();
+
+		if (null == bodyParts) {
+    		resp = Response.status(Status.BAD_REQUEST).entity("Missing required parameter: \"files\"").build();
+		}
+		else if (!store.isEnabled()) {
+    		resp = Response.status(Status.SERVICE_UNAVAILABLE).entity("The asset store is disabled").build();
+		}
+		else {
+			try {
+				Map<String, String> stored = new LinkedHashMap<>();
+
+    			for (FormDataBodyPart bodyPart : bodyParts) {
+	    			String fileName = java.nio.file.Path.of(bodyPart.getContentDisposition().getFileName()).getFileName().toString();
+
+	    			stored.put(fileName, storeAsset((BodyPartEntity) bodyPart.getEntity(), fileName, store));
+	    		}
+
+    			logger.info("Stored {} asset(s)", stored.size());
+
+    			resp = Response.ok(AssetManifest.of(stored).toString()).build();
+			}
+			catch (UploadTooLargeException e) {
+				logger.warn("Rejecting assets: {}", e.getMessage());
+				resp = UploadLimitFilter.tooLarge(e);
+			}
+			catch (IOException e) {
+				logger.catching(Level.ERROR, e);
+				resp = Response.status(Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
+			}
+		}
+
+		logger.traceExit();
+
+		return resp;
+    }
+
+    /**
+     * Saves an uploaded file in the upload directory, computing its digest
+     * as it is written, then moves it into the store. The file is counted
+     * as it is written, so one larger than the store could hold is
+     * rejected as soon as it passes the limit.
+     */
+    private String storeAsset(BodyPartEntity file, String fileName, AssetStore store) throws IOException
+    {
+    	java.nio.file.Path workDir = (java.nio.file.Path)config.getProperty(AppResourceConfig.WORK_DIR);
+    	long maxSize = Math.min((Long)config.getProperty(AppResourceConfig.MAX_UPLOAD_PART_SIZE), store.getMaxBytes());
+    	java.nio.file.Path uploadFile = Files.createTempFile(workDir.resolve(AppResourceConfig.UPLOAD_DIR), "asset", ".upload");
+    	MessageDigest md = ContentDigest.newDigest();
+
+    	try {
+    		try (InputStream inStrm = new DigestInputStream(new LimitedInputStream(file.getInputStream(), fileName, maxSize), md)) {
+    			Files.copy(inStrm, uploadFile, StandardCopyOption.REPLACE_EXISTING);
+    		}
+
+    		String digest = ContentDigest.toHex(md.digest());
+
+    		store.move(digest, uploadFile);
+
+    		return digest;
+    	}
+    	finally {
+    		Files.deleteIfExists(uploadFile);
+    	}
+    }
+}
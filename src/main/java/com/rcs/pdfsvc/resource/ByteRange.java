@@ -0,0 +1,113 @@
+package com.rcs.pdfsvc.resource;
+
+/**
+ * A single range of bytes requested by a Range header, e.g. "bytes=0-1023",
+ * resolved against the length of the file being downloaded.
+ * <p>
+ * Only a single range is supported, as PDF viewers fetch one range per
+ * request. A request for several ranges is served the whole file, which
+ * the HTTP specification allows.
+ */
+public final class ByteRange
+{
+	private static final String UNIT = "bytes=";
+
+	private final long start;
+	private final long end;
+
+	private ByteRange(long start, long end)
+	{
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Parses a Range header.
+	 *
+	 * @param header The value of the Range header, or null if there isn't one.
+	 * @param length The length of the file.
+	 *
+	 * @return The range to send, or null to send the whole file, as there is
+	 * 			no Range header or it can't be used.
+	 *
+	 * @throws IllegalArgumentException If the range is well formed but none
+	 * 			of it is within the file, so a 416, Range Not Satisfiable,
+	 * 			should be returned.
+	 */
+	public static ByteRange parse(String header, long length)
+	{
+		if (null == header || !header.startsWith(UNIT) || header.indexOf(',') >= 0) {
+			return null;
+		}
+
+		String spec = header.substring(UNIT.length()).trim();
+		int dash = spec.indexOf('-');
+
+		if (dash < 0) {
+			return null;
+		}
+
+		long start;
+		long end;
+
+		try {
+			if (0 == dash) {
+				// The last N bytes
+				long suffix = Long.parseLong(spec.substring(1));
+
+				if (0 == suffix) {
+					throw new IllegalArgumentException("Empty suffix range: " + header);
+				}
+
+				start = Math.max(length - suffix, 0);
+				end = length - 1;
+			}
+			else {
+				start = Long.parseLong(spec.substring(0, dash));
+				end = (dash == spec.length() - 1) ? length - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+
+				if (end < start && start < length) {
+					return null;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+
+		if (start >= length || start < 0) {
+			throw new IllegalArgumentException("Range not satisfiable: " + header);
+		}
+
+		return new ByteRange(start, end);
+	}
+
+	/**
+	 * @return The offset of the first byte.
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return The offset of the last byte, inclusive.
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return The number of bytes in the range.
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Formats the range as a Content-Range header value.
+	 *
+	 * @param length The length of the file.
+	 */
+	public String toContentRange(long length) {
+		return "bytes " + start + "-" + end + "/" + length;
+	}
+}
@@ -0,0 +1,92 @@
+package com.rcs.pdfsvc.resource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from an upload, failing as soon as there are too
+ * many rather than once the whole upload has been read.
+ */
+class LimitedInputStream
+	extends FilterInputStream
+{
+	private final String what;
+	private final long maxSize;
+	private long count = 0;
+
+	/**
+	 * Creates a stream.
+	 *
+	 * @param inStrm The upload.
+	 * @param what What is being uploaded, e.g. the name of the file.
+	 * @param maxSize The most bytes to read, 0 for no limit.
+	 */
+	LimitedInputStream(InputStream inStrm, String what, long maxSize)
+	{
+		super(inStrm);
+
+		this.what = what;
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+
+		if (-1 != b) {
+			counted(1);
+		}
+
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int len = super.read(buffer, offset, length);
+
+		if (len > 0) {
+			counted(len);
+		}
+
+		return len;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long len = super.skip(n);
+
+		if (len > 0) {
+			counted(len);
+		}
+
+		return len;
+	}
+
+	private void counted(long len) throws IOException {
+		count += len;
+
+		if (maxSize > 0 && count > maxSize) {
+			exceeded(count);
+		}
+	}
+
+	/**
+	 * Called once more than the limit has been read.
+	 *
+	 * @param count The number of bytes read.
+	 *
+	 * @throws IOException An {@link UploadTooLargeException}, unless
+	 * 			overridden.
+	 */
+	protected void exceeded(long count) throws IOException {
+		throw new UploadTooLargeException(what, maxSize);
+	}
+
+	/**
+	 * @return The number of bytes read so far.
+	 */
+	long getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,35 @@
+package com.rcs.pdfsvc.resource;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a render request references files by digest which aren't in
+ * the asset store, e.g. because they have been evicted since the client
+ * checked for them.
+ */
+public class MissingAssetsException
+	extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	private final transient AssetManifest missing;
+
+	/**
+	 * Creates an exception.
+	 *
+	 * @param missing The manifest of the files which aren't in the store.
+	 */
+	public MissingAssetsException(AssetManifest missing)
+	{
+		super(missing.getDigests().size() + " referenced asset(s) not in the asset store");
+
+		this.missing = missing;
+	}
+
+	/**
+	 * @return The manifest of the files which aren't in the store.
+	 */
+	public AssetManifest getMissing() {
+		return missing;
+	}
+}
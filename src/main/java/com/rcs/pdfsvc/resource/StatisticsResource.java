@@ -0,0 +1,45 @@
+package com.rcs.pdfsvc.resource;
+
+import com.rcs.pdf.PDFGenerator;
+import com.rcs.pdf.StylesheetRegistry;
+import com.rcs.pdf.fop.FontRepository;
+import com.rcs.pdf.memfs.MemoryFileSystemProvider;
+import com.rcs.pdfsvc.job.PdfJobProcessor;
+
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.core.Response;
+
+
+@Path("statistics")
+public class StatisticsResource {
+
+    /**
+     * Method handling HTTP GET request. Reports the statistics of the caches
+     * used when generating PDFs so they can be sized appropriately.
+     * 
+     * @return Response A {@link}jakarta.ws.rs.core.Response object, always 200, OK.
+     */
+    @GET
+    public Response getStatistics()
+    {
+		PDFGenerator pdfGen = PDFGenerator.getInstance();
+
+		StringBuilder stats = new StringBuilder("Statistics --");
+		stats.append("<br>").append(pdfGen.getTemplatesCache().getCache());
+		stats.append("<br>").append(pdfGen.getFontCache());
+		stats.append("<br>").append(pdfGen.getAssetRegistry().getCache());
+		stats.append("<br>Installed fonts : ").append(FontRepository.getInstance().getFontInfos().size());
+		stats.append("<br>").append(PdfJobProcessor.getInstance().getResultCache());
+		stats.append("<br>").append(PdfJobProcessor.getInstance().getFoCache());
+		stats.append("<br>").append(PdfJobProcessor.getInstance().getIfCache());
+		stats.append("<br>").append(PdfJobProcessor.getInstance().getAssetStore());
+		stats.append("<br>Running jobs : ").append(PdfJobProcessor.getInstance().getRunningJobCount());
+		stats.append("<br>").append(PdfJobProcessor.getInstance().getAdmissionController());
+		stats.append("<br>").append(PdfJobProcessor.getInstance().getLaneClassifier());
+		stats.append("<br>Memory workspace KB : ").append(MemoryFileSystemProvider.getMemoryFileSystem().getUsedBytes() / 1024);
+		stats.append("<br>Registered stylesheets : ").append(StylesheetRegistry.getInstance().getIds().size());
+
+		return Response.ok().entity(stats.toString()).build();
+    }
+}
@@ -0,0 +1,260 @@
+package com.rcs.pdfsvc.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.rcs.pdf.EventLog;
+import com.rcs.pdf.PDFGenerator;
+import com.rcs.pdf.RenderCancelledException;
+import com.rcs.pdf.RenderDeadline;
+import com.rcs.pdf.StylesheetRegistry;
+import com.rcs.pdfsvc.job.AdmissionController;
+import com.rcs.pdfsvc.job.LaneClassifier;
+import com.rcs.pdfsvc.job.OptimizationLevel;
+import com.rcs.pdfsvc.job.PdfJobProcessor;
+
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
+
+
+/**
+ * Renders a single FO document, or an XML document using a registered
+ * stylesheet, sent as the request body. Nothing is written to the work
+ * directory, the request body being parsed straight into FOP, so the
+ * document can't reference any files other than registered assets.
+ */
+@Path("stream")
+public class StreamResource {
+	public static final String MEDIA_TYPE_XSL_FO = "application/xslfo+xml";
+
+	private Logger logger;
+
+	public StreamResource () {
+		logger = LogManager.getLogger(StreamResource.class.getName());
+	}
+
+    /**
+     * Method handling HTTP POST requests to render a PDF from the request
+     * body. If "stylesheetid" is given the body is XML transformed by the
+     * registered stylesheet, otherwise it is FO.
+     * <p>
+     * With an optimization level of "none" the PDF is streamed to the client
+     * as FOP renders it. The log is not available, as the response has
+     * already started by the time it is complete. Any other level needs the
+     * whole PDF to rewrite it, so the PDF is rendered into memory and
+     * returned with the log, Base64 encoded and truncated to 4 KB, in the
+     * X-PDF-Log header.
+     * <p>
+     * A 503, Service Unavailable, with a Retry-After header, is returned if
+     * the service is too busy to render the PDF. Renders are shared fairly
+     * between clients, identified as for xml2pdf requests.
+     * <p>
+     * The render is stopped if it takes longer than "timeout" seconds, as
+     * for xml2pdf requests, or the client disconnects. A render stopped
+     * before the response has started gets a 504, Gateway Timeout, or 408,
+     * Request Timeout, with the partial log, otherwise the response is cut
+     * short.
+     *
+     * @return Response A {@link}jakarta.ws.rs.core.Response object. Will either
+     *         be a 400, Bad Request, 503, Service Unavailable response or
+     *         200, OK with the PDF file.
+     */
+    @POST
+    @Consumes({"application/xml", "text/xml", MEDIA_TYPE_XSL_FO})
+    @Produces("application/pdf")
+    public Response streamPdf(
+    		InputStream body,
+    		@QueryParam("stylesheetid") String stylesheetId,
+    		@QueryParam("pdffile") @DefaultValue("document.pdf") String pdfFile,
+    		@QueryParam("loglevel") String logLevel,
+    		@QueryParam("optimization") String optimization,
+    		@QueryParam("timeout") String timeout,
+    		@Context HttpHeaders headers,
+    		@Context org.glassfish.grizzly.http.server.Request request)
+    {
+    	Response resp;
+
+		logger.traceEntry();
+
+    	logger.info("Received request to stream PDF: {}",  pdfFile);
+
+		StylesheetRegistry.Entry stylesheet = StylesheetRegistry.getInstance().get(stylesheetId);
+		OptimizationLevel optimizationLevel = Xml2PdfResource.parseOptimization(optimization);
+
+		if (null != stylesheetId && null == stylesheet) {
+    		logger.info("Stylesheet {} isn't registered", stylesheetId);
+    		resp = Response.status(Status.BAD_REQUEST).entity("Stylesheet isn't registered: " + stylesheetId).build();
+		}
+		else if (null != optimization && null == optimizationLevel) {
+			logger.info("Invalid optimization level: {}", optimization);
+			resp = Response.status(Status.BAD_REQUEST).entity("Invalid optimization level: " + optimization).build();
+		}
+		else {
+			EventLog eventLog = new EventLog(Level.toLevel(logLevel));
+
+			try {
+				PdfJobProcessor processor = PdfJobProcessor.getInstance();
+				OptimizationLevel level = (null == optimizationLevel) ? processor.getDefaultOptimizationLevel() : optimizationLevel;
+
+				// Rendered on this thread, but still counted against the render limit
+				RenderDeadline deadline = processor.createDeadline(Xml2PdfResource.parseTimeout(timeout));
+				LaneClassifier laneClassifier = processor.getLaneClassifier();
+				// A chunked body's size isn't known, so is estimated as large
+				LaneClassifier.Estimate estimate = laneClassifier.estimate(LaneClassifier.getProfile(stylesheet), headers.getLength(), 0);
+				AdmissionController.Ticket ticket = processor.admit(Xml2PdfResource.getClientId(request), estimate);
+
+				deadline.onCancel(ticket::withdraw);
+
+				if (OptimizationLevel.NONE == level) {
+					StreamingOutput pdfStrm = outStrm -> {
+						ScheduledFuture<?> timer = processor.startTimer(deadline);
+						Runnable cancelListener = Xml2PdfResource.cancelOnDisconnect(request, deadline);
+
+						try (ticket) {
+							awaitStart(ticket, deadline);
+
+							long start = System.nanoTime();
+							render(body, stylesheet, outStrm, eventLog, deadline);
+							laneClassifier.record(estimate, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+						}
+						catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new WebApplicationException(e);
+						}
+						catch (TransformerException e) {
+							// Too late to send an error status, the response has already started
+							logger.catching(e);
+							throw new WebApplicationException(e);
+						}
+						finally {
+							stopTimer(timer);
+							cancelListener.run();
+						}
+					};
+
+					resp = Response.ok(pdfStrm)
+							.type("application/pdf")
+							.header("Content-Disposition", "inline; filename=" + pdfFile)
+							.header(Xml2PdfResource.OPTIMIZATION_HEADER, level)
+							.build();
+				}
+				else {
+					ByteArrayOutputStream fopOutStrm = new ByteArrayOutputStream();
+					long start;
+					long generated;
+					long rewritten;
+					byte[] pdf;
+
+					ScheduledFuture<?> timer = processor.startTimer(deadline);
+					Runnable cancelListener = Xml2PdfResource.cancelOnDisconnect(request, deadline);
+
+					try (ticket) {
+						awaitStart(ticket, deadline);
+
+						start = System.nanoTime();
+						render(body, stylesheet, fopOutStrm, eventLog, deadline);
+						generated = System.nanoTime();
+						pdf = processor.optimizePdf(fopOutStrm.toByteArray(), level);
+						rewritten = System.nanoTime();
+					}
+					finally {
+						stopTimer(timer);
+						cancelListener.run();
+					}
+
+					laneClassifier.record(estimate, TimeUnit.NANOSECONDS.toMillis(rewritten - start));
+
+					resp = Response.ok(pdf)
+							.type("application/pdf")
+							.header("Content-Disposition", "inline; filename=" + pdfFile)
+							.header(Xml2PdfResource.SERVER_TIMING_HEADER,
+									"generate;dur=" + TimeUnit.NANOSECONDS.toMillis(generated - start) +
+									", rewrite;dur=" + TimeUnit.NANOSECONDS.toMillis(rewritten - generated))
+							.header(Xml2PdfResource.OPTIMIZATION_HEADER, level)
+							.header(Xml2PdfResource.GENERATED_SIZE_HEADER, fopOutStrm.size())
+							.header(Xml2PdfResource.SIZE_HEADER, pdf.length)
+							.header(Xml2PdfResource.LOG_HEADER, Xml2PdfResource.encodeLogHeader(eventLog.toString()))
+							.build();
+				}
+
+	    		logger.info("Successfully streamed PDF: {}", pdfFile);
+			}
+			catch (RejectedExecutionException e) {
+				logger.warn("Rejecting request for {}: {}", pdfFile, e.getMessage());
+				resp = Xml2PdfResource.serviceUnavailable(e);
+			}
+			catch (RenderCancelledException e) {
+				logger.warn("Stopped streaming {}: {}", pdfFile, e.getMessage());
+				resp = Xml2PdfResource.renderCancelled(e, eventLog.toString());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				resp = Response.status(Status.SERVICE_UNAVAILABLE).entity("Interrupted waiting to render").build();
+			}
+			catch (NumberFormatException e) {
+				logger.info("Invalid timeout: {}", timeout);
+				resp = Response.status(Status.BAD_REQUEST).entity("Invalid timeout: " + timeout).build();
+			}
+			catch (TransformerException e) {
+				logger.catching(e);
+
+				final String msg = (null == e.getCause()) ? e.getMessage() : e.getCause().getMessage();
+				resp = Response.status(Status.BAD_REQUEST).entity(msg).build();
+			}
+		}
+
+		logger.traceExit();
+
+		return resp;
+    }
+
+    /**
+     * Waits for a render slot, failing if the render is cancelled first.
+     */
+    private void awaitStart(AdmissionController.Ticket ticket, RenderDeadline deadline) throws InterruptedException, RenderCancelledException
+    {
+    	ticket.await();
+
+    	if (deadline.isCancelled()) {
+    		throw new RenderCancelledException(deadline, false);
+    	}
+    }
+
+    private void stopTimer(ScheduledFuture<?> timer) {
+    	if (null != timer) {
+    		timer.cancel(false);
+    	}
+    }
+
+    private void render(InputStream body, StylesheetRegistry.Entry stylesheet, OutputStream outStrm, EventLog eventLog, RenderDeadline deadline) throws TransformerException
+    {
+    	PDFGenerator pdfGen = PDFGenerator.getInstance();
+
+    	if (null == stylesheet) {
+    		pdfGen.generateFromFo(body, outStrm, eventLog, deadline);
+    	}
+    	else {
+    		pdfGen.generateFromXml(body, stylesheet.getTemplates(), outStrm, eventLog, deadline);
+    	}
+    }
+}
@@ -0,0 +1,221 @@
+package com.rcs.pdfsvc.resource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.jersey.media.multipart.BodyPartEntity;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.FormDataParam;
+
+import com.rcs.pdf.StylesheetRegistry;
+
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.UriBuilder;
+import jakarta.ws.rs.core.UriInfo;
+
+
+@Path("stylesheets")
+public class StylesheetResource {
+	private Logger logger;
+
+	public StylesheetResource () {
+		logger = LogManager.getLogger(StylesheetResource.class.getName());
+	}
+
+    /**
+     * Method handling HTTP POST requests to register a stylesheet bundle.
+     * The bundle is compiled and can then be referenced by ID, using the
+     * "stylesheetid" parameter, when converting XML to PDF.
+     *
+     * @return Response A {@link}jakarta.ws.rs.core.Response object. Either
+     *         a 201, Created response with the ID of the stylesheet and its
+     *         location, or a 400, Bad Request response.
+     */
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response registerStylesheet(
+    		@FormDataParam("files[]") List<FormDataBodyPart> bodyParts,
+    		@FormDataParam("xsltfile") String xsltFile,
+    		@Context UriInfo uriInfo)
+    {
+    	Response resp;
+
+		logger.traceEntry();
+
+    	logger.info("Received request to register stylesheet: {}", xsltFile);
+
+    	if (null != xsltFile && null != bodyParts) {
+			try {
+				StylesheetRegistry registry = StylesheetRegistry.getInstance();
+				java.nio.file.Path stagingDir = registry.createStagingDir();
+
+    			try {
+	    			for (FormDataBodyPart bodyPart : bodyParts) {
+		    			BodyPartEntity bodyPartEntity = (BodyPartEntity) bodyPart.getEntity();
+		    			java.nio.file.Path filePath = resolveBundleFile(stagingDir, bodyPart.getContentDisposition().getFileName());
+
+		    			Files.createDirectories(filePath.getParent());
+		    			Files.copy(bodyPartEntity.getInputStream(), filePath);
+		    		}
+    			}
+    			catch (IOException e) {
+    				registry.discardStagingDir(stagingDir);
+    				throw e;
+    			}
+
+    			StylesheetRegistry.Entry entry = registry.register(stagingDir, xsltFile);
+
+	    		URI stylesheetUri = UriBuilder.fromUri(uriInfo.getRequestUri()).path(entry.getId()).build();
+
+	    		logger.info("Registered stylesheet {} as {}", xsltFile, entry.getId());
+
+	    		resp = Response.created(stylesheetUri).entity(entry.getId()).build();
+			}
+			catch (IOException | TransformerException e) {
+				logger.catching(Level.ERROR, e);
+
+				final String msg = (null == e.getCause()) ? e.getMessage() : e.getCause().getMessage();
+				resp = Response.status(Status.BAD_REQUEST).entity(msg).build();
+			}
+    	}
+    	else {
+    		logger.info("Missing parameters required to register stylesheet");
+    		resp = Response.status(Status.BAD_REQUEST).entity("Missing required parameters: \"xsltfile\", \"files\"").build();
+    	}
+
+		logger.traceExit();
+
+		return resp;
+    }
+
+    /**
+     * Resolves the name of an uploaded file of a bundle against the
+     * directory it is being saved to. The relative path is kept, so a
+     * stylesheet can include or import files in a subdirectory of the
+     * bundle, but the file can't be saved outside the directory.
+     *
+     * @param bundleDir The directory the bundle is being saved to.
+     * @param fileName The name of the file as uploaded.
+     *
+     * @return The path to save the file to.
+     *
+     * @throws IOException If the name is absolute, has ".." segments or
+     * 			doesn't name a file in the directory.
+     */
+    static java.nio.file.Path resolveBundleFile(java.nio.file.Path bundleDir, String fileName) throws IOException
+    {
+    	java.nio.file.Path dir = bundleDir.normalize();
+    	java.nio.file.Path filePath = null;
+
+    	if (null != fileName && !fileName.isEmpty()
+    			&& !fileName.startsWith("/") && !fileName.startsWith("\\")
+    			&& !Arrays.asList(fileName.split("[/\\\\]")).contains("..")) {
+    		try {
+    			filePath = dir.resolve(fileName).normalize();
+    		}
+    		catch (InvalidPathException e) {
+    			// Not a valid name on the bundle directory's file system
+    		}
+    	}
+
+    	if (null == filePath || !filePath.startsWith(dir) || filePath.equals(dir)) {
+    		throw new IOException("Invalid file name: " + fileName);
+    	}
+
+    	return filePath;
+    }
+
+    /**
+     * Method handling HTTP GET requests for the list of registered
+     * stylesheets.
+     *
+     * @return Response A {@link}jakarta.ws.rs.core.Response object, always
+     *         200, OK, with one stylesheet ID per line.
+     */
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response listStylesheets()
+    {
+    	return Response.ok(String.join("\n", StylesheetRegistry.getInstance().getIds())).build();
+    }
+
+    /**
+     * Method handling HTTP GET requests for a registered stylesheet.
+     *
+     * @param id The ID of the stylesheet.
+     *
+     * @return Response A {@link}jakarta.ws.rs.core.Response object. Either
+     *         a 404, Not Found response or 200, OK with the name of the main
+     *         stylesheet followed by the files in the bundle.
+     */
+    @GET
+    @Path("{id}")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getStylesheet(@PathParam("id") String id)
+    {
+    	Response resp;
+
+    	StylesheetRegistry.Entry entry = StylesheetRegistry.getInstance().get(id);
+    	if (null != entry) {
+    		resp = Response.ok("main: " + entry.getMainFile() + "\nfiles: " + String.join(", ", entry.getFiles())).build();
+    	}
+    	else {
+			logger.info("Stylesheet {} does not exist", id);
+    		resp = Response.status(Status.NOT_FOUND).build();
+    	}
+
+    	return resp;
+    }
+
+    /**
+     * Method handling HTTP DELETE requests for a registered stylesheet.
+     *
+     * @param id The ID of the stylesheet.
+     *
+     * @return Response A {@link}jakarta.ws.rs.core.Response object. Either
+     *         a 404, Not Found response or 204, No Content.
+     */
+    @DELETE
+    @Path("{id}")
+    public Response deleteStylesheet(@PathParam("id") String id)
+    {
+    	Response resp;
+
+    	try {
+	    	if (StylesheetRegistry.getInstance().remove(id)) {
+	    		logger.info("Removed stylesheet {}", id);
+	    		resp = Response.noContent().build();
+	    	}
+	    	else {
+				logger.info("Stylesheet {} does not exist", id);
+	    		resp = Response.status(Status.NOT_FOUND).build();
+	    	}
+    	}
+    	catch (IOException e) {
+			logger.catching(Level.ERROR, e);
+			resp = Response.status(Status.INTERNAL_SERVER_ERROR).build();
+    	}
+
+    	return resp;
+    }
+}
@@ -0,0 +1,77 @@
+package com.rcs.pdfsvc.resource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+
+
+/**
+ * Limits the size of multipart requests. Jersey buffers every part of a
+ * multipart request before the resource sees any of them, so the limit is
+ * enforced as the body is read, rejecting the request before it fills the
+ * upload directory. A request declaring a larger Content-Length is
+ * rejected without reading any of it.
+ */
+public class UploadLimitFilter
+	implements ContainerRequestFilter
+{
+	private Logger logger;
+	private long maxSize;
+
+	/**
+	 * Creates a filter.
+	 *
+	 * @param maxSize The largest multipart request, in bytes, 0 for no
+	 * 			limit.
+	 */
+	public UploadLimitFilter(long maxSize)
+	{
+		logger = LogManager.getLogger(UploadLimitFilter.class);
+
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext)
+	{
+		MediaType mediaType = requestContext.getMediaType();
+
+		if (maxSize > 0 && null != mediaType && MediaType.MULTIPART_FORM_DATA_TYPE.isCompatible(mediaType)) {
+			if (requestContext.getLength() > maxSize) {
+				logger.warn("Rejecting multipart request of {} bytes", requestContext.getLength());
+				requestContext.abortWith(tooLarge(new UploadTooLargeException("Request", maxSize)));
+			}
+			else {
+				requestContext.setEntityStream(new LimitedInputStream(requestContext.getEntityStream(), "Request", maxSize) {
+					@Override
+					protected void exceeded(long count) {
+						logger.warn("Rejecting multipart request after {} bytes", count);
+
+						// Thrown as unchecked so the multipart reader doesn't turn it into a 400
+						throw new WebApplicationException(tooLarge(new UploadTooLargeException("Request", maxSize)));
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Creates the response to an upload which is too large.
+	 *
+	 * @param e The exception describing which limit was exceeded.
+	 *
+	 * @return A 413, Content Too Large, response.
+	 */
+	public static Response tooLarge(UploadTooLargeException e) {
+		return Response.status(Status.REQUEST_ENTITY_TOO_LARGE)
+				.type(MediaType.TEXT_PLAIN)
+				.entity(e.getMessage())
+				.build();
+	}
+}
@@ -0,0 +1,34 @@
+package com.rcs.pdfsvc.resource;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an uploaded file, or a whole multipart request, is larger
+ * than the service accepts.
+ */
+public class UploadTooLargeException
+	extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates an exception.
+	 *
+	 * @param what What was too large, e.g. the name of the file.
+	 * @param limit The limit exceeded, in bytes.
+	 */
+	public UploadTooLargeException(String what, long limit)
+	{
+		super(what + " is larger than the limit of " + limit + " bytes");
+	}
+
+	/**
+	 * Creates an exception for a limit other than a size.
+	 *
+	 * @param message Which limit was exceeded.
+	 */
+	public UploadTooLargeException(String message)
+	{
+		super(message);
+	}
+}
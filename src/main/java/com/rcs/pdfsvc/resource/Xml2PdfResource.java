@@ -1,44 +1,87 @@
 package com.rcs.pdfsvc.resource;
 
-import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
 
 import javax.xml.transform.TransformerException;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.CloseType;
+import org.glassfish.grizzly.Closeable;
 import org.glassfish.jersey.media.multipart.BodyPartEntity;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
 import org.glassfish.jersey.media.multipart.FormDataParam;
 
-import com.itextpdf.kernel.pdf.PdfDocument;
-import com.itextpdf.kernel.pdf.PdfReader;
-import com.itextpdf.kernel.pdf.PdfWriter;
 import com.rcs.FileCleanupManager;
-import com.rcs.pdf.PDFGenerator;
-import com.rcs.pdf.ThreadWorkDirResolver;
+import com.rcs.pdf.JobBundle;
+import com.rcs.pdf.RenderCancelledException;
+import com.rcs.pdf.RenderDeadline;
+import com.rcs.pdf.StylesheetRegistry;
+import com.rcs.pdf.cache.AssetStore;
+import com.rcs.pdf.cache.ContentDigest;
+import com.rcs.pdf.cache.LruCache;
+import com.rcs.pdf.memfs.MemoryFileSystem;
+import com.rcs.pdf.memfs.MemoryFileSystemProvider;
 import com.rcs.pdfsvc.config.AppResourceConfig;
+import com.rcs.pdfsvc.job.AdmissionController;
+import com.rcs.pdfsvc.job.IdempotencyKeyConflictException;
+import com.rcs.pdfsvc.job.JobRejectedException;
+import com.rcs.pdfsvc.job.JobStatus;
+import com.rcs.pdfsvc.job.OptimizationLevel;
+import com.rcs.pdfsvc.job.PdfJob;
+import com.rcs.pdfsvc.job.PdfJobProcessor;
 
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.Configuration;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.ResponseBuilder;
 import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.core.UriBuilder;
 import jakarta.ws.rs.core.UriInfo;
 
@@ -46,7 +89,35 @@ import jakarta.ws.rs.core.UriInfo;
 
 @Path("xml2pdf")
 public class Xml2PdfResource {
-	private static final String LOG_FILE = "pdfGen.log";
+	public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+	public static final String SERVER_TIMING_HEADER = "Server-Timing";
+	public static final String OPTIMIZATION_HEADER = "X-PDF-Optimization";
+	public static final String GENERATED_SIZE_HEADER = "X-PDF-Generated-Size";
+	public static final String SIZE_HEADER = "X-PDF-Size";
+	public static final String LOG_HEADER = "X-PDF-Log";
+	public static final String JOB_STATUS_HEADER = "X-PDF-Job-Status";
+	public static final String RETRY_AFTER_HEADER = "Retry-After";
+	public static final String DELIVERY_INLINE = "inline";
+	public static final String DELIVERY_ASYNC = "async";
+
+	private static final String JOBS_PATH = "jobs";
+	private static final String UPLOAD_SUFFIX = ".upload";
+	private static final String RANGE_HEADER = "Range";
+	private static final String IF_RANGE_HEADER = "If-Range";
+	private static final String CONTENT_RANGE_HEADER = "Content-Range";
+	private static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+	private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+	private static final int UNPROCESSABLE_CONTENT = 422;
+	// Most of the log which is sent in a header, as proxies limit the size of the headers
+	private static final int MAX_LOG_HEADER_SIZE = 4 * 1024;
+	private static final String LOG_TRUNCATED = "\n[Log truncated]";
+	// Most files and directories a bundle may hold
+	private static final int MAX_BUNDLE_ENTRIES = 10_000;
+
+	// ETags of the PDFs fetched, keyed by the PDF's location, size and modification time
+	private static final LruCache<String, String> etagCache = new LruCache<>("ETag cache", 1000);
+
+	private static final MediaType PDF_MEDIA_TYPE = new MediaType("application", "pdf");
 
 	private Logger logger;
 	
@@ -70,11 +141,75 @@ public class Xml2PdfResource {
     	return workDir;
 	}
 
+	/**
+	 * Creates the directory for a job's files. A small request's directory
+	 * is held in memory, so the job never touches the disk, as long as the
+	 * memory set aside for job directories has room for the request and the
+	 * PDFs rendered from it. Larger requests, and those whose size isn't
+	 * known up front, use the work directory.
+	 *
+	 * @param requestSize The size of the request, or -1 if not known.
+	 */
+	private java.nio.file.Path createJobDir(long requestSize) throws IOException
+	{
+		long maxJobSize = (Long)config.getProperty(AppResourceConfig.MEMORY_WORKSPACE_MAX_JOB_SIZE);
+		long maxSize = (Long)config.getProperty(AppResourceConfig.MEMORY_WORKSPACE_MAX_SIZE);
+		MemoryFileSystem memoryFs = MemoryFileSystemProvider.getMemoryFileSystem();
+
+		java.nio.file.Path parentDir =
+				(requestSize >= 0 && requestSize <= maxJobSize &&
+				 memoryFs.getUsedBytes() + AdmissionController.getWorkspaceSize(requestSize) <= maxSize)
+					? memoryFs.getRoot()
+					: getWorkDir();
+
+		return Files.createTempDirectory(parentDir, "pdfGen");
+	}
+
     /**
-     * Method handling HTTP GET requests. The returned object will be sent
-     * to the client as "text/plain" media type.
+     * Method handling HTTP POST requests to create a PDF. The response is a
+     * 201, Created, with the location of the PDF and the job log as the
+     * "text/plain" body. If "delivery" is "inline", or the client accepts
+     * "application/pdf", the response is instead a 200, OK, with the PDF
+     * itself and the job log, Base64 encoded, in the X-PDF-Log header. A log
+     * larger than 4 KB is truncated, as proxies limit the size of headers.
+     * <p>
+     * If "delivery" is "async" the job is queued and the response is a 202,
+     * Accepted, with the location of the job's status.
+     * <p>
+     * A 503, Service Unavailable, with a Retry-After header, is returned if
+     * the service is too busy to accept the job, and a 413, Content Too
+     * Large, if an uploaded file or the whole request is larger than the
+     * service accepts.
+     * <p>
+     * Jobs are shared fairly between clients, identified by the address of
+     * the request.
+     * <p>
+     * Files in the asset store can be referenced by digest, instead of
+     * being uploaded, by listing them in "manifest" in the format of
+     * sha256sum. They can then be named by "fofile", "xmlfile" and
+     * "xsltfile" as for uploaded files. If any of them aren't in the store
+     * the response is a 409, Conflict, with the manifest of those missing,
+     * which need uploading to the store before the request is retried.
+     * <p>
+     * A request repeated with the same Idempotency-Key header, by the same
+     * client, is given the result of the first rather than being run again.
+     * Reusing a key for a request with different files or options is a
+     * 422, Unprocessable Content.
+     * <p>
+     * The files can also be sent as a single ZIP archive in "bundle", rather
+     * than as many "files[]" parts. The archive is saved as is and its files
+     * read from it in place, with "fofile", "xmlfile" and "xsltfile", and
+     * relative references from them, naming its entries. A file sent as a
+     * "files[]" part takes precedence over an entry of the same name.
+     * <p>
+     * A job must be rendered within "timeout" seconds, limited to the
+     * service's maximum render time, or it is stopped. The response is then
+     * a 504, Gateway Timeout, if the job had started rendering, or a 408,
+     * Request Timeout, if it was still waiting for a render thread, with the
+     * reason and what the job logged before it was stopped. A job is also
+     * stopped if the client disconnects while waiting for the PDF.
      *
-     * @return String that will be returned as a text/plain response.
+     * @return Response A {@link}jakarta.ws.rs.core.Response object.
      */
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
@@ -84,75 +219,200 @@ public class Xml2PdfResource {
     		@FormDataParam("fofile") String foFile,
     		@FormDataParam("xmlfile") String xmlFile,
     		@FormDataParam("xsltfile") String xsltFile,
+    		@FormDataParam("stylesheetid") String stylesheetId,
     		@FormDataParam("pdffile") String pdfFile,
     		@FormDataParam("loglevel") String logLevel,
-    		@Context UriInfo uriInfo)
+    		@FormDataParam("optimization") String optimization,
+    		@FormDataParam("delivery") String delivery,
+    		@FormDataParam("timeout") String timeout,
+    		@FormDataParam("manifest") String manifest,
+    		@FormDataParam("bundle") FormDataBodyPart bundlePart,
+    		@HeaderParam(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+    		@Context HttpHeaders headers,
+    		@Context UriInfo uriInfo,
+    		@Context org.glassfish.grizzly.http.server.Request request)
     {
     	Response resp;
 
 		logger.traceEntry();
 
     	logger.info("Received request to create PDF: {}",  pdfFile);
-    	
+
+    	AssetManifest assets = parseManifest(manifest);
+    	OptimizationLevel optimizationLevel = parseOptimization(optimization);
+    	long timeoutSeconds = -1;
+
+    	try {
+    		timeoutSeconds = parseTimeout(timeout);
+    	}
+    	catch (NumberFormatException e) {
+    		logger.info("Invalid timeout: {}", timeout);
+    	}
+
+    	if (null == assets) {
+    		resp = Response.status(Status.BAD_REQUEST).entity("Invalid manifest").build();
+    	}
+    	else if (null != optimization && null == optimizationLevel) {
+    		logger.info("Invalid optimization level: {}", optimization);
+    		resp = Response.status(Status.BAD_REQUEST).entity("Invalid optimization level: " + optimization).build();
+    	}
+    	else if (timeoutSeconds < 0) {
+    		resp = Response.status(Status.BAD_REQUEST).entity("Invalid timeout: " + timeout).build();
+    	}
     	// Check if a PDF filename, and a source file or files were provided
-    	if (null != pdfFile && null != bodyParts && null != fileDispositions) {
-    		Set<String> filenames = new HashSet<>();
+    	else if (null != pdfFile && ((null != bodyParts && null != fileDispositions) || !assets.isEmpty() || null != bundlePart)) {
+    		Set<String> filenames = new HashSet<>(assets.getDigests().keySet());
     		
     		// Create a set of filenames that were sent
-    		for (FormDataContentDisposition contentDisp : fileDispositions) {
-    			filenames.add(contentDisp.getFileName());
+    		if (null != fileDispositions) {
+	    		for (FormDataContentDisposition contentDisp : fileDispositions) {
+	    			filenames.add(contentDisp.getFileName());
+	    		}
     		}
     		
+    		// A registered stylesheet can be used in place of an uploaded one
+    		StylesheetRegistry.Entry stylesheet = StylesheetRegistry.getInstance().get(stylesheetId);
+
+    		// Any file may be in the bundle, which is checked once it has been saved
+    		Predicate<String> provided = fileName -> null != fileName && (filenames.contains(fileName) || null != bundlePart);
+
     		// check if the filename(s) specified were in the set provided
-    		if ( (null != foFile && filenames.contains(foFile)) ||
-	    		 (null != xmlFile && filenames.contains(xmlFile) &&
-	    		  null != xsltFile && filenames.contains(xsltFile)) )
+    		if ( provided.test(foFile) ||
+	    		 (provided.test(xmlFile) && (provided.test(xsltFile) || null != stylesheet)) )
 	    	{
+				PdfJob job = null;
+
 				try {
-					// create a temporary directory in the work directory for storing our files
-	    			java.nio.file.Path tempDir = Files.createTempDirectory(getWorkDir(), "pdfGen");
+					// create a temporary directory, in memory or the work directory, for storing our files
+	    			java.nio.file.Path tempDir = createJobDir(getJobSize(headers.getLength(), assets));
 
 	    			FileCleanupManager.getInstance().addEntry(tempDir, 15, TimeUnit.MINUTES);
-	    			
+
+	    			job = new PdfJob(tempDir, pdfFile, Level.toLevel(logLevel));
+	    			job.setIdempotencyKey(idempotencyKey);
+	    			job.setClientId(getClientId(request));
+	    			job.setDeadline(PdfJobProcessor.getInstance().createDeadline(timeoutSeconds));
+	    			job.setOptimizationLevel(optimizationLevel);
+
 	    			// Save the uploaded files to the temporary directory
-	    			for (FormDataBodyPart bodyPart : bodyParts) {
-		    			BodyPartEntity bodyPartEntity = (BodyPartEntity) bodyPart.getEntity();
-		    			String fileName = bodyPart.getContentDisposition().getFileName();
-		
-		    			saveFile(bodyPartEntity.getInputStream(), tempDir.resolve(fileName));
-		    		}
+	    			if (null != bodyParts) {
+		    			for (FormDataBodyPart bodyPart : bodyParts) {
+			    			BodyPartEntity bodyPartEntity = (BodyPartEntity) bodyPart.getEntity();
+			    			String fileName = bodyPart.getContentDisposition().getFileName();
+			
+			    			String digest = saveFile(bodyPartEntity, resolveUpload(tempDir, fileName));
+			    			job.addInputDigest(fileName, digest);
+			    		}
+	    			}
 
-	    			// Create a log file for the transformation results
-		    		java.nio.file.Path tmpLogFile = tempDir.resolve(LOG_FILE);
+	    			// Along with those referenced from the asset store
+	    			fetchAssets(assets, job);
 
-		    		// Initialize the PDF Generator
-		    		PDFGenerator pdfGen = PDFGenerator.getInstance();
-		    		
-		    		ThreadWorkDirResolver.setWorkDir(tempDir);
 		    		if (null != foFile) {
-		    			pdfGen.generateFromFo(tempDir.resolve(foFile), tempDir.resolve(pdfFile), tmpLogFile, Level.toLevel(logLevel));
+		    			job.setFoFile(foFile);
+		    		}
+		    		else if (provided.test(xsltFile)) {
+		    			job.setXmlFile(xmlFile, xsltFile);
 		    		}
 		    		else {
-		    			pdfGen.generateFromXml(tempDir.resolve(xmlFile), tempDir.resolve(xsltFile), tempDir.resolve(pdfFile), tmpLogFile, Level.toLevel(logLevel));
+		    			job.setXmlFile(xmlFile, stylesheet);
 		    		}
-		    		ThreadWorkDirResolver.removeWorkDir();
-		    		
-		    	    rewritePdf(tempDir.resolve(pdfFile).toFile());
-		    		
-		    		// Return the location of the PDF file and the contents of the log file as the response body
-		    		UriBuilder uriBldr =
-		    				UriBuilder.fromUri(uriInfo.getRequestUri())
-		    						  .path(tempDir.getFileName().toString())
-		    						  .path(pdfFile);
-		    		
-		    		URI pdfUri = uriBldr.build();
-		    		
-		    		logger.info("Successfully created PDF: {}",  pdfUri);
-
-		    		resp = Response
-		    				.created(pdfUri)
-		    				.entity(Files.exists(tmpLogFile) ? new String(Files.readAllBytes(tmpLogFile)) : "Log not available")
-		    				.build();
+
+		    		if (null != bundlePart) {
+		    			List<String> sourceFiles =
+		    					job.isFoJob() ? List.of(foFile) :
+		    					(null == job.getXsltPath()) ? List.of(xmlFile) : List.of(xmlFile, xsltFile);
+
+		    			saveBundle(bundlePart, job, sourceFiles);
+		    		}
+
+		    		if (DELIVERY_ASYNC.equalsIgnoreCase(delivery)) {
+		    			PdfJobProcessor.getInstance().submit(job).whenComplete((done, e) -> {
+		    				// Nothing the client can fetch is left by a stopped job
+		    				if (e instanceof RenderCancelledException) {
+		    					FileCleanupManager.getInstance().deleteEntry(tempDir);
+		    				}
+		    			});
+
+		    			// Return where to poll for the job's progress
+		    			URI jobUri = getJobUri(uriInfo, job.getId());
+
+		    			logger.info("Queued PDF: {} as job {}", pdfFile, jobUri);
+
+		    			resp = Response.accepted(job.getStatus().toString())
+		    					.location(jobUri)
+		    					.header(JOB_STATUS_HEADER, job.getStatus())
+		    					.build();
+		    		}
+		    		else {
+		    			Runnable cancelListener = cancelOnDisconnect(request, job.getDeadline());
+
+		    			try {
+		    				PdfJobProcessor.getInstance().render(job);
+		    			}
+		    			finally {
+		    				cancelListener.run();
+		    			}
+
+			    		java.nio.file.Path tmpLogFile = job.getLogPath();
+			    		String logText = Files.exists(tmpLogFile) ? new String(Files.readAllBytes(tmpLogFile), StandardCharsets.UTF_8) : "Log not available";
+
+			    		if (isInlineDelivery(delivery, headers)) {
+				    		logger.info("Successfully created PDF: {}, returning it inline", pdfFile);
+
+				    		// Return the PDF itself, with the log in a header, and release the job directory once it has been sent
+				    		resp = addJobHeaders(Response.ok(streamAndRelease(job)), job)
+				    				.type("application/pdf")
+				    				.header("Content-Disposition", "inline; filename=" + pdfFile)
+				    				.header(LOG_HEADER, encodeLogHeader(logText))
+				    				.build();
+			    		}
+			    		else {
+				    		// Return the location of the PDF file and the contents of the log file as the response body
+				    		UriBuilder uriBldr =
+				    				UriBuilder.fromUri(uriInfo.getRequestUri())
+				    						  .path(tempDir.getFileName().toString())
+				    						  .path(pdfFile);
+			    		
+				    		URI pdfUri = uriBldr.build();
+			    		
+				    		logger.info("Successfully created PDF: {}",  pdfUri);
+
+				    		resp = addJobHeaders(Response.created(pdfUri), job)
+				    				.entity(logText)
+				    				.build();
+			    		}
+		    		}
+				}
+				catch (RejectedExecutionException e) {
+					logger.warn("Rejecting request for {}: {}", pdfFile, e.getMessage());
+					resp = serviceUnavailable(e);
+				}
+				catch (IdempotencyKeyConflictException e) {
+					logger.info("Rejecting request for {}: {}", pdfFile, e.getMessage());
+					resp = Response.status(UNPROCESSABLE_CONTENT).type(MediaType.TEXT_PLAIN_TYPE).entity(e.getMessage()).build();
+
+					FileCleanupManager.getInstance().deleteEntry(job.getWorkDir());
+				}
+				catch (UploadTooLargeException e) {
+					logger.warn("Rejecting request for {}: {}", pdfFile, e.getMessage());
+					resp = UploadLimitFilter.tooLarge(e);
+
+					FileCleanupManager.getInstance().deleteEntry(job.getWorkDir());
+				}
+				catch (MissingAssetsException e) {
+					logger.info("Rejecting request for {}: {}", pdfFile, e.getMessage());
+					resp = Response.status(Status.CONFLICT).type(MediaType.TEXT_PLAIN_TYPE).entity(e.getMissing().toString()).build();
+
+					FileCleanupManager.getInstance().deleteEntry(job.getWorkDir());
+				}
+				catch (RenderCancelledException e) {
+					logger.warn("Stopped rendering {}: {}", pdfFile, e.getMessage());
+					resp = renderCancelled(e, readLog(job.getLogPath()));
+
+					// The partial output is of no use, so don't wait for it to expire, but a render which hasn't stopped may still be writing it
+					PdfJob stopped = job;
+					job.whenFinished(() -> FileCleanupManager.getInstance().deleteEntry(stopped.getWorkDir()));
 				}
 				catch (IOException | TransformerException e) {
 					logger.catching(e);
@@ -163,7 +423,7 @@ public class Xml2PdfResource {
 	    	}
         	else {
         		logger.info("Missing input file(s) or file(s) specfied were not provided");
-        		resp = Response.status(Status.BAD_REQUEST).entity("Missing required parameters: missing filename or filename referenced isn't in the set of files provided").build();
+        		resp = Response.status(Status.BAD_REQUEST).entity("Missing required parameters: missing filename, filename referenced isn't in the set of files provided or stylesheet isn't registered").build();
         	}
     	}
     	else {
@@ -176,81 +436,528 @@ public class Xml2PdfResource {
 		return resp;
     }
 
-    private void saveFile(InputStream file, java.nio.file.Path filePath) {
-		try {
-			Files.copy(file, filePath);
-		} catch (IOException ie) {
-			logger.catching(Level.ERROR, ie);
-		}
-	}
-    
-
     /**
-     * Creates a new File object using the source file and the new extension.
-     * 
-     * @param srcFile A File object
-     * @param newExtension The new extension to use for the file
-     * 
-     * @return A new file object with the new extension
+     * Method handling HTTP GET requests for the progress of a job queued
+     * with "delivery" set to "async". The status, one of QUEUED, RUNNING,
+     * DONE or FAILED, is in the X-PDF-Job-Status header. Once the job is
+     * DONE the location of the PDF is in the Content-Location header and the
+     * job log is the "text/plain" body. If the job FAILED the body is the
+     * reason.
+     *
+     * @param id The id of the job.
+     *
+     * @return Response A {@link}jakarta.ws.rs.core.Response object. Will either
+     *         be a 404, Not Found response or 200, OK with the job's status.
      */
-    private File changeExtension(File srcFile, String newExtension) {
-    	int i = srcFile.getName().lastIndexOf('.');
-    	String name = srcFile.getName().substring(0,i);
+    @GET
+    @Path(JOBS_PATH + "/{id}")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response fetchJobStatus(
+    		@PathParam("id") String id,
+    		@Context UriInfo uriInfo)
+    {
+    	Response resp;
 
-    	return new File(srcFile.getParent() + File.separator + name + newExtension);
-    }
-    
-    /**
-     * Rewrites a PDF file to optimize the size of the PDF file.
-     * 
-     * @param pdfFile The PDF file to be optimized. 
-     */
-    private void rewritePdf(File pdfFile) {
-    	logger.traceEntry();
+		logger.traceEntry();
 
-    	File orgPdfFile = changeExtension(pdfFile, ".org.pdf");
-    	pdfFile.renameTo(orgPdfFile);
+		PdfJob job = PdfJobProcessor.getInstance().getSubmittedJob(id);
 
-    	try {
-			PdfWriter writer = new PdfWriter(pdfFile);
-			writer.setSmartMode(true);
+		if (null == job) {
+			logger.info("Job {} does not exist", id);
+			resp = Response.status(Status.NOT_FOUND).build();
+		}
+		else {
+			JobStatus status = job.getStatus();
+			ResponseBuilder respBldr = Response.ok().header(JOB_STATUS_HEADER, status);
 
-			try (PdfDocument pdfDoc = new PdfDocument(writer) ) {
-				pdfDoc.initializeOutlines();
+			try {
+				if (JobStatus.DONE == status) {
+					java.nio.file.Path logFile = job.getLogPath();
 
-				try (PdfDocument orgPdfDoc = new PdfDocument(new PdfReader(orgPdfFile))) {
-					orgPdfDoc.copyPagesTo(1, orgPdfDoc.getNumberOfPages(), pdfDoc);
+					respBldr = addJobHeaders(respBldr, job)
+							.contentLocation(uriInfo.getBaseUriBuilder().path(Xml2PdfResource.class).path(id).path(job.getPdfFile()).build())
+							.entity(Files.exists(logFile) ? new String(Files.readAllBytes(logFile), StandardCharsets.UTF_8) : "Log not available");
+				}
+				else if (JobStatus.FAILED == status) {
+					respBldr.entity(job.getFailureMessage());
 				}
-				catch (IOException ioe) {
-					logger.catching(Level.ERROR, ioe);
+				else {
+					respBldr.entity(status.toString());
 				}
+
+				resp = respBldr.build();
 			}
-			catch (Exception e) {
-				logger.catching(Level.ERROR, e);
+			catch (IOException e) {
+				// The job directory has been cleaned up
+				logger.info("Result of job {} is no longer available", id);
+				resp = Response.status(Status.NOT_FOUND).build();
 			}
-		} catch (IOException ioe) {
-			logger.catching(Level.ERROR, ioe);
 		}
 
 		logger.traceExit();
+
+		return resp;
+    }
+
+    private URI getJobUri(UriInfo uriInfo, String id) {
+    	return uriInfo.getBaseUriBuilder().path(Xml2PdfResource.class).path(JOBS_PATH).path(id).build();
+    }
+
+    /**
+     * Identifies the client a request is from, for sharing the render
+     * threads between clients. Clients aren't authenticated, so the client
+     * is the address the request came from rather than anything it sends,
+     * which it could vary to claim a bigger share or escape its limit.
+     *
+     * @return The remote address, or null if it isn't known.
+     */
+    static String getClientId(org.glassfish.grizzly.http.server.Request request) {
+    	return (null == request) ? null : request.getRemoteAddr();
+    }
+
+    /**
+     * Parses the time, in seconds, a client allows for a job.
+     *
+     * @return The time, 0 if the client didn't give one.
+     *
+     * @throws NumberFormatException If the time isn't a whole number of
+     * 			seconds.
+     */
+    static long parseTimeout(String timeout) throws NumberFormatException
+    {
+    	long seconds = (null == timeout || timeout.isBlank()) ? 0 : Long.parseLong(timeout.trim());
+
+    	if (seconds < 0) {
+    		throw new NumberFormatException("Negative timeout: " + timeout);
+    	}
+
+    	return seconds;
+    }
+
+    /**
+     * Cancels a render if the client disconnects before it is finished, so
+     * the render thread is free for clients still waiting.
+     *
+     * @return An action which stops listening for the client to disconnect,
+     * 			to be run once the render is finished.
+     */
+    static Runnable cancelOnDisconnect(org.glassfish.grizzly.http.server.Request request, RenderDeadline deadline)
+    {
+    	if (null == request || null == request.getConnection()) {
+    		return () -> {};
+    	}
+
+    	CloseListener<Closeable, CloseType> listener = (closeable, type) -> deadline.cancel("Client disconnected");
+
+    	request.getConnection().addCloseListener(listener);
+
+    	return () -> request.getConnection().removeCloseListener(listener);
+    }
+
+    /**
+     * Creates the response for a render stopped by its deadline, or
+     * cancelled, with the reason and the partial log.
+     */
+    static Response renderCancelled(RenderCancelledException e, String logText) {
+    	return Response.status(e.isStarted() ? Status.GATEWAY_TIMEOUT : Status.REQUEST_TIMEOUT)
+    			.type(MediaType.TEXT_PLAIN)
+    			.entity(e.getMessage() + "\n" + logText)
+    			.build();
+    }
+
+    /**
+     * Encodes a job log for the X-PDF-Log header, keeping only the start of
+     * a large log.
+     *
+     * @return The Base64 encoded log.
+     */
+    static String encodeLogHeader(String logText)
+    {
+    	byte[] log = logText.getBytes(StandardCharsets.UTF_8);
+
+    	if (log.length > MAX_LOG_HEADER_SIZE) {
+    		byte[] marker = LOG_TRUNCATED.getBytes(StandardCharsets.UTF_8);
+    		int end = MAX_LOG_HEADER_SIZE - marker.length;
+
+    		// Don't split a character
+    		while (end > 0 && (log[end] & 0xC0) == 0x80) {
+    			end--;
+    		}
+
+    		byte[] truncated = Arrays.copyOf(log, end + marker.length);
+    		System.arraycopy(marker, 0, truncated, end, marker.length);
+    		log = truncated;
+    	}
+
+    	return Base64.getEncoder().encodeToString(log);
+    }
+
+    private String readLog(java.nio.file.Path logFile)
+    {
+    	String logText = "Log not available";
+
+    	try {
+    		if (Files.exists(logFile)) {
+    			logText = new String(Files.readAllBytes(logFile), StandardCharsets.UTF_8);
+    		}
+    	} catch (IOException e) {
+    		logger.debug("Unable to read {}: {}", logFile, e.getMessage());
+    	}
+
+    	return logText;
+    }
+
+    /**
+     * Creates the response for a job which wasn't admitted, telling the
+     * client when to retry if the reason is that the service is busy.
+     */
+    static Response serviceUnavailable(RejectedExecutionException e) {
+    	return Response.status(Status.SERVICE_UNAVAILABLE)
+    			.header(RETRY_AFTER_HEADER, (e instanceof JobRejectedException jre) ? jre.getRetryAfter() : null)
+    			.entity(e.getMessage() + ", try again later")
+    			.build();
+    }
+
+    /**
+     * Checks if the PDF should be returned in the response rather than
+     * being fetched by a separate request, either because the client asked
+     * for inline delivery or because it explicitly accepts a PDF.
+     */
+    private boolean isInlineDelivery(String delivery, HttpHeaders headers) {
+    	return DELIVERY_INLINE.equalsIgnoreCase(delivery) ||
+    		   headers.getAcceptableMediaTypes()
+    		   		  .stream()
+    		   		  .anyMatch(mediaType -> !mediaType.isWildcardType() && !mediaType.isWildcardSubtype() && mediaType.isCompatible(PDF_MEDIA_TYPE));
+    }
+
+    /**
+     * Streams a job's PDF to the client, then deletes the job directory as
+     * the PDF won't be fetched again.
+     */
+    private StreamingOutput streamAndRelease(PdfJob job) {
+    	return outStrm -> {
+    		try {
+    			Files.copy(job.getPdfPath(), outStrm);
+    		}
+    		finally {
+    			FileCleanupManager.getInstance().deleteEntry(job.getWorkDir());
+    		}
+    	};
+    }
+
+    /**
+     * Adds the headers describing how the PDF was generated, reporting the
+     * effect of the optimization so callers can choose the level that
+     * suits them.
+     */
+    private ResponseBuilder addJobHeaders(ResponseBuilder respBldr, PdfJob job) throws IOException {
+    	return respBldr
+    			.header(SERVER_TIMING_HEADER, getServerTiming(job))
+    			.header(OPTIMIZATION_HEADER, job.getOptimizationLevel())
+    			.header(GENERATED_SIZE_HEADER, (job.getGeneratedSize() < 0) ? null : job.getGeneratedSize())
+    			.header(SIZE_HEADER, Files.size(job.getPdfPath()));
+    }
+
+    /**
+     * Formats the time taken by each stage of a job as a Server-Timing
+     * header value, e.g. "generate;dur=1200, rewrite;dur=300".
+     */
+    private String getServerTiming(PdfJob job) {
+    	return job.getStageTimings()
+    			.entrySet()
+    			.stream()
+    			.map(timing -> timing.getKey() + ";dur=" + timing.getValue())
+    			.collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Parses the optimization level a client asked for.
+     *
+     * @return The level, or null if the client didn't ask for one or it
+     * 			isn't valid.
+     */
+    static OptimizationLevel parseOptimization(String optimization)
+    {
+    	OptimizationLevel level = null;
+
+    	try {
+    		if (null != optimization) {
+    			level = OptimizationLevel.parse(optimization);
+    		}
+    	}
+    	catch (IllegalArgumentException e) {
+    		// Not a level, which the caller reports
+    	}
+
+    	return level;
+    }
+
+    /**
+     * Parses the manifest of the files referenced from the asset store.
+     *
+     * @return The manifest, empty if there isn't one, or null if it is
+     * 			invalid.
+     */
+    private AssetManifest parseManifest(String manifest)
+    {
+    	AssetManifest assets = null;
+
+    	try {
+    		assets = AssetManifest.parse(manifest);
+    	}
+    	catch (IllegalArgumentException e) {
+    		logger.info("Invalid manifest: {}", e.getMessage());
+    	}
+
+    	return assets;
+    }
+
+    /**
+     * Estimates the size of a job's files, the request plus the files it
+     * references from the asset store, to decide where to keep them.
+     *
+     * @return The size, or -1 if the size of the request isn't known.
+     */
+    private long getJobSize(long requestSize, AssetManifest assets)
+    {
+    	long size = requestSize;
+
+    	if (size >= 0) {
+    		AssetStore store = PdfJobProcessor.getInstance().getAssetStore();
+
+    		for (String digest : assets.getDigests().values()) {
+    			size += Math.max(store.getSize(digest), 0);
+    		}
+    	}
+
+    	return size;
+    }
+
+    /**
+     * Copies the files a job references from the asset store into the job
+     * directory, linking them where possible, so the rest of the pipeline
+     * finds them as if they had been uploaded.
+     *
+     * @throws MissingAssetsException If any of the files aren't in the
+     * 			store, e.g. because they have been evicted.
+     */
+    private void fetchAssets(AssetManifest assets, PdfJob job) throws MissingAssetsException
+    {
+    	AssetStore store = PdfJobProcessor.getInstance().getAssetStore();
+    	Map<String, String> missing = new LinkedHashMap<>();
+
+    	assets.getDigests().forEach((fileName, digest) -> {
+    		if (store.fetch(digest, job.getWorkDir().resolve(fileName))) {
+    			job.addInputDigest(fileName, digest);
+    		}
+    		else {
+    			missing.put(fileName, digest);
+    		}
+    	});
+
+    	if (!missing.isEmpty()) {
+    		throw new MissingAssetsException(AssetManifest.of(missing));
+    	}
+    }
+
+    /**
+     * Saves the ZIP bundle of a job's files in the job directory, unopened,
+     * then checks it won't expand beyond the upload limits and the files
+     * the PDF is generated from, those which weren't uploaded separately,
+     * are in it.
+     *
+     * @param sourceFiles The names of the files the PDF is generated from.
+     *
+     * @throws UploadTooLargeException If the bundle holds too many files, a
+     * 			file larger than an uploaded file may be or more than a
+     * 			whole request may hold.
+     * @throws FileNotFoundException If one of the files isn't in the
+     * 			bundle.
+     * @throws IOException If the bundle could not be saved or isn't a ZIP
+     * 			archive.
+     */
+    private void saveBundle(FormDataBodyPart bundlePart, PdfJob job, List<String> sourceFiles) throws IOException
+    {
+    	java.nio.file.Path bundleFile = job.getWorkDir().resolve(PdfJob.BUNDLE_FILE);
+
+    	job.addInputDigest(PdfJob.BUNDLE_FILE, saveFile((BodyPartEntity) bundlePart.getEntity(), bundleFile));
+    	job.setBundle(true);
+
+    	try (JobBundle bundle = JobBundle.mount(job.getWorkDir(), bundleFile)) {
+    		checkBundleSize(bundle);
+
+    		for (String sourceFile : sourceFiles) {
+    			if (!Files.exists(job.getWorkDir().resolve(sourceFile)) && !Files.isRegularFile(bundle.getRoot().resolve(sourceFile))) {
+    				throw new FileNotFoundException(sourceFile + " wasn't provided or found in the bundle");
+    			}
+    		}
+    	}
+    	catch (ZipException e) {
+    		throw new IOException("The bundle isn't a ZIP archive: " + e.getMessage());
+    	}
+    }
+
+    /**
+     * Checks the sizes the bundle's directory records for its files, before
+     * any are read, so a small archive which expands into a huge amount of
+     * data is turned away.
+     */
+    private void checkBundleSize(JobBundle bundle) throws IOException
+    {
+    	long maxPartSize = (Long)config.getProperty(AppResourceConfig.MAX_UPLOAD_PART_SIZE);
+    	long maxSize = (Long)config.getProperty(AppResourceConfig.MAX_UPLOAD_SIZE);
+    	long totalSize = 0;
+    	int entries = 0;
+
+    	try (Stream<java.nio.file.Path> files = Files.walk(bundle.getRoot())) {
+    		for (Iterator<java.nio.file.Path> itor = files.iterator(); itor.hasNext(); ) {
+    			java.nio.file.Path file = itor.next();
+
+    			if (++entries > MAX_BUNDLE_ENTRIES) {
+    				throw new UploadTooLargeException("The bundle holds more than " + MAX_BUNDLE_ENTRIES + " files");
+    			}
+
+    			if (Files.isRegularFile(file)) {
+    				long size = Files.size(file);
+
+    				if (size > maxPartSize) {
+    					throw new UploadTooLargeException(file.toString(), maxPartSize);
+    				}
+
+    				totalSize += size;
+    				if (totalSize > maxSize) {
+    					throw new UploadTooLargeException("The bundle's contents", maxSize);
+    				}
+    			}
+    		}
+    	}
+    	catch (UncheckedIOException e) {
+    		throw e.getCause();
+    	}
+    }
+
+    /**
+     * Resolves the name a client gave an uploaded file against the job
+     * directory, rejecting a name which leads out of it, such as an
+     * absolute path or one with ".." segments.
+     *
+     * @param jobDir The job directory.
+     * @param fileName The name from the part's Content-Disposition.
+     *
+     * @return Where to save the file.
+     *
+     * @throws IOException If the name isn't a file in the job directory.
+     */
+    static java.nio.file.Path resolveUpload(java.nio.file.Path jobDir, String fileName) throws IOException
+    {
+    	java.nio.file.Path dir = jobDir.normalize();
+    	java.nio.file.Path filePath = null;
+
+    	if (null != fileName && !fileName.isEmpty()) {
+    		try {
+    			filePath = dir.resolve(fileName).normalize();
+    		}
+    		catch (InvalidPathException e) {
+    			// Not a valid name on the job directory's file system
+    		}
+    	}
+
+    	if (null == filePath || !filePath.startsWith(dir) || filePath.equals(dir)) {
+    		throw new IOException("Invalid file name: " + fileName);
+    	}
+
+    	return filePath;
     }
 
     /**
-     * Method handling HTTP GET request for a particular PDF file.
+     * Saves an uploaded file to the job directory, then computes the digest
+     * of its contents. In a job directory on disk the file Jersey buffered
+     * the part in is renamed into place rather than copied. A job directory
+     * held in memory is written once, the part being counted as it is
+     * copied so the copy stops as soon as the file is larger than allowed.
+     * 
+     * @param file The uploaded file.
+     * @param filePath Where to save the file.
+     * 
+     * @return The digest of the file's contents.
+     * 
+     * @throws UploadTooLargeException If the file is larger than allowed.
+     * @throws FileAlreadyExistsException If a file of the same name has
+     * 			already been saved.
+     * @throws IOException If the file could not be saved.
+     */
+    private String saveFile(BodyPartEntity file, java.nio.file.Path filePath) throws IOException {
+    	long maxSize = (Long)config.getProperty(AppResourceConfig.MAX_UPLOAD_PART_SIZE);
+    	String fileName = filePath.getFileName().toString();
+
+    	if (Files.exists(filePath)) {
+    		throw new FileAlreadyExistsException(fileName, null, "Uploaded more than once");
+    	}
+
+    	if (filePath.getFileSystem() != FileSystems.getDefault()) {
+    		MessageDigest md = ContentDigest.newDigest();
+
+    		try (InputStream inStrm = new DigestInputStream(new LimitedInputStream(file.getInputStream(), fileName, maxSize), md)) {
+    			Files.copy(inStrm, filePath);
+    		}
+    		catch (UploadTooLargeException e) {
+    			Files.deleteIfExists(filePath);
+    			throw e;
+    		}
+
+    		return ContentDigest.toHex(md.digest());
+    	}
+
+    	java.nio.file.Path partPath = filePath.resolveSibling("." + fileName + UPLOAD_SUFFIX);
+
+    	/*
+    	 * Jersey deletes the file a part was moved to once the request is
+    	 * complete, so the part is moved under a temporary name and renamed
+    	 * again. Moving doesn't report a failure, so a part which couldn't
+    	 * be moved fails the rename.
+    	 */
+    	file.moveTo(partPath.toFile());
+    	Files.move(partPath, filePath, StandardCopyOption.ATOMIC_MOVE);
+
+    	if (maxSize > 0 && Files.size(filePath) > maxSize) {
+    		Files.delete(filePath);
+    		throw new UploadTooLargeException(fileName, maxSize);
+    	}
+
+		return ContentDigest.of(filePath);
+	}
+    
+
+    /**
+     * Method handling HTTP GET request for a particular PDF file. The PDF
+     * is sent with its length and an ETag, the digest of its contents, so
+     * a client or proxy revalidating a copy it already has with
+     * If-None-Match gets a 304, Not Modified, instead of the PDF again.
+     * <p>
+     * A single byte range can be requested with a Range header, returning a
+     * 206, Partial Content, so PDF viewers can load large PDFs a page at a
+     * time. A range starting beyond the end of the PDF gets a 416, Range
+     * Not Satisfiable. With an If-Range header that doesn't match the ETag
+     * the whole PDF is sent.
      * 
      * @param id An identifier which makes up the unique part of a temporary
      * 			 filename created previously
      * @param pdfFilename The name to use for the PDF file returned. 
      *
      * @return Response A {@link}jakarta.ws.rs.core.Response object. Will either
-     *         be a 404, Not Found response or 200, OK with the PDF file.
+     *         be a 404, Not Found, 304, Not Modified, 416, Range Not
+     *         Satisfiable, response, 200, OK with the PDF file or 206,
+     *         Partial Content with part of it.
      */
     @GET
     @Path("{id}/{pdffile}")
     @Produces("application/pdf")
     public Response fetchPdf(
     		@PathParam("id") String id,
-    		@PathParam("pdffile") String pdfFilename)
+    		@PathParam("pdffile") String pdfFilename,
+    		@HeaderParam(RANGE_HEADER) String range,
+    		@HeaderParam(IF_RANGE_HEADER) String ifRange,
+    		@Context Request httpRequest)
     {
     	Response resp;
     	
@@ -258,21 +965,54 @@ public class Xml2PdfResource {
     	
 		logger.info("Received fetch request for {}/{}", id, pdfFilename);
     	
-    	// Construct the path to the PDF file
-    	java.nio.file.Path filePath = getWorkDir().resolve(id).resolve(pdfFilename);
+    	// Construct the path to the PDF file, whose job directory may be held in memory
+    	java.nio.file.Path filePath = MemoryFileSystemProvider.getMemoryFileSystem().getRoot().resolve(id).resolve(pdfFilename);
+
+    	if (!Files.exists(filePath)) {
+    		filePath = getWorkDir().resolve(id).resolve(pdfFilename);
+    	}
 
     	// Check if the PDF file exists
 		if (Files.exists(filePath)) {
 			try {
-				// Grab the PDF and stream it back to the caller
-				InputStream inStrm = Files.newInputStream(filePath);
-				resp =
-					Response
-						.ok(inStrm)
-						.type("application/pdf")
-						.header("Content-Disposition", "filename="+pdfFilename)
+				long length = Files.size(filePath);
+				EntityTag etag = getEntityTag(filePath, length);
+
+				ResponseBuilder respBldr = httpRequest.evaluatePreconditions(etag);
+
+				if (null != respBldr) {
+					// The client's copy is current, or it only wanted a different version
+					logger.info("{}/{} not modified", id, pdfFilename);
+					resp = respBldr.tag(etag).build();
+				}
+				else {
+					// A range of an older version of the PDF is of no use, so send the whole PDF
+					ByteRange byteRange = matchesIfRange(ifRange, etag) ? ByteRange.parse(range, length) : null;
+
+					if (null == byteRange) {
+						respBldr = Response.ok(transfer(filePath, 0, length));
+					}
+					else {
+						respBldr = Response.status(Status.PARTIAL_CONTENT)
+								.entity(transfer(filePath, byteRange.getStart(), byteRange.getLength()))
+								.header(CONTENT_RANGE_HEADER, byteRange.toContentRange(length));
+					}
+
+					resp = respBldr
+							.type("application/pdf")
+							.tag(etag)
+							.header(HttpHeaders.CONTENT_LENGTH, (null == byteRange) ? length : byteRange.getLength())
+							.header(ACCEPT_RANGES_HEADER, "bytes")
+							.header("Content-Disposition", "filename="+pdfFilename)
+							.build();
+					logger.info("Returning {}", pdfFilename);
+				}
+			}
+			catch (IllegalArgumentException e) {
+				logger.info("Invalid range for {}/{}: {}", id, pdfFilename, range);
+				resp = Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+						.header(CONTENT_RANGE_HEADER, "bytes */" + getSize(filePath))
 						.build();
-				logger.info("Returning {}", pdfFilename);
 			}
 			catch (IOException e) {
 				logger.info("Unable to read {}/{}", id, pdfFilename);				
@@ -288,4 +1028,95 @@ public class Xml2PdfResource {
 
 		return resp;
     }
+
+    /**
+     * Fetches the ETag of a PDF, the digest of its contents. PDFs aren't
+     * changed once rendered, so the digest is only computed on the first
+     * request for a PDF rather than reading the whole PDF every time.
+     */
+    private EntityTag getEntityTag(java.nio.file.Path file, long length) throws IOException
+    {
+    	String key = file.toUri() + ":" + length + ":" + Files.getLastModifiedTime(file).toMillis();
+    	String digest = etagCache.get(key);
+
+    	if (null == digest) {
+    		digest = ContentDigest.of(file);
+    		etagCache.put(key, digest);
+    	}
+
+    	return new EntityTag(digest);
+    }
+
+    /**
+     * Checks if an If-Range header matches the PDF's ETag, so the range it
+     * guards can be sent. Only an identical strong tag matches. A weak tag,
+     * a date or anything else which isn't a tag may be for another version
+     * of the PDF.
+     *
+     * @param ifRange The If-Range header, null if there isn't one.
+     * @param etag The PDF's ETag.
+     *
+     * @return true if there is no If-Range header or it matches.
+     */
+    static boolean matchesIfRange(String ifRange, EntityTag etag)
+    {
+    	boolean matches = (null == ifRange);
+
+    	if (!matches && !etag.isWeak()) {
+    		String tag = ifRange.trim();
+
+    		// A strong tag is only the quoted value, a weak one starts with W/
+    		matches = tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"") &&
+    				  etag.getValue().equals(tag.substring(1, tag.length() - 1));
+    	}
+
+    	return matches;
+    }
+
+    private long getSize(java.nio.file.Path file) {
+    	try {
+    		return Files.size(file);
+    	} catch (IOException e) {
+    		return 0;
+    	}
+    }
+
+    /**
+     * Sends part of a file to the client. A file on disk is transferred by
+     * its channel, letting the JDK move the bytes with as few copies as the
+     * output allows, rather than being read into a buffer here first. A
+     * file held in memory is copied through a buffer.
+     */
+    private StreamingOutput transfer(java.nio.file.Path file, long offset, long length) {
+    	return outStrm -> {
+    		try (SeekableByteChannel inChannel = Files.newByteChannel(file)) {
+    			WritableByteChannel outChannel = Channels.newChannel(outStrm);
+    			long position = offset;
+    			long remaining = length;
+
+    			if (inChannel instanceof FileChannel fileChannel) {
+    				while (remaining > 0) {
+    					long sent = fileChannel.transferTo(position, remaining, outChannel);
+
+    					if (sent <= 0) {
+    						break;
+    					}
+    					position += sent;
+    					remaining -= sent;
+    				}
+    			}
+    			else {
+    				ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(remaining, TRANSFER_BUFFER_SIZE));
+
+    				inChannel.position(position);
+    				while (remaining > 0 && inChannel.read(buffer.limit((int)Math.min(remaining, buffer.capacity()))) > 0) {
+    					buffer.flip();
+    					remaining -= buffer.remaining();
+    					outStrm.write(buffer.array(), 0, buffer.remaining());
+    					buffer.clear();
+    				}
+    			}
+    		}
+    	};
+    }
 }
@@ -274,4 +274,26 @@ public class FileCleanupManagerTest
 			fail("Unable to create test file");
 		}
 	}
+
+	@Test
+	public void deleteEntry_beforeExpiry()
+	{
+		try {
+			tempPath = Files.createTempFile("fcmTest", null);
+
+			FileCleanupManager fcm = FileCleanupManager.getInstance();
+			
+			fcm.addEntry (tempPath, 1, TimeUnit.HOURS);
+
+			validateItemCount(fcm, 1);
+			
+			fcm.deleteEntry(tempPath);
+			
+			validateItemCount(fcm, 0);
+
+			assertFalse(Files.exists(tempPath));
+		} catch (IOException e) {
+			fail("Unable to create test file");
+		}
+	}
 }
@@ -0,0 +1,99 @@
+package com.rcs.pdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class JobFileIndexTest
+{
+	@TempDir
+	private Path jobDir;
+
+	@TempDir
+	private Path bundleDir;
+
+	@Test
+	public void findTest() throws IOException
+	{
+		Path logo = Files.writeString(jobDir.resolve("logo.png"), "job");
+		Path image = Files.writeString(Files.createDirectory(jobDir.resolve("images")).resolve("my image.png"), "job");
+		Files.writeString(bundleDir.resolve("logo.png"), "bundle");
+		Path font = Files.writeString(bundleDir.resolve("font.ttf"), "bundle");
+
+		JobFileIndex index = new JobFileIndex(List.of(jobDir, bundleDir));
+
+		// The first directory takes precedence
+		assertEquals(logo, index.find("logo.png"));
+		assertEquals(logo, index.find("./images/../logo.png"));
+		assertEquals(image, index.find("images/my image.png"));
+		assertEquals(font, index.find("font.ttf"));
+		assertEquals(3, index.getAllFiles().size());
+
+		assertNull(index.find("missing.png"));
+		assertNull(index.find("../logo.png"));
+		assertNull(index.find("/logo.png"));
+	}
+
+	/**
+	 * Validate a file missing the first time it is looked for stays missing.
+	 */
+	@Test
+	public void missTest() throws IOException
+	{
+		JobFileIndex index = new JobFileIndex(List.of(jobDir));
+
+		assertNull(index.find("logo.png"));
+
+		Files.writeString(jobDir.resolve("logo.png"), "job");
+
+		assertNull(index.find("logo.png"));
+	}
+
+	/**
+	 * Validate a reference is resolved against the file it was made from,
+	 * if that is one of the job's files, otherwise against the job's
+	 * directories.
+	 */
+	@Test
+	public void findFromBaseTest() throws IOException
+	{
+		Path dataDir = Files.createDirectory(jobDir.resolve("data"));
+		Path data = Files.writeString(dataDir.resolve("data.xml"), "job");
+		Path other = Files.writeString(dataDir.resolve("other.xml"), "job");
+		Path top = Files.writeString(jobDir.resolve("other.xml"), "job");
+
+		JobFileIndex index = new JobFileIndex(List.of(jobDir));
+
+		assertEquals(other, index.find("other.xml", data));
+		assertEquals(top, index.find("../other.xml", data));
+		assertEquals(top, index.find("other.xml", jobDir.resolve("test.xml")));
+		assertEquals(top, index.find("other.xml", bundleDir.resolve("elsewhere").resolve("main.xsl")));
+		assertEquals(top, index.find("other.xml", null));
+		assertNull(index.find("../../other.xml", data));
+	}
+
+	@Test
+	public void getRelativePathTest()
+	{
+		assertEquals("logo.png", JobFileIndex.getRelativePath("logo.png"));
+		assertEquals("images/logo.png", JobFileIndex.getRelativePath("images/logo.png#page=1"));
+		assertEquals("my image.png", JobFileIndex.getRelativePath("my%20image.png"));
+		assertEquals("my image.png", JobFileIndex.getRelativePath("my image.png"));
+		assertEquals("a+b.png", JobFileIndex.getRelativePath("a+b.png"));
+		assertEquals("100%.png", JobFileIndex.getRelativePath("100%.png"));
+		assertEquals("dir/a:b.png", JobFileIndex.getRelativePath("dir/a:b.png"));
+
+		assertNull(JobFileIndex.getRelativePath("http://example.com/logo.png"));
+		assertNull(JobFileIndex.getRelativePath("file:logo.png"));
+		assertNull(JobFileIndex.getRelativePath("asset:abc"));
+		assertNull(JobFileIndex.getRelativePath("#section"));
+	}
+}
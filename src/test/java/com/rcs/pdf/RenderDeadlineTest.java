@@ -0,0 +1,80 @@
+package com.rcs.pdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+
+public class RenderDeadlineTest
+{
+	@Test
+	public void expiryTest() throws InterruptedException
+	{
+		RenderDeadline deadline = new RenderDeadline(1);
+		AtomicInteger cancelled = new AtomicInteger();
+
+		deadline.onCancel(cancelled::incrementAndGet);
+
+		Thread.sleep(5);
+
+		assertTrue(deadline.isCancelled());
+		assertTrue(deadline.isTimedOut());
+		assertEquals(RenderDeadline.TIMED_OUT, deadline.getReason());
+
+		deadline.cancel("Again");
+
+		assertEquals(1, cancelled.get(), "Listener not run exactly once");
+		assertEquals(RenderDeadline.TIMED_OUT, deadline.getReason());
+	}
+
+	@Test
+	public void noLimitTest()
+	{
+		RenderDeadline deadline = RenderDeadline.none();
+
+		assertFalse(deadline.isCancelled());
+		assertEquals(Long.MAX_VALUE, deadline.getRemainingMillis());
+
+		deadline.cancel("Client disconnected");
+
+		assertTrue(deadline.isCancelled());
+		assertFalse(deadline.isTimedOut());
+	}
+
+	/**
+	 * Validate the guards pass everything through until the render is
+	 * cancelled, then fail.
+	 */
+	@Test
+	public void guardTest() throws IOException, SAXException
+	{
+		RenderDeadline deadline = RenderDeadline.none();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream outStrm = deadline.guard(bytes);
+		ContentHandler handler = deadline.guard(new DefaultHandler());
+
+		outStrm.write(new byte[10]);
+		handler.startElement("", "root", "root", new AttributesImpl());
+
+		assertEquals(10, bytes.size());
+
+		deadline.cancel("Client disconnected");
+
+		assertThrows(InterruptedIOException.class, () -> outStrm.write(new byte[10]));
+		assertThrows(SAXException.class, () -> handler.endElement("", "root", "root"));
+		assertEquals(10, bytes.size());
+	}
+}
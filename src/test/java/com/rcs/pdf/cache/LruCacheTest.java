@@ -0,0 +1,66 @@
+package com.rcs.pdf.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+
+public class LruCacheTest
+{
+	@Test
+	public void invalidSizeTest()
+	{
+		assertThrows(IllegalArgumentException.class, () -> new LruCache<String, String>("test", -1));
+	}
+
+	@Test
+	public void hitAndMissTest()
+	{
+		LruCache<String, String> cache = new LruCache<>("test", 2);
+
+		cache.put("a", "A");
+
+		assertEquals("A", cache.get("a"));
+		assertNull(cache.get("b"));
+
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.5, cache.getHitRatio());
+	}
+
+	/**
+	 * Validate the least recently used entry is evicted, not the oldest.
+	 */
+	@Test
+	public void evictLeastRecentlyUsedTest()
+	{
+		LruCache<String, String> cache = new LruCache<>("test", 2);
+
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.get("a");
+		cache.put("c", "C");
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertEquals("A", cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals("C", cache.get("c"));
+	}
+
+	/**
+	 * Validate that a cache with a size of 0 never holds anything.
+	 */
+	@Test
+	public void disabledCacheTest()
+	{
+		LruCache<String, String> cache = new LruCache<>("test", 0);
+
+		cache.put("a", "A");
+
+		assertEquals(0, cache.size());
+		assertNull(cache.get("a"));
+	}
+}
@@ -0,0 +1,89 @@
+package com.rcs.pdf.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class ResultCacheTest
+{
+	@TempDir
+	Path tempDir;
+
+	private Path createFile(String name, int size) throws IOException
+	{
+		Path file = tempDir.resolve(name);
+		Files.write(file, new byte[size]);
+
+		return file;
+	}
+
+	@Test
+	public void disabledCacheTest() throws IOException
+	{
+		ResultCache cache = new ResultCache(tempDir.resolve("cache"), 0);
+
+		cache.store("key", createFile("a.pdf", 10), createFile("a.log", 10));
+
+		assertFalse(cache.fetch("key", tempDir.resolve("b.pdf"), tempDir.resolve("b.log")));
+		assertFalse(Files.exists(tempDir.resolve("cache")));
+	}
+
+	@Test
+	public void storeAndFetchTest() throws IOException
+	{
+		ResultCache cache = new ResultCache(tempDir.resolve("cache"), 1024);
+		Path pdfFile = createFile("a.pdf", 100);
+
+		cache.store("key", pdfFile, tempDir.resolve("missing.log"));
+
+		assertTrue(cache.fetch("key", tempDir.resolve("b.pdf"), tempDir.resolve("b.log")));
+		assertArrayEquals(Files.readAllBytes(pdfFile), Files.readAllBytes(tempDir.resolve("b.pdf")));
+		assertTrue(Files.exists(tempDir.resolve("b.log")));
+
+		assertFalse(cache.fetch("other", tempDir.resolve("c.pdf"), tempDir.resolve("c.log")));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	/**
+	 * Validate the least recently used result is evicted once the cache
+	 * exceeds its size.
+	 */
+	@Test
+	public void evictionTest() throws IOException
+	{
+		ResultCache cache = new ResultCache(tempDir.resolve("cache"), 250);
+
+		cache.store("first", createFile("1.pdf", 100), createFile("1.log", 0));
+		cache.store("second", createFile("2.pdf", 100), createFile("2.log", 0));
+		cache.fetch("first", tempDir.resolve("f.pdf"), tempDir.resolve("f.log"));
+		cache.store("third", createFile("3.pdf", 100), createFile("3.log", 0));
+
+		assertEquals(2, cache.size());
+		assertTrue(cache.fetch("first", tempDir.resolve("g.pdf"), tempDir.resolve("g.log")));
+		assertFalse(cache.fetch("second", tempDir.resolve("h.pdf"), tempDir.resolve("h.log")));
+	}
+
+	/**
+	 * Validate cached results are reloaded by a new instance.
+	 */
+	@Test
+	public void reloadTest() throws IOException
+	{
+		new ResultCache(tempDir.resolve("cache"), 1024).store("key", createFile("a.pdf", 10), createFile("a.log", 10));
+
+		ResultCache cache = new ResultCache(tempDir.resolve("cache"), 1024);
+
+		assertEquals(1, cache.size());
+		assertEquals(20, cache.getTotalBytes());
+	}
+}
@@ -0,0 +1,186 @@
+package com.rcs.pdf.memfs;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class MemoryFileSystemTest
+{
+	private MemoryFileSystem fileSystem = MemoryFileSystemProvider.getMemoryFileSystem();
+	private Path jobDir;
+
+	@TempDir
+	private Path spillDir;
+
+	@BeforeEach
+	public void createJobDir() throws IOException {
+		jobDir = Files.createTempDirectory(fileSystem.getRoot(), "pdfGen");
+	}
+
+	@AfterEach
+	public void deleteJobDir() throws IOException
+	{
+		try (Stream<Path> files = Files.list(jobDir)) {
+			for (Path file : files.toList()) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(jobDir);
+	}
+
+	@Test
+	public void readWriteTest() throws IOException
+	{
+		long usedBytes = fileSystem.getUsedBytes();
+		Path file = jobDir.resolve("test.fo");
+
+		Files.writeString(file, "Hello");
+		Files.writeString(file, " World", StandardOpenOption.APPEND);
+
+		assertEquals("Hello World", Files.readString(file));
+		assertEquals(11, Files.size(file));
+		assertEquals(usedBytes + 11, fileSystem.getUsedBytes());
+
+		Files.writeString(file, "Bye");
+
+		assertEquals("Bye", Files.readString(file));
+		assertEquals(usedBytes + 3, fileSystem.getUsedBytes());
+
+		Files.delete(file);
+
+		assertFalse(Files.exists(file));
+		assertEquals(usedBytes, fileSystem.getUsedBytes());
+		assertThrows(NoSuchFileException.class, () -> Files.readAllBytes(file));
+	}
+
+	@Test
+	public void directoryTest() throws IOException
+	{
+		Path file = jobDir.resolve("a.xml");
+
+		Files.write(file, new byte[100]);
+		Files.copy(file, jobDir.resolve("b.xml"));
+		Files.move(jobDir.resolve("b.xml"), jobDir.resolve("c.xml"));
+
+		try (Stream<Path> files = Files.list(jobDir)) {
+			assertEquals(List.of(file, jobDir.resolve("c.xml")), files.toList());
+		}
+
+		assertTrue(Files.isDirectory(jobDir));
+		assertTrue(Files.isRegularFile(file));
+		assertThrows(FileAlreadyExistsException.class, () -> Files.createDirectory(jobDir));
+		assertThrows(DirectoryNotEmptyException.class, () -> Files.delete(jobDir));
+		assertThrows(NoSuchFileException.class, () -> Files.createFile(jobDir.resolve("missing").resolve("a.xml")));
+	}
+
+	/**
+	 * Validate a file which would take the file system past its cap is
+	 * moved to disk, or fails to be written if there's nowhere to move it.
+	 */
+	@Test
+	public void spillTest() throws IOException
+	{
+		long usedBytes = fileSystem.getUsedBytes();
+		Path small = jobDir.resolve("small.fo");
+		Path large = jobDir.resolve("large.pdf");
+		byte[] contents = new byte[1000];
+
+		Arrays.fill(contents, (byte)'x');
+
+		try {
+			fileSystem.setLimit(usedBytes + 100, spillDir);
+
+			Files.write(small, new byte[50]);
+			Files.write(large, contents);
+			Files.copy(large, jobDir.resolve("copy.pdf"));
+
+			assertEquals(usedBytes + 50, fileSystem.getUsedBytes());
+			assertArrayEquals(contents, Files.readAllBytes(large));
+			assertArrayEquals(contents, Files.readAllBytes(jobDir.resolve("copy.pdf")));
+			assertEquals(1000, Files.size(large));
+
+			Files.delete(large);
+			Files.delete(jobDir.resolve("copy.pdf"));
+
+			assertEquals(usedBytes + 50, fileSystem.getUsedBytes());
+
+			fileSystem.setLimit(usedBytes + 100, null);
+
+			assertThrows(IOException.class, () -> Files.write(large, contents));
+		}
+		finally {
+			fileSystem.setLimit(Long.MAX_VALUE, null);
+		}
+	}
+
+	/**
+	 * Validate a file deleted while open can still be read through the
+	 * channel, and its memory is only released once the channel is closed.
+	 */
+	@Test
+	public void deleteOpenTest() throws IOException
+	{
+		long usedBytes = fileSystem.getUsedBytes();
+		Path file = jobDir.resolve("test.pdf");
+
+		Files.writeString(file, "Hello");
+
+		try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+			Files.delete(file);
+
+			ByteBuffer buffer = ByteBuffer.allocate(10);
+
+			assertFalse(Files.exists(file));
+			assertEquals(5, channel.read(buffer));
+			assertEquals("Hello", new String(buffer.array(), 0, 5, StandardCharsets.UTF_8));
+			assertEquals(usedBytes + 5, fileSystem.getUsedBytes());
+		}
+
+		assertEquals(usedBytes, fileSystem.getUsedBytes());
+	}
+
+	/**
+	 * Validate files can be found by URI, as FOP and Saxon do to resolve
+	 * references between a job's files.
+	 */
+	@Test
+	public void uriTest() throws IOException
+	{
+		Path file = jobDir.resolve("font.ttf");
+
+		Files.writeString(file, "font");
+
+		assertEquals(MemoryFileSystemProvider.SCHEME, file.toUri().getScheme());
+		assertEquals(file, Paths.get(file.toUri()));
+		assertEquals(file, jobDir.resolve("../" + jobDir.getFileName() + "/./font.ttf").normalize());
+		assertEquals(Path.of("font.ttf").toString(), jobDir.relativize(file).toString());
+
+		try (InputStream inStrm = file.toUri().toURL().openStream()) {
+			assertArrayEquals("font".getBytes(StandardCharsets.UTF_8), inStrm.readAllBytes());
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.rcs.pdfsvc.config;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -25,6 +26,8 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+
+import com.rcs.pdfsvc.job.OptimizationLevel;
 import org.mockito.Mockito;
 
 
@@ -432,4 +435,82 @@ public class AppPropertiesTest
 			new AppProperties();
 		});
 	}
+
+	/**
+	 * Validate that the templates cache size defaults when it isn't in the
+	 * properties file.
+	 */
+	@Test
+	public void templatesCacheSize_defaultTest () {
+		try {
+			AppProperties props = new AppProperties();
+
+			assertEquals(AppProperties.DEFAULT_TEMPLATES_CACHE_SIZE, props.getTemplatesCacheSize(), "Templates cache size not defaulted");
+		}
+		catch (Exception e) {
+			fail("Unexpected exception : " + e.toString());
+		}
+	}
+
+	/**
+	 * Validate that an IllegalArgumentException is thrown when a negative
+	 * templates cache size is used.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void templatesCacheSize_negativeNumberTest () throws IOException {
+		assertThrows(IllegalArgumentException.class, () -> {
+			setSystemProperty(AppProperties.TEMPLATES_CACHE_SIZE, "-1");
+
+			new AppProperties();
+		});
+	}
+
+	/**
+	 * Validate that the font dir is optional.
+	 */
+	@Test
+	public void fontDir_optionalTest () {
+		try {
+			AppProperties props = new AppProperties();
+
+			assertNull(props.getFontDir(), "Font dir should not be set");
+		}
+		catch (Exception e) {
+			fail("Unexpected exception : " + e.toString());
+		}
+	}
+
+	/**
+	 * Validate that the optimization level is parsed ignoring case.
+	 */
+	@Test
+	public void optimizationLevel_caseTest () {
+		try {
+			setSystemProperty(AppProperties.OPTIMIZATION_LEVEL, "Maximum");
+
+			AppProperties props = new AppProperties();
+
+			assertEquals(OptimizationLevel.MAXIMUM, props.getOptimizationLevel(), "Optimization level not parsed");
+		}
+		catch (Exception e) {
+			fail("Unexpected exception : " + e.toString());
+		}
+	}
+
+	/**
+	 * Validate that an IllegalArgumentException is thrown when an unknown
+	 * optimization level is used.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void optimizationLevel_invalidTest () throws IOException {
+		assertThrows(IllegalArgumentException.class, () -> {
+			setSystemProperty(AppProperties.OPTIMIZATION_LEVEL, "fastest");
+
+			new AppProperties();
+		});
+	}
 }
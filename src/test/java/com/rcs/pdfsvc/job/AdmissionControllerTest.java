@@ -0,0 +1,273 @@
+package com.rcs.pdfsvc.job;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+
+public class AdmissionControllerTest
+{
+	/**
+	 * Validate jobs beyond the limit wait and those beyond the queue are
+	 * rejected with a retry delay.
+	 */
+	@Test
+	public void rejectWhenQueueFullTest() throws InterruptedException
+	{
+		AdmissionController controller = new AdmissionController(1, 1);
+
+		AdmissionController.Ticket running = controller.admit(null, Lane.BULK, 0);
+		running.await();
+		AdmissionController.Ticket queued = controller.admit(null, Lane.BULK, 0);
+
+		JobRejectedException e = assertThrows(JobRejectedException.class, () -> controller.admit(null, Lane.BULK, 0));
+		assertTrue(e.getRetryAfter() >= 1, "Retry delay not set");
+
+		assertEquals(1, controller.getRunning());
+		assertEquals(1, controller.getWaiting());
+
+		queued.close();
+		running.close();
+
+		assertEquals(0, controller.getRunning());
+		assertEquals(0, controller.getWaiting());
+	}
+
+	/**
+	 * Validate a waiting job starts once a running job finishes.
+	 */
+	@Test
+	public void waitForSlotTest() throws InterruptedException
+	{
+		AdmissionController controller = new AdmissionController(1, 4);
+
+		AdmissionController.Ticket running = controller.admit(null, Lane.BULK, 0);
+		running.await();
+		AdmissionController.Ticket queued = controller.admit(null, Lane.BULK, 0);
+
+		CountDownLatch started = new CountDownLatch(1);
+		Thread waiter = new Thread(() -> {
+			try {
+				queued.await();
+				started.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		waiter.start();
+
+		assertFalse(started.await(100, TimeUnit.MILLISECONDS), "Started beyond the limit");
+
+		running.close();
+
+		assertTrue(started.await(5, TimeUnit.SECONDS), "Didn't start once a slot was free");
+		assertEquals(1, controller.getRunning());
+
+		queued.close();
+	}
+
+	/**
+	 * Validate a client which has filled the queue doesn't stop another
+	 * client queueing its share.
+	 */
+	@Test
+	public void queueShareTest() throws InterruptedException
+	{
+		AdmissionController controller = new AdmissionController(1, 4);
+
+		AdmissionController.Ticket running = controller.admit("batch", Lane.BULK, 0);
+		running.await();
+
+		List<AdmissionController.Ticket> queued = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			queued.add(controller.admit("batch", Lane.BULK, 0));
+		}
+		assertThrows(JobRejectedException.class, () -> controller.admit("batch", Lane.BULK, 0));
+
+		// Half the queue is the other client's
+		queued.add(controller.admit("other", Lane.BULK, 0));
+		queued.add(controller.admit("other", Lane.BULK, 0));
+		assertThrows(JobRejectedException.class, () -> controller.admit("other", Lane.BULK, 0));
+
+		assertEquals(6, controller.getWaiting());
+
+		queued.forEach(AdmissionController.Ticket::close);
+		running.close();
+	}
+
+	/**
+	 * Validate a task the executor won't run gives back its slot and is
+	 * told why.
+	 */
+	@Test
+	public void dispatchRejectedTest() throws InterruptedException
+	{
+		AdmissionController controller = new AdmissionController(1, 4);
+		List<RejectedExecutionException> failures = new ArrayList<>();
+
+		AdmissionController.Ticket ticket = controller.admit(null, Lane.BULK, 0);
+		ticket.dispatch(task -> { throw new RejectedExecutionException("Shutting down"); }, () -> {}, failures::add);
+
+		assertEquals(1, failures.size());
+		assertEquals(0, controller.getRunning());
+		assertEquals(0, controller.getWaiting());
+
+		AdmissionController.Ticket next = controller.admit(null, Lane.BULK, 0);
+		next.await();
+
+		assertEquals(1, controller.getRunning());
+
+		next.close();
+	}
+
+	/**
+	 * Validate a job too big for the heap is still admitted when nothing
+	 * else is, but not alongside other jobs.
+	 */
+	@Test
+	public void rejectWhenHeapFullTest() throws InterruptedException
+	{
+		AdmissionController controller = new AdmissionController(4, 4);
+		long tooBig = Runtime.getRuntime().maxMemory();
+
+		try (AdmissionController.Ticket ticket = controller.admit(null, Lane.BULK, tooBig)) {
+			ticket.await();
+
+			assertThrows(JobRejectedException.class, () -> controller.admit(null, Lane.BULK, tooBig));
+		}
+
+		assertEquals(0, controller.getRunning());
+	}
+
+	/**
+	 * Validate a job of unknown size reserves enough of the heap that only
+	 * a few are admitted alongside each other.
+	 */
+	@Test
+	public void unknownSizeTest() throws InterruptedException
+	{
+		AdmissionController controller = new AdmissionController(8, 8);
+		List<AdmissionController.Ticket> tickets = new ArrayList<>();
+
+		assertThrows(JobRejectedException.class, () -> {
+			for (int i = 0; i < 8; i++) {
+				tickets.add(controller.admit(null, Lane.BULK, -1));
+			}
+		});
+		assertTrue(tickets.size() <= 4, "Admitted too many jobs of unknown size");
+
+		tickets.forEach(AdmissionController.Ticket::close);
+	}
+
+	/**
+	 * Validate a client with a backlog doesn't hold up a client which
+	 * arrives later, and that the per-client limit is applied.
+	 */
+	@Test
+	public void fairShareTest() throws InterruptedException
+	{
+		AdmissionController controller = new AdmissionController(1, 10, Map.of("interactive", 2), 0, 0);
+		List<String> started = new ArrayList<>();
+
+		AdmissionController.Ticket first = controller.admit("batch", Lane.BULK, 0);
+		first.await();
+
+		for (int i = 0; i < 3; i++) {
+			AdmissionController.Ticket ticket = controller.admit("batch", Lane.BULK, 0);
+			ticket.dispatch(Runnable::run, () -> { started.add("batch"); ticket.close(); }, e -> {});
+		}
+		AdmissionController.Ticket interactive = controller.admit("interactive", Lane.BULK, 0);
+		interactive.dispatch(Runnable::run, () -> { started.add("interactive"); interactive.close(); }, e -> {});
+
+		assertTrue(started.isEmpty(), "Started beyond the limit");
+
+		first.close();
+
+		assertEquals(List.of("interactive", "batch", "batch", "batch"), started);
+		assertEquals(0, controller.getWaiting());
+	}
+
+	@Test
+	public void clientLimitTest() throws InterruptedException
+	{
+		AdmissionController controller = new AdmissionController(4, 10, Map.of(), 1, 0);
+
+		AdmissionController.Ticket first = controller.admit("batch", Lane.BULK, 0);
+		first.await();
+
+		AdmissionController.Ticket second = controller.admit("batch", Lane.BULK, 0);
+		second.dispatch(Runnable::run, () -> {}, e -> {});
+
+		AdmissionController.Ticket other = controller.admit("other", Lane.BULK, 0);
+		other.await();
+
+		assertEquals(1, controller.getRunning("batch"));
+		assertEquals(1, controller.getRunning("other"));
+
+		first.close();
+
+		assertEquals(1, controller.getRunning("batch"));
+
+		second.close();
+		other.close();
+	}
+
+	/**
+	 * Validate bulk jobs can't use the slots reserved for the fast lane.
+	 */
+	@Test
+	public void fastLaneTest() throws InterruptedException
+	{
+		AdmissionController controller = new AdmissionController(2, 10, Map.of(), 0, 1);
+
+		AdmissionController.Ticket bulk = controller.admit(null, Lane.BULK, 0);
+		bulk.await();
+
+		AdmissionController.Ticket queuedBulk = controller.admit(null, Lane.BULK, 0);
+		queuedBulk.dispatch(Runnable::run, () -> {}, e -> {});
+
+		assertEquals(1, controller.getRunning(), "Bulk job used the reserved slot");
+
+		AdmissionController.Ticket fast = controller.admit(null, Lane.FAST, 0);
+		fast.await();
+
+		assertEquals(2, controller.getRunning());
+
+		bulk.close();
+
+		assertEquals(2, controller.getRunning());
+
+		fast.close();
+		queuedBulk.close();
+	}
+
+	@Test
+	public void withdrawTest() throws InterruptedException
+	{
+		AdmissionController controller = new AdmissionController(1, 10);
+
+		AdmissionController.Ticket running = controller.admit(null, Lane.BULK, 0);
+		running.await();
+
+		AdmissionController.Ticket queued = controller.admit(null, Lane.BULK, 0);
+		queued.dispatch(Runnable::run, () -> {}, e -> {});
+
+		assertFalse(running.withdraw(), "Withdrew a started ticket");
+		assertTrue(queued.withdraw());
+		assertEquals(0, controller.getWaiting());
+
+		running.close();
+
+		assertEquals(0, controller.getRunning());
+	}
+}
@@ -0,0 +1,74 @@
+package com.rcs.pdfsvc.job;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.logging.log4j.Level;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class LaneClassifierTest
+{
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void inputSizeTest()
+	{
+		LaneClassifier classifier = new LaneClassifier(1024, 4, 1000);
+
+		assertEquals(Lane.FAST, classifier.estimate(LaneClassifier.FO_PROFILE, 1024, 0).getLane());
+		assertEquals(Lane.BULK, classifier.estimate(LaneClassifier.FO_PROFILE, 1025, 0).getLane());
+		assertEquals(Lane.BULK, classifier.estimate(LaneClassifier.FO_PROFILE, 10, 5).getLane());
+
+		// A body of unknown size may be any size
+		assertEquals(Lane.BULK, classifier.estimate(LaneClassifier.FO_PROFILE, -1, 0).getLane());
+	}
+
+	/**
+	 * Validate a profile which has rendered slowly moves its jobs into the
+	 * bulk lane, and that the prediction follows the render times.
+	 */
+	@Test
+	public void historyTest()
+	{
+		LaneClassifier classifier = new LaneClassifier(1024, 4, 1000);
+
+		LaneClassifier.Estimate estimate = classifier.estimate("stylesheet:report", 10, 0);
+		assertEquals(-1, estimate.getPredictedMillis());
+		assertEquals(Lane.FAST, estimate.getLane());
+
+		classifier.record(estimate, 5000);
+
+		estimate = classifier.estimate("stylesheet:report", 10, 0);
+		assertEquals(5000, estimate.getPredictedMillis());
+		assertEquals(Lane.BULK, estimate.getLane());
+
+		assertEquals(Lane.FAST, classifier.estimate("stylesheet:invoice", 10, 0).getLane());
+	}
+
+	@Test
+	public void pageSequenceTest() throws IOException
+	{
+		LaneClassifier classifier = new LaneClassifier(1024 * 1024, 2, 1000);
+		String pageSequence = "<fo:page-sequence master-reference=\"A4\"><fo:flow flow-name=\"body\"/></fo:page-sequence>\n";
+
+		Files.writeString(tempDir.resolve("short.fo"),
+				"<?xml version=\"1.0\"?><fo:root xmlns:fo=\"http://www.w3.org/1999/XSL/Format\">" +
+				pageSequence.repeat(2) + "</fo:root>");
+		Files.writeString(tempDir.resolve("long.fo"),
+				"<fo:root xmlns:fo=\"http://www.w3.org/1999/XSL/Format\">" + pageSequence.repeat(3) + "</fo:root>");
+
+		PdfJob job = new PdfJob(tempDir, "short.pdf", Level.INFO);
+		job.setFoFile("short.fo");
+		assertEquals(Lane.FAST, classifier.estimate(job, 100).getLane());
+
+		job = new PdfJob(tempDir, "long.pdf", Level.INFO);
+		job.setFoFile("long.fo");
+		assertEquals(Lane.BULK, classifier.estimate(job, 100).getLane());
+	}
+}
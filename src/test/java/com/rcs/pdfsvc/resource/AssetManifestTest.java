@@ -0,0 +1,63 @@
+package com.rcs.pdfsvc.resource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.rcs.pdf.cache.AssetStore;
+
+
+public class AssetManifestTest
+{
+	private static final String LOGO_DIGEST = "3fd6e6be528c182d768563a63b65ac5a70d022149a01eeeaaa30396d75f426e0";
+	private static final String FONT_DIGEST = "C2439293632C2E12620896895C1D3C55A5A10599E195526799C0B10C46471425";
+
+	@TempDir
+	Path tempDir;
+
+	/**
+	 * Validate the output of sha256sum, in text and binary mode, is parsed.
+	 */
+	@Test
+	public void parseTest()
+	{
+		AssetManifest manifest = AssetManifest.parse(LOGO_DIGEST + "  logo.png\r\n" + FONT_DIGEST + " *my font.ttf\n\n");
+
+		assertEquals(Map.of("logo.png", LOGO_DIGEST, "my font.ttf", FONT_DIGEST.toLowerCase()), manifest.getDigests());
+		assertEquals(LOGO_DIGEST + "  logo.png\n" + FONT_DIGEST.toLowerCase() + "  my font.ttf\n", manifest.toString());
+		assertTrue(AssetManifest.parse(null).isEmpty());
+	}
+
+	@Test
+	public void invalidTest()
+	{
+		assertThrows(IllegalArgumentException.class, () -> AssetManifest.parse("logo.png"));
+		assertThrows(IllegalArgumentException.class, () -> AssetManifest.parse("1234  logo.png"));
+		assertThrows(IllegalArgumentException.class, () -> AssetManifest.parse(LOGO_DIGEST + "  ../logo.png"));
+		assertThrows(IllegalArgumentException.class, () -> AssetManifest.parse(LOGO_DIGEST + "  .."));
+	}
+
+	@Test
+	public void missingTest() throws IOException
+	{
+		AssetStore store = new AssetStore(tempDir.resolve("assets"), 1024);
+		Path logo = tempDir.resolve("logo.png");
+		Files.writeString(logo, "logo");
+
+		String digest = store.store(logo);
+		AssetManifest manifest = AssetManifest.parse(digest + "  logo.png\n" + FONT_DIGEST + "  font.ttf\n");
+
+		assertEquals(Map.of("font.ttf", FONT_DIGEST.toLowerCase()), manifest.getMissing(store).getDigests());
+		assertEquals(4, store.getSize(digest));
+		assertTrue(store.fetch(digest, tempDir.resolve("copy.png")));
+		assertEquals("logo", Files.readString(tempDir.resolve("copy.png")));
+	}
+}
@@ -0,0 +1,49 @@
+package com.rcs.pdfsvc.resource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+
+public class ByteRangeTest
+{
+	@Test
+	public void parseTest()
+	{
+		ByteRange range = ByteRange.parse("bytes=100-199", 1000);
+
+		assertEquals(100, range.getStart());
+		assertEquals(199, range.getEnd());
+		assertEquals(100, range.getLength());
+		assertEquals("bytes 100-199/1000", range.toContentRange(1000));
+
+		// Open ended and suffix ranges, limited to the end of the file
+		assertEquals(100, ByteRange.parse("bytes=900-", 1000).getLength());
+		assertEquals(50, ByteRange.parse("bytes=900-949", 950).getLength());
+		assertEquals(950, ByteRange.parse("bytes=-50", 1000).getStart());
+		assertEquals(0, ByteRange.parse("bytes=-5000", 1000).getStart());
+	}
+
+	/**
+	 * Validate headers which can't be used get the whole file.
+	 */
+	@Test
+	public void wholeFileTest()
+	{
+		assertNull(ByteRange.parse(null, 1000));
+		assertNull(ByteRange.parse("items=0-10", 1000));
+		assertNull(ByteRange.parse("bytes=0-10,20-30", 1000));
+		assertNull(ByteRange.parse("bytes=20-10", 1000));
+		assertNull(ByteRange.parse("bytes=a-b", 1000));
+	}
+
+	@Test
+	public void notSatisfiableTest()
+	{
+		assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=1000-", 1000));
+		assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=-0", 1000));
+		assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=-10", 0));
+	}
+}
@@ -0,0 +1,33 @@
+package com.rcs.pdfsvc.resource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+
+public class StylesheetResourceTest
+{
+	/**
+	 * Validate a bundle keeps the directories of its files but can't save
+	 * one outside the bundle.
+	 */
+	@Test
+	public void resolveBundleFileTest() throws IOException
+	{
+		Path bundleDir = Path.of("work", "stylesheets", "staging123");
+
+		assertEquals(bundleDir.resolve("main.xsl"), StylesheetResource.resolveBundleFile(bundleDir, "main.xsl"));
+		assertEquals(bundleDir.resolve("common").resolve("layout.xsl"), StylesheetResource.resolveBundleFile(bundleDir, "common/layout.xsl"));
+
+		assertThrows(IOException.class, () -> StylesheetResource.resolveBundleFile(bundleDir, "common/../main.xsl"));
+		assertThrows(IOException.class, () -> StylesheetResource.resolveBundleFile(bundleDir, "../../x.xsl"));
+		assertThrows(IOException.class, () -> StylesheetResource.resolveBundleFile(bundleDir, "/etc/passwd"));
+		assertThrows(IOException.class, () -> StylesheetResource.resolveBundleFile(bundleDir, "."));
+		assertThrows(IOException.class, () -> StylesheetResource.resolveBundleFile(bundleDir, ""));
+		assertThrows(IOException.class, () -> StylesheetResource.resolveBundleFile(bundleDir, null));
+	}
+}
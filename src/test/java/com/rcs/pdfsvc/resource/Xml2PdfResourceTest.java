@@ -0,0 +1,76 @@
+package com.rcs.pdfsvc.resource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.ws.rs.core.EntityTag;
+
+
+public class Xml2PdfResourceTest
+{
+	@Test
+	public void encodeLogHeaderTest()
+	{
+		String log = "INFO : Rendered page #1.\n";
+
+		assertEquals(log, decode(Xml2PdfResource.encodeLogHeader(log)));
+	}
+
+	/**
+	 * Validate a large log is cut down, without splitting a character.
+	 */
+	@Test
+	public void encodeLogHeaderTruncatedTest()
+	{
+		String log = "é".repeat(10_000);
+		String header = decode(Xml2PdfResource.encodeLogHeader(log));
+
+		assertTrue(header.getBytes(StandardCharsets.UTF_8).length <= 4 * 1024);
+		assertTrue(header.endsWith("[Log truncated]"));
+		assertTrue(header.startsWith("éé"));
+		assertEquals(-1, header.indexOf('\uFFFD'));
+	}
+
+	@Test
+	public void matchesIfRangeTest()
+	{
+		EntityTag etag = new EntityTag("abc123");
+
+		assertTrue(Xml2PdfResource.matchesIfRange(null, etag));
+		assertTrue(Xml2PdfResource.matchesIfRange("\"abc123\"", etag));
+		assertFalse(Xml2PdfResource.matchesIfRange("W/\"abc123\"", etag));
+		assertFalse(Xml2PdfResource.matchesIfRange("\"def456\"", etag));
+		assertFalse(Xml2PdfResource.matchesIfRange("Wed, 21 Oct 2026 07:28:00 GMT", etag));
+	}
+
+	/**
+	 * Validate an uploaded file can't be saved outside the job directory.
+	 */
+	@Test
+	public void resolveUploadTest() throws IOException
+	{
+		Path jobDir = Path.of("work", "pdfGen123");
+
+		assertEquals(jobDir.resolve("test.fo"), Xml2PdfResource.resolveUpload(jobDir, "test.fo"));
+		assertEquals(jobDir.resolve("logo.png"), Xml2PdfResource.resolveUpload(jobDir, "images/../logo.png"));
+
+		assertThrows(IOException.class, () -> Xml2PdfResource.resolveUpload(jobDir, "../../x"));
+		assertThrows(IOException.class, () -> Xml2PdfResource.resolveUpload(jobDir, "/etc/passwd"));
+		assertThrows(IOException.class, () -> Xml2PdfResource.resolveUpload(jobDir, "."));
+		assertThrows(IOException.class, () -> Xml2PdfResource.resolveUpload(jobDir, ""));
+		assertThrows(IOException.class, () -> Xml2PdfResource.resolveUpload(jobDir, null));
+	}
+
+	private String decode(String header) {
+		return new String(Base64.getDecoder().decode(header), StandardCharsets.UTF_8);
+	}
+}